@@ -0,0 +1,107 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+/**
+ * Vose's alias method: picks an index with probability proportional to its
+ * weight, in constant time, from a table with one column per index.
+ *
+ * Each column holds part of one index, and the rest of another, so that
+ * every column has the same total weight. A pick chooses a column, then
+ * flips a biased coin between its two indexes.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+class AliasTable {
+
+    private double[] probability;
+
+    private int[] alias;
+
+    /**
+     * @param weights
+     *            must be positive
+     */
+    AliasTable(long[] weights) {
+        int n = weights.length;
+        probability = new double[n];
+        alias = new int[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += weights[i];
+        }
+
+        // scale so that the average column is exactly 1
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallSize = 0, largeSize = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+
+        // fill each short column from a tall one
+        int less, more;
+        while (smallSize > 0 && largeSize > 0) {
+            less = small[--smallSize];
+            more = large[--largeSize];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+            if (scaled[more] < 1) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+        // whatever is left is full, up to rounding errors
+        while (largeSize > 0) {
+            probability[large[--largeSize]] = 1;
+        }
+        while (smallSize > 0) {
+            probability[small[--smallSize]] = 1;
+        }
+    }
+
+    /**
+     * @param bits
+     *            64 uniformly random bits
+     * @return an index, chosen by weight
+     */
+    int pick(long bits) {
+        // the high half chooses the column, the low half flips the coin
+        int column = (int) (((bits >>> 32) * probability.length) >>> 32);
+        double coin = (bits & 0xffffffffL) / 4294967296.0;
+        return coin < probability[column] ? column : alias[column];
+    }
+
+    /**
+     * @return
+     */
+    int size() {
+        return probability.length;
+    }
+
+}
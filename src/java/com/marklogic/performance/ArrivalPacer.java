@@ -0,0 +1,386 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load: schedules tests at a fixed arrival rate, independent of
+ * how quickly the server responds, and hands them to a pool of Sampler
+ * workers through a queue.
+ *
+ * Each test name with its own targetRate gets its own schedule, and the
+ * remaining tests share the aggregate targetRate. Arrival times are computed
+ * from the start of the run, so rounding errors and late wake-ups do not
+ * accumulate. When the workers cannot keep up, arrivals wait in the queue,
+ * and the wait shows up as scheduling lag.
+ *
+ * With a rate load profile, every schedule is scaled so that the total
+ * follows the profile, keeping the configured ratios between tests.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ArrivalPacer extends Thread {
+
+    // park until this close to the due time, then yield
+    private static final long SPIN_NANOS = 100 * 1000;
+
+    /**
+     * A test, and the time at which it should start.
+     */
+    public static class Arrival {
+
+        private TestInterface test;
+
+        private long intendedStartNanos;
+
+        Arrival(TestInterface _test, long _intendedStartNanos) {
+            test = _test;
+            intendedStartNanos = _intendedStartNanos;
+        }
+
+        public TestInterface getTest() {
+            return test;
+        }
+
+        public long getIntendedStartNanos() {
+            return intendedStartNanos;
+        }
+
+    }
+
+    private static class Schedule {
+
+        List<TestInterface> distinct = new ArrayList<TestInterface>();
+
+        List<Long> weights = new ArrayList<Long>();
+
+        TestOrder tests;
+
+        int cursor = 0;
+
+        double intervalNanos;
+
+        long issued = 0;
+
+        // from the start of the run
+        double dueOffsetNanos = 0;
+
+        long nextDueNanos;
+
+        boolean done = false;
+
+        void newOrder(Random random) {
+            TestInterface[] array = distinct.toArray(new TestInterface[0]);
+            long[] weight = new long[array.length];
+            for (int i = 0; i < weight.length; i++) {
+                weight[i] = weights.get(i).longValue();
+            }
+            tests = new TestOrder(array, weight);
+            if (null != random) {
+                tests = tests.shuffle(random);
+            }
+        }
+
+    }
+
+    // marks the end of the run: each worker puts it back for the next
+    private static final Arrival END = new Arrival(null, 0);
+
+    private BlockingQueue<Arrival> queue = new LinkedBlockingQueue<Arrival>();
+
+    private Schedule[] schedules;
+
+    private long testTimeNanos;
+
+    private Random random = null;
+
+    private long startNanos;
+
+    private double requestedRate = 0;
+
+    // shared stop conditions, if configured
+    private RequestBudget budget = null;
+
+    // null unless the rate follows a load profile
+    private LoadProfile profile = null;
+
+    private long issuedCount = 0;
+
+    private long unstartedCount = 0;
+
+    /**
+     * @param _config
+     * @param _tests
+     */
+    public ArrivalPacer(Configuration _config, TestList _tests) {
+        super("pacer");
+        testTimeNanos = _config.getTestTimeNanos();
+        if (_config.isRandomTest()) {
+            random = new Random();
+            if (_config.getRandomSeed() != Configuration.RANDOMSEED_DEFAULT) {
+                random.setSeed(_config.getRandomSeed());
+            }
+        }
+
+        // one schedule per rate, in test-list order
+        Map<String, Double> rates = _config.getTargetRatesByName();
+        Map<String, Schedule> byName = new LinkedHashMap<String, Schedule>();
+        Schedule aggregate = null;
+        double aggregateRate = _config.getTargetRate();
+        if (null != _config.getLoadProfile()
+                && _config.getLoadProfile().isRate()) {
+            profile = _config.getLoadProfile();
+            if (aggregateRate <= 0 && rates.isEmpty()) {
+                // only the profile: it will scale this nominal rate
+                aggregateRate = 1;
+            }
+        }
+        Schedule schedule;
+        TestInterface test;
+        for (int i = 0; i < _tests.getDistinctCount(); i++) {
+            test = _tests.getDistinct(i);
+            if (rates.containsKey(test.getName())) {
+                schedule = byName.get(test.getName());
+                if (null == schedule) {
+                    schedule = newSchedule(rates.get(test.getName())
+                            .doubleValue());
+                    byName.put(test.getName(), schedule);
+                }
+            } else if (aggregateRate > 0) {
+                if (null == aggregate) {
+                    aggregate = newSchedule(aggregateRate);
+                }
+                schedule = aggregate;
+            } else {
+                System.err.println("WARNING: no "
+                        + Configuration.TARGET_RATE_KEY + " for test "
+                        + test.getName() + ": skipping!");
+                continue;
+            }
+            schedule.distinct.add(test);
+            schedule.weights.add((long) _tests.getWeight(i));
+        }
+        List<Schedule> list = new ArrayList<Schedule>(byName.values());
+        if (null != aggregate) {
+            list.add(aggregate);
+        }
+        schedules = list.toArray(new Schedule[0]);
+        for (int i = 0; i < schedules.length; i++) {
+            schedules[i].newOrder(random);
+        }
+        Iterator<String> names = rates.keySet().iterator();
+        String name;
+        while (names.hasNext()) {
+            name = names.next();
+            if (!byName.containsKey(name)) {
+                System.err.println("WARNING: "
+                        + Configuration.TARGET_RATE_KEY + "." + name
+                        + " does not match any test!");
+            }
+        }
+    }
+
+    private Schedule newSchedule(double rate) {
+        Schedule schedule = new Schedule();
+        schedule.intervalNanos = Configuration.NANOS_PER_SECOND / rate;
+        requestedRate += rate;
+        return schedule;
+    }
+
+    /**
+     * @param _budget
+     *            shared stop conditions
+     */
+    public void setBudget(RequestBudget _budget) {
+        budget = _budget;
+    }
+
+    /**
+     * Start issuing tests, with the first arrivals due at the start time.
+     *
+     * @param _startNanos
+     */
+    public void startPacing(long _startNanos) {
+        startNanos = _startNanos;
+        for (int i = 0; i < schedules.length; i++) {
+            schedules[i].nextDueNanos = startNanos;
+        }
+        start();
+    }
+
+    public void run() {
+        Schedule next;
+        try {
+            while (true) {
+                // which schedule has the earliest arrival?
+                next = null;
+                for (int i = 0; i < schedules.length; i++) {
+                    if (schedules[i].done) {
+                        continue;
+                    }
+                    if (null == next
+                            || schedules[i].nextDueNanos < next.nextDueNanos) {
+                        next = schedules[i];
+                    }
+                }
+                if (null == next) {
+                    // untimed: every test has been issued once
+                    break;
+                }
+                if (0 != testTimeNanos
+                        && next.nextDueNanos - startNanos >= testTimeNanos) {
+                    // end of the timed test
+                    break;
+                }
+                if (null != budget && !budget.tryAcquire(0)) {
+                    // end of the request budget
+                    break;
+                }
+                waitUntil(next.nextDueNanos);
+                queue.add(new Arrival(next.tests.get(next.cursor++),
+                        next.nextDueNanos));
+                issuedCount++;
+                next.issued++;
+                if (null == profile) {
+                    // from the start, so that rounding does not accumulate
+                    next.dueOffsetNanos = next.issued * next.intervalNanos;
+                } else {
+                    // scaled to the profile rate at the previous arrival
+                    next.dueOffsetNanos += next.intervalNanos
+                            * requestedRate
+                            / profile.getLoadAt((long) next.dueOffsetNanos);
+                }
+                next.nextDueNanos = startNanos
+                        + (long) next.dueOffsetNanos;
+                if (next.cursor == next.tests.size()) {
+                    if (0 == testTimeNanos && null == budget) {
+                        next.done = true;
+                    } else {
+                        next.cursor = 0;
+                        if (null != random) {
+                            next.tests = next.tests.shuffle(random);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (0 != testTimeNanos) {
+                // anything still queued has missed the end of the run
+                while (null != queue.poll()) {
+                    unstartedCount++;
+                }
+            }
+            queue.add(END);
+        }
+    }
+
+    private void waitUntil(long dueNanos) {
+        long remaining;
+        while ((remaining = dueNanos - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Wait for the next arrival.
+     *
+     * @return the next arrival, or null at the end of the run
+     */
+    public Arrival take() {
+        Arrival arrival;
+        while (true) {
+            try {
+                arrival = queue.take();
+                break;
+            } catch (InterruptedException e) {
+                // reset interrupt status and continue
+                Thread.interrupted();
+            }
+        }
+        if (END == arrival) {
+            // let the other workers see it too
+            queue.add(END);
+            return null;
+        }
+        return arrival;
+    }
+
+    /**
+     * Take the next arrival, if there is one, without waiting.
+     *
+     * @return the next arrival, or null
+     */
+    public Arrival poll() {
+        Arrival arrival = queue.poll();
+        if (END == arrival) {
+            queue.add(END);
+            return null;
+        }
+        return arrival;
+    }
+
+    /**
+     * @return true if every arrival has been taken, and the pacer has
+     *         reached the end of the run
+     */
+    public boolean isDrained() {
+        return END == queue.peek();
+    }
+
+    /**
+     * @return the sum of all configured rates, or the average rate of the
+     *         load profile, in tests per second
+     */
+    public double getRequestedRate() {
+        if (null != profile) {
+            return profile.getMeanLoad();
+        }
+        return requestedRate;
+    }
+
+    /**
+     * @return
+     */
+    public long getIssuedCount() {
+        return issuedCount;
+    }
+
+    /**
+     * @return tests that were scheduled, but still queued at the end of a
+     *         timed run
+     */
+    public long getUnstartedCount() {
+        return unstartedCount;
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+
+/**
+ * Time that a sampler spends on its own work, rather than waiting for the
+ * server: building queries, taking tests from the iterator, yielding, and
+ * recording results. Along with client CPU time and garbage collection
+ * pauses, this shows whether a run measured the server or the client.
+ *
+ * Each sampler keeps its own, so recording needs no synchronization.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ClientOverhead {
+
+    public static final int QUERY = 0;
+
+    public static final int ITERATOR = 1;
+
+    public static final int YIELD = 2;
+
+    public static final int RECORD = 3;
+
+    static final String[] CATEGORY_NAMES = { "query", "iterator",
+            "yield", "record" };
+
+    private long[] nanos = new long[CATEGORY_NAMES.length];
+
+    private long runNanos = 0;
+
+    private long cpuNanos = 0;
+
+    // threads that could not report CPU time, such as virtual threads
+    private int cpuUnavailable = 0;
+
+    /**
+     * @param category
+     * @param _nanos
+     */
+    public void add(int category, long _nanos) {
+        nanos[category] += _nanos;
+    }
+
+    /**
+     * @param _runNanos
+     *            wall time for the sampler thread
+     * @param _cpuNanos
+     *            CPU time for the sampler thread, or negative if unknown
+     */
+    public void setRun(long _runNanos, long _cpuNanos) {
+        runNanos = _runNanos;
+        if (_cpuNanos < 0) {
+            cpuNanos = 0;
+            cpuUnavailable = 1;
+        } else {
+            cpuNanos = _cpuNanos;
+            cpuUnavailable = 0;
+        }
+    }
+
+    /**
+     * @param other
+     */
+    public void add(ClientOverhead other) {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += other.nanos[i];
+        }
+        runNanos += other.runNanos;
+        cpuNanos += other.cpuNanos;
+        cpuUnavailable += other.cpuUnavailable;
+    }
+
+    /**
+     * @param category
+     * @return
+     */
+    public long getNanos(int category) {
+        return nanos[category];
+    }
+
+    /**
+     * @return time spent in the harness, over every category
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (int i = 0; i < nanos.length; i++) {
+            total += nanos[i];
+        }
+        return total;
+    }
+
+    /**
+     * @return wall time, summed over sampler threads
+     */
+    public long getRunNanos() {
+        return runNanos;
+    }
+
+    /**
+     * @return
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * @return the number of threads without CPU times
+     */
+    public int getCpuUnavailableCount() {
+        return cpuUnavailable;
+    }
+
+    /**
+     * @return the harness share of sampler wall time
+     */
+    public double getShare() {
+        if (0 == runNanos) {
+            return 0;
+        }
+        return (double) getTotalNanos() / runNanos;
+    }
+
+    /**
+     * @return CPU time for the current thread, or -1 if unsupported
+     */
+    public static long getCurrentThreadCpuNanos() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        try {
+            return bean.getCurrentThreadCpuTime();
+        } catch (UnsupportedOperationException e) {
+            // disabled at runtime
+            return -1;
+        }
+    }
+
+    /**
+     * @return total garbage collection time so far, over every collector
+     */
+    public static long getCollectionNanos() {
+        long millis = 0;
+        long time;
+        Iterator<GarbageCollectorMXBean> iter = ManagementFactory
+                .getGarbageCollectorMXBeans().iterator();
+        while (iter.hasNext()) {
+            time = iter.next().getCollectionTime();
+            if (time > 0) {
+                millis += time;
+            }
+        }
+        return millis * Configuration.NANOS_PER_MILLI;
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Keeps results on the heap as columns of primitives, in fixed-size
+ * chunks, rather than as one Result object per sample. A row costs about
+ * 36 bytes, and no per-row objects are allocated. Result objects are only
+ * constructed when a reporter iterates over the store.
+ *
+ * Query result text and request phases are rare in timed runs, so their
+ * columns are only allocated for chunks that need them.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ColumnarResultStore implements ResultStore {
+
+    static final int CHUNK_SHIFT = 12;
+
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private List<long[]> start = new ArrayList<long[]>();
+
+    private List<long[]> end = new ArrayList<long[]>();
+
+    private List<int[]> testId = new ArrayList<int[]>();
+
+    private List<long[]> bytesSent = new ArrayList<long[]>();
+
+    private List<long[]> bytesReceived = new ArrayList<long[]>();
+
+    private List<String[]> queryResult = new ArrayList<String[]>();
+
+    // Result.PHASE_NAMES.length values per row
+    private List<long[]> phaseNanos = new ArrayList<long[]>();
+
+    private BitSet error = new BitSet();
+
+    private BitSet phased = new BitSet();
+
+    private ResultDictionary dictionary = new ResultDictionary();
+
+    private int count = 0;
+
+    public void add(Result res) {
+        int chunk = count >>> CHUNK_SHIFT;
+        int offset = count & CHUNK_MASK;
+        if (0 == offset) {
+            start.add(new long[CHUNK_SIZE]);
+            end.add(new long[CHUNK_SIZE]);
+            testId.add(new int[CHUNK_SIZE]);
+            bytesSent.add(new long[CHUNK_SIZE]);
+            bytesReceived.add(new long[CHUNK_SIZE]);
+            queryResult.add(null);
+            phaseNanos.add(null);
+        }
+        start.get(chunk)[offset] = res.getStartNanos();
+        end.get(chunk)[offset] = res.getEndNanos();
+        testId.get(chunk)[offset] = dictionary.getId(res.getTestName(),
+                res.getComment(), res.getHost());
+        bytesSent.get(chunk)[offset] = res.getBytesSent();
+        bytesReceived.get(chunk)[offset] = res.getBytesReceived();
+        if (null != res.getQueryResult()) {
+            String[] text = queryResult.get(chunk);
+            if (null == text) {
+                text = new String[CHUNK_SIZE];
+                queryResult.set(chunk, text);
+            }
+            text[offset] = res.getQueryResult();
+        }
+        if (res.hasPhases()) {
+            long[] phases = phaseNanos.get(chunk);
+            if (null == phases) {
+                phases = new long[CHUNK_SIZE * Result.PHASE_NAMES.length];
+                phaseNanos.set(chunk, phases);
+            }
+            for (int i = 0; i < Result.PHASE_NAMES.length; i++) {
+                phases[offset * Result.PHASE_NAMES.length + i] = res
+                        .getPhaseNanos(i);
+            }
+            phased.set(count);
+        }
+        if (res.isError()) {
+            error.set(count);
+        }
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param index
+     * @return
+     */
+    public long getDurationNanos(int index) {
+        int chunk = index >>> CHUNK_SHIFT;
+        int offset = index & CHUNK_MASK;
+        return end.get(chunk)[offset] - start.get(chunk)[offset];
+    }
+
+    /**
+     * Construct a Result for one row.
+     *
+     * @param index
+     * @return
+     */
+    public Result get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("" + index);
+        }
+        int chunk = index >>> CHUNK_SHIFT;
+        int offset = index & CHUNK_MASK;
+        int id = testId.get(chunk)[offset];
+        Result res = new Result(dictionary.getName(id), dictionary
+                .getComment(id));
+        res.setHost(dictionary.getHost(id));
+        res.setStart(start.get(chunk)[offset]);
+        res.setEnd(end.get(chunk)[offset]);
+        res.setError(error.get(index));
+        String[] text = queryResult.get(chunk);
+        if (null != text && null != text[offset]) {
+            res.setQueryResult(text[offset]);
+        }
+        res.setBytesSent(bytesSent.get(chunk)[offset]);
+        res.setBytesReceived(bytesReceived.get(chunk)[offset]);
+        if (phased.get(index)) {
+            long[] phases = phaseNanos.get(chunk);
+            for (int i = 0; i < Result.PHASE_NAMES.length; i++) {
+                res.setPhaseNanos(i, phases[offset
+                        * Result.PHASE_NAMES.length + i]);
+            }
+        }
+        return res;
+    }
+
+    public Iterator<Result> iterator() {
+        return new Iterator<Result>() {
+            int index = 0;
+
+            public boolean hasNext() {
+                return index < count;
+            }
+
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void close() {
+        start.clear();
+        end.clear();
+        testId.clear();
+        bytesSent.clear();
+        bytesReceived.clear();
+        queryResult.clear();
+        phaseNanos.clear();
+        error.clear();
+        phased.clear();
+        count = 0;
+    }
+
+}
@@ -20,8 +20,11 @@ package com.marklogic.performance;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.TreeMap;
 
 import com.marklogic.performance.reporter.Reporter;
 import com.marklogic.performance.reporter.XMLReporter;
@@ -48,6 +51,13 @@ public class Configuration {
      */
     public static final String REPORT_STANDARD_DEVIATION_KEY = "reportStandardDeviation";
 
+    /**
+     * time each phase of HTTP requests, from DNS to body transfer
+     */
+    public static final String REPORT_PHASES_KEY = "reportPhases";
+
+    public static final boolean REPORT_PHASES_DEFAULT = false;
+
     /**
      * 
      */
@@ -123,6 +133,155 @@ public class Configuration {
 
     public static final long THINK_MILLIS_DEFAULT = 0;
 
+    /**
+     * think-time distribution: see ThinkTime for the syntax. May also be
+     * set per test, if followed by "."+test-name
+     */
+    public static final String THINK_TIME_KEY = "thinkTime";
+
+    public static final String HISTOGRAM_DIGITS_KEY = "histogramSignificantDigits";
+
+    public static final int HISTOGRAM_DIGITS_DEFAULT = 2;
+
+    public static final String SPILL_RESULTS_KEY = "spillResults";
+
+    public static final boolean SPILL_RESULTS_DEFAULT = true;
+
+    public static final String SPILL_PATH_KEY = "spillPath";
+
+    public static final String EXPECTED_INTERVAL_MILLIS_KEY = "expectedIntervalMillis";
+
+    public static final String EXPECTED_RATE_KEY = "expectedRate";
+
+    public static final String ASYNC_REQUESTS_KEY = "asyncRequestsPerThread";
+
+    public static final int ASYNC_REQUESTS_DEFAULT = 64;
+
+    /**
+     * "platform" runs each sampler as its own thread; "virtual" runs each
+     * sampler as a task on a virtual thread, if the JVM supports them.
+     */
+    public static final String THREAD_MODE_KEY = "threadMode";
+
+    public static final String THREAD_MODE_PLATFORM = "platform";
+
+    public static final String THREAD_MODE_VIRTUAL = "virtual";
+
+    /**
+     * pooled: samplers keep their connections between requests. perRequest:
+     * a new connection for every request, so that every latency includes
+     * connection setup.
+     */
+    public static final String CONNECTION_MODE_KEY = "connectionMode";
+
+    public static final String CONNECTION_MODE_POOLED = "pooled";
+
+    public static final String CONNECTION_MODE_PER_REQUEST = "perRequest";
+
+    public static final String PREWARM_KEY = "prewarm";
+
+    /**
+     * the most pooled HTTP connections per host, or 0 for no limit
+     */
+    public static final String HTTP_POOL_SIZE_KEY = "httpPoolSize";
+
+    public static final int HTTP_POOL_SIZE_DEFAULT = 0;
+
+    /**
+     * close pooled HTTP connections after this long, before the server
+     * does: MarkLogic's default keep-alive timeout is 5 seconds
+     */
+    public static final String HTTP_POOL_IDLE_MILLIS_KEY = "httpPoolIdleMillis";
+
+    public static final double HTTP_POOL_IDLE_MILLIS_DEFAULT = 4000;
+
+    public static final boolean PREWARM_DEFAULT = true;
+
+    /**
+     * how each request chooses among several hosts
+     */
+    public static final String HOST_STRATEGY_KEY = "hostStrategy";
+
+    public static final String HOST_STRATEGY_ROUND_ROBIN = "roundRobin";
+
+    public static final String HOST_STRATEGY_LEAST_OUTSTANDING = "leastOutstanding";
+
+    public static final String HOST_STRATEGY_LATENCY_WEIGHTED = "latencyWeighted";
+
+    public static final String REPORT_INTERVAL_SECONDS_KEY = "reportIntervalSeconds";
+
+    public static final String INTERVAL_OUTPUT_PATH_KEY = "intervalOutputPath";
+
+    public static final String EXACT_PERCENTILES_KEY = "exactPercentiles";
+
+    public static final boolean EXACT_PERCENTILES_DEFAULT = false;
+
+    public static final String WARMUP_SECONDS_KEY = "warmupSeconds";
+
+    public static final String COOLDOWN_SECONDS_KEY = "cooldownSeconds";
+
+    /**
+     * aggregate arrival rate, or a per-test rate if followed by
+     * "."+test-name
+     */
+    public static final String TARGET_RATE_KEY = "targetRate";
+
+    public static final String LOAD_PROFILE_KEY = "loadProfile";
+
+    /**
+     * stop conditions for the whole run, or for each thread
+     */
+    public static final String MAX_REQUESTS_KEY = "maxRequests";
+
+    public static final String MAX_BYTES_KEY = "maxBytes";
+
+    public static final String LOOPS_PER_THREAD_KEY = "loopsPerThread";
+
+    /**
+     * search for the highest load that meets the SLOs, by thread count or
+     * by arrival rate
+     */
+    public static final String SEARCH_MODE_KEY = "searchMode";
+
+    public static final String SEARCH_MODE_THREADS = "threads";
+
+    public static final String SEARCH_MODE_RATE = "rate";
+
+    public static final String SEARCH_START_KEY = "searchStart";
+
+    public static final String SEARCH_MAX_KEY = "searchMax";
+
+    /**
+     * without searchMax, the most trials before the search stops stepping up
+     */
+    public static final int SEARCH_MAX_STEPS = 16;
+
+    public static final String SEARCH_STEP_FACTOR_KEY = "searchStepFactor";
+
+    public static final double SEARCH_STEP_FACTOR_DEFAULT = 2;
+
+    public static final String SEARCH_TRIAL_SECONDS_KEY = "searchTrialSeconds";
+
+    public static final long SEARCH_TRIAL_SECONDS_DEFAULT = 10;
+
+    public static final String SEARCH_PRECISION_KEY = "searchPrecision";
+
+    public static final double SEARCH_PRECISION_DEFAULT = 0.05;
+
+    public static final String SLO_LATENCY_MILLIS_KEY = "sloLatencyMillis";
+
+    public static final String SLO_PERCENTILE_KEY = "sloPercentile";
+
+    public static final int SLO_PERCENTILE_DEFAULT = 99;
+
+    public static final String SLO_ERROR_RATE_KEY = "sloErrorRate";
+
+    public static final double SLO_ERROR_RATE_DEFAULT = 0.01;
+
+    public static final String OVERHEAD_THRESHOLD_KEY = "overheadThreshold";
+
+    public static final double OVERHEAD_THRESHOLD_DEFAULT = 0.05;
+
     private String protocol;
 
     private String[] host;
@@ -170,7 +329,7 @@ public class Configuration {
 
     private Random random;
 
-    private int hostIndex = 0;
+    private HostSelector hostSelector;
 
     private Properties props;
 
@@ -182,8 +341,80 @@ public class Configuration {
 
     private boolean reportStandardDeviation = REPORTSTDDEV_DEFAULT;
 
+    private boolean reportPhases = REPORT_PHASES_DEFAULT;
+
     private long thinkMillis = THINK_MILLIS_DEFAULT;
 
+    // null unless there is a default think time
+    private ThinkTime thinkTime = null;
+
+    private Map<String, ThinkTime> thinkTimesByName = new TreeMap<String, ThinkTime>();
+
+    private int histogramSignificantDigits = HISTOGRAM_DIGITS_DEFAULT;
+
+    private boolean spillResults = SPILL_RESULTS_DEFAULT;
+
+    private String spillPath = System.getProperty("java.io.tmpdir");
+
+    private double expectedIntervalMillis = 0;
+
+    private double expectedRate = 0;
+
+    private long reportIntervalSeconds = 0;
+
+    private String intervalOutputPath;
+
+    private boolean exactPercentiles = EXACT_PERCENTILES_DEFAULT;
+
+    private int asyncRequestsPerThread = ASYNC_REQUESTS_DEFAULT;
+
+    private String threadMode = THREAD_MODE_PLATFORM;
+
+    private String connectionMode = CONNECTION_MODE_POOLED;
+
+    private boolean prewarm = PREWARM_DEFAULT;
+
+    private int httpPoolSize = HTTP_POOL_SIZE_DEFAULT;
+
+    private double httpPoolIdleMillis = HTTP_POOL_IDLE_MILLIS_DEFAULT;
+
+    private long warmupSeconds = 0;
+
+    private long cooldownSeconds = 0;
+
+    private double targetRate = 0;
+
+    private LoadProfile loadProfile = null;
+
+    private long maxRequests = 0;
+
+    private long maxBytes = 0;
+
+    private long loopsPerThread = 0;
+
+    private String searchMode = null;
+
+    private double searchStart = 0;
+
+    private double searchMax = 0;
+
+    private double searchStepFactor = SEARCH_STEP_FACTOR_DEFAULT;
+
+    private long searchTrialSeconds = SEARCH_TRIAL_SECONDS_DEFAULT;
+
+    private double searchPrecision = SEARCH_PRECISION_DEFAULT;
+
+    private double sloLatencyMillis = 0;
+
+    private int sloPercentile = SLO_PERCENTILE_DEFAULT;
+
+    private double sloErrorRate = SLO_ERROR_RATE_DEFAULT;
+
+    private double overheadThreshold = OVERHEAD_THRESHOLD_DEFAULT;
+
+    // sorted by test name
+    private Map<String, Double> targetRatesByName = new TreeMap<String, Double>();
+
     public Configuration(String[] paths, boolean loadSystemProperties)
             throws IOException {
         // set up the initial object using a set of paths, plus system
@@ -219,15 +450,29 @@ public class Configuration {
         // allow it to override any existing properties
         props.putAll(_props);
 
-        // we support multiple hosts, but they must all be on the same port:
+        // we support multiple hosts, each with an optional port:
         // this would be easier with multiple connection strings...
         String hostString = props.getProperty("host", HOST_DEFAULT);
-        host = hostString.split("\\s+");
+        host = hostString.trim().split("\\s+");
 
         // TODO connection-string would be simpler for xcc
         port = Integer.parseInt(props.getProperty("port", ""
                 + PORT_DEFAULT));
 
+        String hostStrategy = props.getProperty(HOST_STRATEGY_KEY,
+                HOST_STRATEGY_ROUND_ROBIN);
+        if (!HOST_STRATEGY_ROUND_ROBIN.equalsIgnoreCase(hostStrategy)
+                && !HOST_STRATEGY_LEAST_OUTSTANDING
+                        .equalsIgnoreCase(hostStrategy)
+                && !HOST_STRATEGY_LATENCY_WEIGHTED
+                        .equalsIgnoreCase(hostStrategy)) {
+            System.err.println("WARNING: unknown " + HOST_STRATEGY_KEY + "="
+                    + hostStrategy + "!\n" + "WARNING: using "
+                    + HOST_STRATEGY_ROUND_ROBIN + "!");
+            hostStrategy = HOST_STRATEGY_ROUND_ROBIN;
+        }
+        hostSelector = new HostSelector(host, port, hostStrategy);
+
         protocol = props.getProperty("protocol", PROTOCOL_DEFAULT);
 
         user = props.getProperty("user", USER_DEFAULT);
@@ -269,17 +514,102 @@ public class Configuration {
                 props.getProperty(REPORT_STANDARD_DEVIATION_KEY, ""
                         + REPORTSTDDEV_DEFAULT)).booleanValue();
 
+        reportPhases = Boolean.valueOf(
+                props.getProperty(REPORT_PHASES_KEY, ""
+                        + REPORT_PHASES_DEFAULT)).booleanValue();
+
         testTime = Long.parseLong(props.getProperty(TEST_TIME_KEY, ""
                 + TESTTIME_DEFAULT));
 
         isTimedTest = (testTime > 0);
 
+        // any of these will repeat the tests until they are reached
+        maxRequests = Long.parseLong(props.getProperty(MAX_REQUESTS_KEY,
+                "0"));
+        maxBytes = Long.parseLong(props.getProperty(MAX_BYTES_KEY, "0"));
+        loopsPerThread = Long.parseLong(props.getProperty(
+                LOOPS_PER_THREAD_KEY, "0"));
+
+        // a load profile sets the duration, and the number of threads
+        String profileString = props.getProperty(LOAD_PROFILE_KEY);
+        loadProfile = null;
+        if (null != profileString && !profileString.trim().equals("")) {
+            loadProfile = new LoadProfile(profileString);
+            if (isTimedTest) {
+                System.err.println("WARNING: " + LOAD_PROFILE_KEY
+                        + " overrides " + TEST_TIME_KEY + "=" + testTime
+                        + "!");
+            }
+            isTimedTest = true;
+            // whole seconds, for reporting: see getTestTimeNanos()
+            testTime = (long) Math.ceil((double) loadProfile
+                    .getTotalNanos()
+                    / NANOS_PER_SECOND);
+            if (!loadProfile.isRate()) {
+                numThreads = (int) Math.ceil(loadProfile.getMaxLoad());
+            }
+        }
+
+        // samples outside this window are run, but not summarized
+        warmupSeconds = Long.parseLong(props.getProperty(
+                WARMUP_SECONDS_KEY, "0"));
+        cooldownSeconds = Long.parseLong(props.getProperty(
+                COOLDOWN_SECONDS_KEY, "0"));
+        if (cooldownSeconds > 0 && !isTimedTest) {
+            // without a fixed end, there is nothing to count back from
+            System.err.println("WARNING: " + COOLDOWN_SECONDS_KEY + "="
+                    + cooldownSeconds + " requires " + TEST_TIME_KEY
+                    + "!\n" + "WARNING: ignoring " + COOLDOWN_SECONDS_KEY
+                    + "!");
+            cooldownSeconds = 0;
+        }
+        if (isTimedTest && warmupSeconds + cooldownSeconds >= testTime) {
+            System.err.println("WARNING: " + WARMUP_SECONDS_KEY + "="
+                    + warmupSeconds + " plus " + COOLDOWN_SECONDS_KEY + "="
+                    + cooldownSeconds + " leaves nothing of "
+                    + TEST_TIME_KEY + "=" + testTime + "!\n"
+                    + "WARNING: ignoring both!");
+            warmupSeconds = 0;
+            cooldownSeconds = 0;
+        }
+
         isRandomTest = Boolean.valueOf(
                 props.getProperty(IS_RANDOM_TEST_KEY,
                         IS_RANDOM_TEST_DEFAULT)).booleanValue();
 
         thinkMillis = Long.parseLong(props.getProperty(THINK_MILLIS_KEY,
                 "" + THINK_MILLIS_DEFAULT));
+        String thinkString = props.getProperty(THINK_TIME_KEY, "").trim();
+        if (!thinkString.equals("")) {
+            thinkTime = new ThinkTime(thinkString);
+            if (thinkMillis > 0) {
+                System.err.println("WARNING: " + THINK_TIME_KEY
+                        + " overrides " + THINK_MILLIS_KEY + "="
+                        + thinkMillis + "!");
+            }
+        } else if (thinkMillis > 0) {
+            thinkTime = new ThinkTime("" + thinkMillis);
+        } else {
+            thinkTime = null;
+        }
+        thinkTimesByName.clear();
+
+        // precision of the latency histograms used for percentiles
+        histogramSignificantDigits = Integer.parseInt(props.getProperty(
+                HISTOGRAM_DIGITS_KEY, "" + HISTOGRAM_DIGITS_DEFAULT));
+        if (histogramSignificantDigits < 1
+                || histogramSignificantDigits > 5) {
+            System.err.println("WARNING: " + HISTOGRAM_DIGITS_KEY + "="
+                    + histogramSignificantDigits
+                    + " is out of range (1-5)!\n" + "WARNING: using "
+                    + HISTOGRAM_DIGITS_DEFAULT + "!");
+            histogramSignificantDigits = HISTOGRAM_DIGITS_DEFAULT;
+        }
+
+        // keep every duration, for percentiles without histogram error
+        exactPercentiles = Boolean.valueOf(
+                props.getProperty(EXACT_PERCENTILES_KEY, ""
+                        + EXACT_PERCENTILES_DEFAULT)).booleanValue();
 
         // for backward compatibility
         recordResults = Boolean.valueOf(
@@ -291,14 +621,166 @@ public class Configuration {
                 props.getProperty("checkResults", ""
                         + CHECKRESULTS_DEFAULT)).booleanValue();
 
-        if (checkResults && !recordResults) {
-            // this doesn't make any sense, so don't honor it
-            System.err
-                    .println("WARNING: checkResults=true, recordResults=false!\n"
-                            + "WARNING: turning off checkResults!");
-            checkResults = false;
+        // recorded results go to disk, rather than the heap
+        spillResults = Boolean.valueOf(
+                props.getProperty(SPILL_RESULTS_KEY, ""
+                        + SPILL_RESULTS_DEFAULT)).booleanValue();
+        spillPath = props.getProperty(SPILL_PATH_KEY, System
+                .getProperty("java.io.tmpdir"));
+
+        // coordinated omission correction: per-thread interval,
+        // or an aggregate rate across all threads
+        expectedIntervalMillis = Double.parseDouble(props.getProperty(
+                EXPECTED_INTERVAL_MILLIS_KEY, "0"));
+        expectedRate = Double.parseDouble(props.getProperty(
+                EXPECTED_RATE_KEY, "0"));
+
+        // open-loop mode: tests arrive at a fixed rate,
+        // overall and optionally per test name
+        targetRate = Double.parseDouble(props.getProperty(
+                TARGET_RATE_KEY, "0"));
+        targetRatesByName.clear();
+        Enumeration<?> names = props.propertyNames();
+        String key;
+        while (names.hasMoreElements()) {
+            key = (String) names.nextElement();
+            if (key.startsWith(TARGET_RATE_KEY + ".")) {
+                targetRatesByName.put(key.substring(TARGET_RATE_KEY
+                        .length() + 1), Double.valueOf(props
+                        .getProperty(key)));
+            } else if (key.startsWith(THINK_TIME_KEY + ".")) {
+                thinkTimesByName.put(key.substring(THINK_TIME_KEY
+                        .length() + 1), new ThinkTime(props
+                        .getProperty(key)));
+            }
+        }
+        if (isTargetRate() && hasThinkTime()) {
+            // the pacer decides when tests start
+            System.err.println("WARNING: " + THINK_TIME_KEY + " and "
+                    + THINK_MILLIS_KEY + " have no effect with "
+                    + TARGET_RATE_KEY + "!");
+        }
+        if (isTargetRate() && loopsPerThread > 0) {
+            // the pacer decides which tests run
+            System.err.println("WARNING: " + LOOPS_PER_THREAD_KEY + "="
+                    + loopsPerThread + " has no effect with "
+                    + TARGET_RATE_KEY + "!");
+        }
+
+        // non-blocking samplers keep this many requests in flight
+        asyncRequestsPerThread = Integer.parseInt(props.getProperty(
+                ASYNC_REQUESTS_KEY, "" + ASYNC_REQUESTS_DEFAULT));
+        if (asyncRequestsPerThread < 1) {
+            System.err.println("WARNING: " + ASYNC_REQUESTS_KEY + "="
+                    + asyncRequestsPerThread + " is out of range!\n"
+                    + "WARNING: using " + ASYNC_REQUESTS_DEFAULT + "!");
+            asyncRequestsPerThread = ASYNC_REQUESTS_DEFAULT;
+        }
+
+        threadMode = props.getProperty(THREAD_MODE_KEY,
+                THREAD_MODE_PLATFORM);
+        if (!THREAD_MODE_PLATFORM.equalsIgnoreCase(threadMode)
+                && !THREAD_MODE_VIRTUAL.equalsIgnoreCase(threadMode)) {
+            System.err.println("WARNING: unknown " + THREAD_MODE_KEY + "="
+                    + threadMode + "!\n" + "WARNING: using "
+                    + THREAD_MODE_PLATFORM + "!");
+            threadMode = THREAD_MODE_PLATFORM;
+        }
+
+        connectionMode = props.getProperty(CONNECTION_MODE_KEY,
+                CONNECTION_MODE_POOLED);
+        if (!CONNECTION_MODE_POOLED.equalsIgnoreCase(connectionMode)
+                && !CONNECTION_MODE_PER_REQUEST
+                        .equalsIgnoreCase(connectionMode)) {
+            System.err.println("WARNING: unknown " + CONNECTION_MODE_KEY
+                    + "=" + connectionMode + "!\n" + "WARNING: using "
+                    + CONNECTION_MODE_POOLED + "!");
+            connectionMode = CONNECTION_MODE_POOLED;
+        }
+        prewarm = Boolean.valueOf(
+                props.getProperty(PREWARM_KEY, "" + PREWARM_DEFAULT))
+                .booleanValue();
+        httpPoolSize = Integer.parseInt(props.getProperty(
+                HTTP_POOL_SIZE_KEY, "" + HTTP_POOL_SIZE_DEFAULT));
+        if (httpPoolSize < 0) {
+            System.err.println("WARNING: " + HTTP_POOL_SIZE_KEY + "="
+                    + httpPoolSize + " is out of range!\n"
+                    + "WARNING: using " + HTTP_POOL_SIZE_DEFAULT + "!");
+            httpPoolSize = HTTP_POOL_SIZE_DEFAULT;
+        }
+        httpPoolIdleMillis = Double.parseDouble(props.getProperty(
+                HTTP_POOL_IDLE_MILLIS_KEY, ""
+                        + HTTP_POOL_IDLE_MILLIS_DEFAULT));
+
+        // saturation search: a series of short trials
+        searchMode = props.getProperty(SEARCH_MODE_KEY, "").trim();
+        if (searchMode.equals("")) {
+            searchMode = null;
+        } else if (!SEARCH_MODE_THREADS.equalsIgnoreCase(searchMode)
+                && !SEARCH_MODE_RATE.equalsIgnoreCase(searchMode)) {
+            System.err.println("WARNING: unknown " + SEARCH_MODE_KEY + "="
+                    + searchMode + "!\n" + "WARNING: no search!");
+            searchMode = null;
+        }
+        searchStart = Double.parseDouble(props.getProperty(
+                SEARCH_START_KEY, "1"));
+        searchMax = Double.parseDouble(props.getProperty(SEARCH_MAX_KEY,
+                "0"));
+        searchStepFactor = Double.parseDouble(props.getProperty(
+                SEARCH_STEP_FACTOR_KEY, "" + SEARCH_STEP_FACTOR_DEFAULT));
+        if (searchStepFactor <= 1) {
+            System.err.println("WARNING: " + SEARCH_STEP_FACTOR_KEY + "="
+                    + searchStepFactor + " must be greater than 1!\n"
+                    + "WARNING: using " + SEARCH_STEP_FACTOR_DEFAULT + "!");
+            searchStepFactor = SEARCH_STEP_FACTOR_DEFAULT;
+        }
+        searchTrialSeconds = Long.parseLong(props.getProperty(
+                SEARCH_TRIAL_SECONDS_KEY, "" + SEARCH_TRIAL_SECONDS_DEFAULT));
+        searchPrecision = Double.parseDouble(props.getProperty(
+                SEARCH_PRECISION_KEY, "" + SEARCH_PRECISION_DEFAULT));
+        sloLatencyMillis = Double.parseDouble(props.getProperty(
+                SLO_LATENCY_MILLIS_KEY, "0"));
+        sloPercentile = Integer.parseInt(props.getProperty(
+                SLO_PERCENTILE_KEY, "" + SLO_PERCENTILE_DEFAULT));
+        sloErrorRate = Double.parseDouble(props.getProperty(
+                SLO_ERROR_RATE_KEY, "" + SLO_ERROR_RATE_DEFAULT));
+        if (null != searchMode) {
+            if (searchStart <= 0) {
+                throw new IllegalArgumentException(SEARCH_START_KEY
+                        + " must be positive: " + searchStart);
+            }
+            if (searchMax <= 0) {
+                System.err.println("WARNING: no " + SEARCH_MAX_KEY + "!\n"
+                        + "WARNING: stepping up at most " + SEARCH_MAX_STEPS
+                        + " times!");
+            }
+            if (sloLatencyMillis <= 0) {
+                System.err.println("WARNING: no " + SLO_LATENCY_MILLIS_KEY
+                        + "!\n" + "WARNING: searching by "
+                        + SLO_ERROR_RATE_KEY + " only!");
+            }
+            if (null != loadProfile) {
+                System.err.println("WARNING: " + SEARCH_MODE_KEY
+                        + " ignores " + LOAD_PROFILE_KEY + "!");
+            }
         }
 
+        // flag runs that measured the client, not the server
+        overheadThreshold = Double.parseDouble(props.getProperty(
+                OVERHEAD_THRESHOLD_KEY, "" + OVERHEAD_THRESHOLD_DEFAULT));
+        if (overheadThreshold <= 0 || overheadThreshold >= 1) {
+            System.err.println("WARNING: " + OVERHEAD_THRESHOLD_KEY
+                    + " must be between 0 and 1: " + overheadThreshold
+                    + "!\n" + "WARNING: using "
+                    + OVERHEAD_THRESHOLD_DEFAULT + "!");
+            overheadThreshold = OVERHEAD_THRESHOLD_DEFAULT;
+        }
+
+        // live reporting while the test runs
+        reportIntervalSeconds = Long.parseLong(props.getProperty(
+                REPORT_INTERVAL_SECONDS_KEY, "0"));
+        intervalOutputPath = props.getProperty(INTERVAL_OUTPUT_PATH_KEY);
+
         shared = Boolean.valueOf(
                 props.getProperty("shared", "" + SHARED_DEFAULT))
                 .booleanValue();
@@ -384,12 +866,15 @@ public class Configuration {
         if (host == null) {
             return null;
         }
-
-        if (host.length < 2) {
-            return host[0];
-        }
         // round-robin across available hosts
-        return host[hostIndex++ % host.length];
+        return hostSelector.nextHost().getName();
+    }
+
+    /**
+     * @return the selector shared by every sampler
+     */
+    public HostSelector getHostSelector() {
+        return hostSelector;
     }
 
     public String getProtocol() {
@@ -469,6 +954,9 @@ public class Configuration {
     }
 
     public long getTestTimeNanos() {
+        if (null != loadProfile) {
+            return loadProfile.getTotalNanos();
+        }
         return NANOS_PER_SECOND * testTime;
     }
 
@@ -512,6 +1000,13 @@ public class Configuration {
         return reportStandardDeviation;
     }
 
+    /**
+     * @return true if HTTP samplers should time each phase of a request
+     */
+    public boolean isReportPhases() {
+        return reportPhases;
+    }
+
     /**
      * @return
      */
@@ -526,4 +1021,316 @@ public class Configuration {
         return thinkMillis;
     }
 
+    /**
+     * @return
+     */
+    public int getHistogramSignificantDigits() {
+        return histogramSignificantDigits;
+    }
+
+    /**
+     * @return nanoseconds after the start of the run, before which samples
+     *         are excluded from the summary
+     */
+    public long getWarmupNanos() {
+        return NANOS_PER_SECOND * warmupSeconds;
+    }
+
+    /**
+     * @return nanoseconds before the end of a timed run, after which
+     *         samples are excluded from the summary
+     */
+    public long getCooldownNanos() {
+        return NANOS_PER_SECOND * cooldownSeconds;
+    }
+
+    /**
+     * @return
+     */
+    public boolean hasMeasurementWindow() {
+        return warmupSeconds > 0 || cooldownSeconds > 0;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isExactPercentiles() {
+        return exactPercentiles;
+    }
+
+    /**
+     * Individual results are only kept when they will be reported.
+     *
+     * @return
+     */
+    public boolean isRetainResults() {
+        return recordResults || !reportTime;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isSpillResults() {
+        return spillResults;
+    }
+
+    /**
+     * @return
+     */
+    public String getSpillPath() {
+        return spillPath;
+    }
+
+    /**
+     * The interval at which each sampler is expected to start tests, for
+     * coordinated omission correction.
+     *
+     * @return nanoseconds, or 0 if no correction should be made
+     */
+    public long getExpectedIntervalNanos() {
+        if (expectedIntervalMillis > 0) {
+            return (long) (expectedIntervalMillis * NANOS_PER_MILLI);
+        }
+        if (expectedRate > 0) {
+            // each thread supplies its share of the aggregate rate
+            return (long) (Math.max(1, numThreads) * NANOS_PER_SECOND / expectedRate);
+        }
+        return 0;
+    }
+
+    /**
+     * @return the aggregate arrival rate, in tests per second, for tests
+     *         that have no rate of their own
+     */
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * @return arrival rates for individual test names, in tests per second
+     */
+    public Map<String, Double> getTargetRatesByName() {
+        return targetRatesByName;
+    }
+
+    /**
+     * @return true if tests should arrive at a fixed rate, rather than
+     *         as soon as each thread is ready
+     */
+    public boolean isTargetRate() {
+        return targetRate > 0 || !targetRatesByName.isEmpty()
+                || (null != loadProfile && loadProfile.isRate());
+    }
+
+    /**
+     * @return requests in flight for each non-blocking sampler thread
+     */
+    public int getAsyncRequestsPerThread() {
+        return asyncRequestsPerThread;
+    }
+
+    /**
+     * @return true if samplers should run on virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return THREAD_MODE_VIRTUAL.equalsIgnoreCase(threadMode);
+    }
+
+    /**
+     * @return true if samplers should keep their connections between
+     *         requests
+     */
+    public boolean isPooledConnections() {
+        return CONNECTION_MODE_POOLED.equalsIgnoreCase(connectionMode);
+    }
+
+    /**
+     * @return the most pooled HTTP connections per host, or 0 for no limit
+     */
+    public int getHttpPoolSize() {
+        return httpPoolSize;
+    }
+
+    /**
+     * @return how long a pooled HTTP connection may stay idle
+     */
+    public double getHttpPoolIdleMillis() {
+        return httpPoolIdleMillis;
+    }
+
+    /**
+     * @return true if pooled connections should be opened before the run
+     *         starts
+     */
+    public boolean isPrewarm() {
+        return prewarm && isPooledConnections();
+    }
+
+    /**
+     * @return the most tests to run, across all threads, or 0 for no limit
+     */
+    public long getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * @return the most bytes to send and receive, across all threads, or 0
+     *         for no limit
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return passes through the tests for each thread, or 0 for no limit
+     */
+    public long getLoopsPerThread() {
+        return loopsPerThread;
+    }
+
+    /**
+     * @return true if the tests should repeat until the end of the test time
+     *         or one of the other stop conditions
+     */
+    public boolean isRepeatingTest() {
+        return isTimedTest || maxRequests > 0 || maxBytes > 0
+                || loopsPerThread > 0;
+    }
+
+    /**
+     * @return true if any test has a think time
+     */
+    public boolean hasThinkTime() {
+        return null != thinkTime || !thinkTimesByName.isEmpty();
+    }
+
+    /**
+     * @param testName
+     * @return the think time after this test, or null for none
+     */
+    public ThinkTime getThinkTime(String testName) {
+        ThinkTime byName = (null == testName) ? null : thinkTimesByName
+                .get(testName);
+        return (null == byName) ? thinkTime : byName;
+    }
+
+    /**
+     * @return the staged load profile, or null
+     */
+    public LoadProfile getLoadProfile() {
+        return loadProfile;
+    }
+
+    /**
+     * @return true if this run is a saturation search
+     */
+    public boolean isSaturationSearch() {
+        return null != searchMode;
+    }
+
+    /**
+     * @return true if the search varies the arrival rate, rather than the
+     *         number of threads
+     */
+    public boolean isRateSearch() {
+        return SEARCH_MODE_RATE.equalsIgnoreCase(searchMode);
+    }
+
+    /**
+     * @return the load for the first trial
+     */
+    public double getSearchStart() {
+        return searchStart;
+    }
+
+    /**
+     * @return the highest load to try, or 0 for no limit
+     */
+    public double getSearchMax() {
+        return searchMax;
+    }
+
+    /**
+     * @return
+     */
+    public double getSearchStepFactor() {
+        return searchStepFactor;
+    }
+
+    /**
+     * @return
+     */
+    public long getSearchTrialSeconds() {
+        return searchTrialSeconds;
+    }
+
+    /**
+     * @return stop when the bounds are this close, as a fraction of the load
+     */
+    public double getSearchPrecision() {
+        return searchPrecision;
+    }
+
+    /**
+     * @return the latency SLO, or 0 for none
+     */
+    public double getSloLatencyMillis() {
+        return sloLatencyMillis;
+    }
+
+    /**
+     * @return the percentile that must meet the latency SLO
+     */
+    public int getSloPercentile() {
+        return sloPercentile;
+    }
+
+    /**
+     * @return the highest acceptable fraction of tests with errors
+     */
+    public double getSloErrorRate() {
+        return sloErrorRate;
+    }
+
+    /**
+     * @return the share of wall time that client overhead may take before
+     *         the run is flagged as client-bound
+     */
+    public double getOverheadThreshold() {
+        return overheadThreshold;
+    }
+
+    /**
+     * @param _overrides
+     * @return a new configuration, with these properties replaced
+     */
+    public Configuration override(Properties _overrides) {
+        Properties merged = new Properties();
+        merged.putAll(props);
+        merged.putAll(_overrides);
+        return new Configuration(merged);
+    }
+
+    /**
+     * @return seconds between live reports, or 0 for none
+     */
+    public long getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+
+    /**
+     * @return
+     */
+    public String getIntervalOutputPath() {
+        return intervalOutputPath;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isCorrectedLatency() {
+        // paced tests are always measured from their intended start
+        return getExpectedIntervalNanos() > 0 || isTargetRate();
+    }
+
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+/**
+ * Connections, measured apart from request latency: how many connections a
+ * sampler opened, how long each took, and how long the sampler waited for
+ * a connection pool.
+ *
+ * Each sampler keeps its own, so recording needs no synchronization.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ConnectionStatistics {
+
+    private LatencyHistogram connectHistogram;
+
+    private LatencyHistogram waitHistogram;
+
+    /**
+     * @param _significantDigits
+     */
+    public ConnectionStatistics(int _significantDigits) {
+        connectHistogram = new LatencyHistogram(_significantDigits);
+        waitHistogram = new LatencyHistogram(_significantDigits);
+    }
+
+    /**
+     * @param nanos
+     *            time taken to open one connection
+     */
+    public void recordConnect(long nanos) {
+        connectHistogram.recordValue(nanos);
+    }
+
+    /**
+     * @param nanos
+     *            time spent waiting for a pooled connection
+     */
+    public void recordWait(long nanos) {
+        waitHistogram.recordValue(nanos);
+    }
+
+    /**
+     * @param other
+     */
+    public void add(ConnectionStatistics other) {
+        connectHistogram.add(other.connectHistogram);
+        waitHistogram.add(other.waitHistogram);
+    }
+
+    /**
+     * @return
+     */
+    public long getOpenedCount() {
+        return connectHistogram.getTotalCount();
+    }
+
+    /**
+     * @return connection setup times
+     */
+    public LatencyHistogram getConnectHistogram() {
+        return connectHistogram;
+    }
+
+    /**
+     * @return pool wait times, which are empty unless the pool has a size
+     *         limit
+     */
+    public LatencyHistogram getWaitHistogram() {
+        return waitHistogram;
+    }
+
+}
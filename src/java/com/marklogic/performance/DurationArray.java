@@ -0,0 +1,87 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of durations, in nanoseconds, stored as primitive longs.
+ *
+ * Instances are not synchronized: each Sampler appends to its own, and
+ * ExactPercentiles sorts them after the run.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class DurationArray {
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private long[] values = new long[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    private boolean sorted = true;
+
+    /**
+     * @param value
+     *            duration in nanoseconds
+     */
+    public void add(long value) {
+        if (size == values.length) {
+            long[] grown = new long[values.length * 2];
+            System.arraycopy(values, 0, grown, 0, size);
+            values = grown;
+        }
+        if (sorted && size > 0 && value < values[size - 1]) {
+            sorted = false;
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Sort in place. Subsequent calls are free, until more values are added.
+     */
+    public void sort() {
+        if (!sorted) {
+            Arrays.sort(values, 0, size);
+            sorted = true;
+        }
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * @param i
+     * @return
+     */
+    public long get(int i) {
+        if (i >= size) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
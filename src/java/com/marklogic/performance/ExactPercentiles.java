@@ -0,0 +1,179 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exact percentiles over the durations kept by each Sampler.
+ *
+ * Rather than copying every Result into one list and sorting it, each
+ * sampler's primitive durations are sorted in place, in parallel, and the
+ * sorted runs are then k-way merged just far enough to reach the highest
+ * requested rank. All the requested percentiles are answered by a single
+ * pass of the merge.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ExactPercentiles {
+
+    private DurationArray[] runs;
+
+    private long totalCount = 0;
+
+    /**
+     * Sorts each array in place.
+     *
+     * @param _runs
+     */
+    public ExactPercentiles(DurationArray[] _runs) {
+        runs = _runs;
+        for (int i = 0; i < runs.length; i++) {
+            totalCount += runs[i].size();
+        }
+        sortAll();
+    }
+
+    private void sortAll() {
+        final AtomicInteger next = new AtomicInteger(0);
+        int numThreads = Math.min(runs.length, Runtime.getRuntime()
+                .availableProcessors());
+        if (numThreads < 2) {
+            for (int i = 0; i < runs.length; i++) {
+                runs[i].sort();
+            }
+            return;
+        }
+        Thread[] sorters = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            sorters[i] = new Thread("sorter-" + i) {
+                public void run() {
+                    int j;
+                    while ((j = next.getAndIncrement()) < runs.length) {
+                        runs[j].sort();
+                    }
+                }
+            };
+            sorters[i].start();
+        }
+        for (int i = 0; i < numThreads; i++) {
+            try {
+                sorters[i].join();
+            } catch (InterruptedException e) {
+                // reset interrupt status and try again
+                Thread.interrupted();
+                i--;
+            }
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @param percentile
+     * @return duration in nanoseconds
+     */
+    public long getValueAtPercentile(double percentile) {
+        return getValuesAtPercentiles(new double[] { percentile })[0];
+    }
+
+    /**
+     * Uses the same rank as LatencyHistogram, so that the two can be
+     * compared directly.
+     *
+     * @param percentiles
+     * @return durations in nanoseconds, in the same order as the percentiles
+     */
+    public long[] getValuesAtPercentiles(double[] percentiles) {
+        long[] values = new long[percentiles.length];
+        if (0 == totalCount) {
+            return values;
+        }
+        long[] ranks = new long[percentiles.length];
+        long maxRank = 0;
+        for (int i = 0; i < percentiles.length; i++) {
+            ranks[i] = Math.min(totalCount,
+                    1 + (long) (percentiles[i] * totalCount * .01));
+            if (ranks[i] > maxRank) {
+                maxRank = ranks[i];
+            }
+        }
+
+        // binary min-heap of run indexes, ordered by each run's next value
+        int[] heap = new int[runs.length];
+        int[] cursors = new int[runs.length];
+        int heapSize = 0;
+        for (int i = 0; i < runs.length; i++) {
+            if (runs[i].size() > 0) {
+                heap[heapSize++] = i;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, cursors, i);
+        }
+
+        long rank = 0;
+        long value;
+        int top;
+        while (rank < maxRank) {
+            top = heap[0];
+            value = runs[top].get(cursors[top]++);
+            rank++;
+            for (int i = 0; i < ranks.length; i++) {
+                if (ranks[i] == rank) {
+                    values[i] = value;
+                }
+            }
+            if (cursors[top] == runs[top].size()) {
+                heap[0] = heap[--heapSize];
+            }
+            if (heapSize > 0) {
+                siftDown(heap, heapSize, cursors, 0);
+            }
+        }
+        return values;
+    }
+
+    private void siftDown(int[] heap, int heapSize, int[] cursors, int i) {
+        int run = heap[i];
+        long value = runs[run].get(cursors[run]);
+        int child;
+        while ((child = 2 * i + 1) < heapSize) {
+            if (child + 1 < heapSize
+                    && peek(heap[child + 1], cursors) < peek(heap[child],
+                            cursors)) {
+                child++;
+            }
+            if (value <= peek(heap[child], cursors)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = run;
+    }
+
+    private long peek(int run, int[] cursors) {
+        return runs[run].get(cursors[run]);
+    }
+
+}
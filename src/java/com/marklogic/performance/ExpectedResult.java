@@ -0,0 +1,200 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checks a response as it streams in, without keeping it. The expected
+ * result is given as whitespace-separated tokens: <code>length:N</code>
+ * for the size in bytes, and <code>algorithm:hex</code> for a content
+ * hash, where the algorithm is any name known to MessageDigest. For
+ * example, <code>length:2 sha-1:7a85f4764bbd6daf1c3545efbbf0f279a6dc0beb</code>
+ * matches "ok".
+ *
+ * Not thread-safe: each sampler keeps its own.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ExpectedResult {
+
+    /**
+     * used to check plain-text expected results, when responses are not
+     * kept
+     */
+    public static final String TEXT_ALGORITHM = "SHA-1";
+
+    private static final String LENGTH = "length";
+
+    // -1 if the length is not checked
+    private long expectedLength = -1;
+
+    // null if the content is not checked
+    private byte[] expectedDigest = null;
+
+    private MessageDigest digest = null;
+
+    private long length = 0;
+
+    private ExpectedResult() {
+        // use parse() or forText()
+    }
+
+    /**
+     * @param expected
+     * @return a check for the expected result, or null if it is plain text
+     */
+    public static ExpectedResult parse(String expected) {
+        if (null == expected) {
+            return null;
+        }
+        String[] tokens = expected.trim().split("\\s+");
+        ExpectedResult check = new ExpectedResult();
+        for (int i = 0; i < tokens.length; i++) {
+            int colon = tokens[i].indexOf(':');
+            if (colon < 1 || colon == tokens[i].length() - 1) {
+                return null;
+            }
+            String name = tokens[i].substring(0, colon);
+            String value = tokens[i].substring(colon + 1);
+            try {
+                if (LENGTH.equalsIgnoreCase(name)) {
+                    if (check.expectedLength > -1) {
+                        return null;
+                    }
+                    check.expectedLength = Long.parseLong(value);
+                } else {
+                    if (null != check.digest) {
+                        return null;
+                    }
+                    check.expectedDigest = parseHex(value);
+                    check.digest = MessageDigest.getInstance(name);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+        return check;
+    }
+
+    /**
+     * @param expected
+     * @return a check for the length and hash of the expected text, encoded
+     *         with the platform charset, as responses are decoded
+     */
+    public static ExpectedResult forText(String expected) {
+        ExpectedResult check = new ExpectedResult();
+        byte[] bytes = expected.getBytes();
+        check.expectedLength = bytes.length;
+        try {
+            check.digest = MessageDigest.getInstance(TEXT_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE must support it
+            throw new RuntimeException(e);
+        }
+        check.expectedDigest = check.digest.digest(bytes);
+        return check;
+    }
+
+    /**
+     * @return a check for the same expected result, with its own state
+     */
+    public ExpectedResult copy() {
+        ExpectedResult check = new ExpectedResult();
+        check.expectedLength = expectedLength;
+        check.expectedDigest = expectedDigest;
+        if (null != digest) {
+            try {
+                check.digest = MessageDigest.getInstance(digest
+                        .getAlgorithm());
+            } catch (NoSuchAlgorithmException e) {
+                // it worked the first time
+                throw new RuntimeException(e);
+            }
+        }
+        return check;
+    }
+
+    /**
+     * Prepare for the next response.
+     */
+    public void reset() {
+        length = 0;
+        if (null != digest) {
+            digest.reset();
+        }
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param len
+     */
+    public void update(byte[] bytes, int offset, int len) {
+        length += len;
+        if (null != digest) {
+            digest.update(bytes, offset, len);
+        }
+    }
+
+    /**
+     * Consume the remaining bytes of the buffer, which may be direct.
+     *
+     * @param buf
+     */
+    public void update(ByteBuffer buf) {
+        length += buf.remaining();
+        if (null == digest) {
+            buf.position(buf.limit());
+        } else {
+            digest.update(buf);
+        }
+    }
+
+    /**
+     * Call once, after the whole response.
+     *
+     * @return true if the response matched
+     */
+    public boolean matches() {
+        if (expectedLength > -1 && length != expectedLength) {
+            return false;
+        }
+        return null == digest
+                || MessageDigest.isEqual(expectedDigest, digest.digest());
+    }
+
+    private static byte[] parseHex(String hex) {
+        if (0 != hex.length() % 2) {
+            throw new NumberFormatException(hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i,
+                    2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single timer thread for every delay in the run, such as think times.
+ *
+ * Timeouts hash into a ring of buckets by their deadline tick, so that
+ * scheduling is a lock-free enqueue and each tick only looks at one
+ * bucket. Deadlines are rounded up to the next tick, which is plenty of
+ * precision for think times, and many thousands of waiting samplers cost
+ * one small object each.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class HashedWheelTimer extends Thread {
+
+    private static final long TICK_NANOS_DEFAULT = Configuration.NANOS_PER_MILLI;
+
+    private static final int WHEEL_SIZE_DEFAULT = 512;
+
+    private static HashedWheelTimer instance = null;
+
+    private static class Timeout {
+
+        Runnable task;
+
+        long deadlineTick;
+
+        // full turns of the wheel before the deadline
+        long rounds;
+
+    }
+
+    /**
+     * Wakes a parked thread.
+     */
+    private static class Waker implements Runnable {
+
+        Thread thread = Thread.currentThread();
+
+        volatile boolean done = false;
+
+        public void run() {
+            done = true;
+            LockSupport.unpark(thread);
+        }
+
+    }
+
+    private long tickNanos;
+
+    private LinkedList<Timeout>[] wheel;
+
+    private int mask;
+
+    private ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+
+    private long startNanos;
+
+    private long tick = 0;
+
+    // timeouts on the wheel: only the timer thread touches this
+    private int scheduled = 0;
+
+    // true while the timer thread waits for something to schedule
+    private volatile boolean idle = false;
+
+    /**
+     * @param _tickNanos
+     * @param _wheelSize
+     *            rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(long _tickNanos, int _wheelSize) {
+        super("think-timer");
+        setDaemon(true);
+        tickNanos = _tickNanos;
+        int size = 1;
+        while (size < _wheelSize) {
+            size *= 2;
+        }
+        mask = size - 1;
+        wheel = (LinkedList<Timeout>[]) new LinkedList<?>[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new LinkedList<Timeout>();
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the shared timer, started on first use
+     */
+    public static synchronized HashedWheelTimer getInstance() {
+        if (null == instance) {
+            instance = new HashedWheelTimer(TICK_NANOS_DEFAULT,
+                    WHEEL_SIZE_DEFAULT);
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Run a task on the timer thread, after a delay. The task should be
+     * quick, such as waking another thread.
+     *
+     * @param task
+     * @param delayNanos
+     */
+    public void schedule(Runnable task, long delayNanos) {
+        Timeout timeout = new Timeout();
+        timeout.task = task;
+        // round up, so that no task runs early
+        timeout.deadlineTick = (System.nanoTime() - startNanos
+                + Math.max(0, delayNanos) + tickNanos - 1)
+                / tickNanos;
+        pending.add(timeout);
+        if (idle) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    /**
+     * Park the calling thread until the delay has passed, or until the
+     * thread is interrupted. An interrupted thread returns at once, with
+     * its interrupt status still set.
+     *
+     * @param delayNanos
+     */
+    public void park(long delayNanos) {
+        if (delayNanos <= 0) {
+            return;
+        }
+        Waker waker = new Waker();
+        schedule(waker, delayNanos);
+        while (!waker.done) {
+            if (Thread.interrupted()) {
+                // park would return at once, again and again
+                Thread.currentThread().interrupt();
+                return;
+            }
+            LockSupport.park(this);
+        }
+    }
+
+    public void run() {
+        Iterator<Timeout> iter;
+        Timeout timeout;
+        long remaining;
+        while (true) {
+            if (0 == scheduled && pending.isEmpty()) {
+                // nothing to do until schedule() unparks this thread
+                idle = true;
+                while (pending.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                // the wheel is empty, so the idle ticks can be skipped
+                tick = (System.nanoTime() - startNanos) / tickNanos;
+            }
+
+            // wait for the end of the current tick
+            while ((remaining = startNanos + (tick + 1) * tickNanos
+                    - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            tick++;
+
+            // only this thread touches the wheel
+            while (null != (timeout = pending.poll())) {
+                if (timeout.deadlineTick <= tick) {
+                    // already due: do not wait for another turn
+                    runTask(timeout);
+                    continue;
+                }
+                timeout.rounds = (timeout.deadlineTick - tick) / wheel.length;
+                wheel[(int) (timeout.deadlineTick & mask)].add(timeout);
+                scheduled++;
+            }
+
+            iter = wheel[(int) (tick & mask)].iterator();
+            while (iter.hasNext()) {
+                timeout = iter.next();
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                    continue;
+                }
+                iter.remove();
+                scheduled--;
+                runTask(timeout);
+            }
+        }
+    }
+
+    private void runTask(Timeout timeout) {
+        try {
+            timeout.task.run();
+        } catch (Throwable t) {
+            // keep the timer running for everyone else
+            t.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses a host for each request, for every sampler at once. Hosts may
+ * be given as <code>name</code> or <code>name:port</code>.
+ *
+ * Strategies are round-robin, least outstanding requests, and
+ * latency-weighted random choice, which favors hosts with a lower moving
+ * average latency. Every request must be bracketed with begin() and end(),
+ * so that the selector can track outstanding requests and latency.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class HostSelector {
+
+    /**
+     * weight of each new latency in the moving average
+     */
+    static final double LATENCY_ALPHA = 0.1;
+
+    /**
+     * a failed request counts as this many times the host's average latency
+     * for successful requests, or the slowest host's if it has none, so
+     * that a host that fails fast does not attract more load
+     */
+    static final int ERROR_PENALTY = 4;
+
+    /**
+     * One host and port, with its load.
+     */
+    public static class Host {
+
+        private String name;
+
+        private int port;
+
+        private AtomicInteger outstanding = new AtomicInteger(0);
+
+        // moving average, or 0 before the first request ends
+        private AtomicLong latencyNanos = new AtomicLong(0);
+
+        // moving average of successful requests only
+        private AtomicLong successNanos = new AtomicLong(0);
+
+        Host(String _name, int _port) {
+            name = _name;
+            port = _port;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos.get();
+        }
+
+        static void update(AtomicLong average, long nanos) {
+            long previous, next;
+            do {
+                previous = average.get();
+                next = (0 == previous) ? nanos : previous
+                        + (long) (LATENCY_ALPHA * (nanos - previous));
+            } while (!average.compareAndSet(previous, next));
+        }
+
+        public String toString() {
+            return name + ":" + port;
+        }
+
+    }
+
+    private Host[] hosts;
+
+    private String strategy;
+
+    private AtomicInteger next = new AtomicInteger(0);
+
+    // thread-safe, although contended under heavy load
+    private Random random = new Random();
+
+    /**
+     * @param _hosts
+     *            names, each with an optional port
+     * @param defaultPort
+     *            for names without a port
+     * @param _strategy
+     *            one of the Configuration.HOST_STRATEGY values
+     */
+    public HostSelector(String[] _hosts, int defaultPort, String _strategy) {
+        hosts = new Host[_hosts.length];
+        for (int i = 0; i < _hosts.length; i++) {
+            int colon = _hosts[i].lastIndexOf(':');
+            if (colon < 0) {
+                hosts[i] = new Host(_hosts[i], defaultPort);
+            } else {
+                hosts[i] = new Host(_hosts[i].substring(0, colon), Integer
+                        .parseInt(_hosts[i].substring(colon + 1)));
+            }
+        }
+        strategy = _strategy;
+    }
+
+    /**
+     * @return every host, in configured order
+     */
+    public Host[] getHosts() {
+        return hosts.clone();
+    }
+
+    /**
+     * @return the next host in turn, regardless of strategy
+     */
+    public Host nextHost() {
+        return hosts[(next.getAndIncrement() & Integer.MAX_VALUE)
+                % hosts.length];
+    }
+
+    /**
+     * @return the host for the next request
+     */
+    public Host select() {
+        if (hosts.length < 2) {
+            return hosts[0];
+        }
+        if (Configuration.HOST_STRATEGY_LEAST_OUTSTANDING
+                .equalsIgnoreCase(strategy)) {
+            return selectLeastOutstanding();
+        }
+        if (Configuration.HOST_STRATEGY_LATENCY_WEIGHTED
+                .equalsIgnoreCase(strategy)) {
+            return selectLatencyWeighted();
+        }
+        return nextHost();
+    }
+
+    private Host selectLeastOutstanding() {
+        // start from a moving offset, so that ties are spread evenly
+        int offset = next.getAndIncrement() & Integer.MAX_VALUE;
+        Host best = null;
+        Host host;
+        for (int i = 0; i < hosts.length; i++) {
+            host = hosts[(offset + i) % hosts.length];
+            if (null == best || host.getOutstanding() < best.getOutstanding()) {
+                best = host;
+            }
+        }
+        return best;
+    }
+
+    private Host selectLatencyWeighted() {
+        double[] weights = new double[hosts.length];
+        double total = 0;
+        int measured = 0;
+        long latency;
+        for (int i = 0; i < hosts.length; i++) {
+            latency = hosts[i].getLatencyNanos();
+            if (latency > 0) {
+                weights[i] = 1.0 / latency;
+                total += weights[i];
+                measured++;
+            }
+        }
+        if (0 == measured) {
+            return nextHost();
+        }
+        // hosts without a measurement yet get the average weight
+        double average = total / measured;
+        for (int i = 0; i < hosts.length; i++) {
+            if (0 == weights[i]) {
+                weights[i] = average;
+                total += average;
+            }
+        }
+        double r = random.nextDouble() * total;
+        for (int i = 0; i < hosts.length - 1; i++) {
+            r -= weights[i];
+            if (r < 0) {
+                return hosts[i];
+            }
+        }
+        return hosts[hosts.length - 1];
+    }
+
+    /**
+     * @param host
+     */
+    public void begin(Host host) {
+        host.outstanding.incrementAndGet();
+    }
+
+    /**
+     * @param host
+     * @param nanos
+     *            the latency of the request
+     * @param error
+     */
+    public void end(Host host, long nanos, boolean error) {
+        host.outstanding.decrementAndGet();
+        nanos = Math.max(1, nanos);
+        if (!error) {
+            Host.update(host.successNanos, nanos);
+        } else {
+            long average = host.successNanos.get();
+            if (0 == average) {
+                for (int i = 0; i < hosts.length; i++) {
+                    average = Math.max(average, hosts[i].successNanos
+                            .get());
+                }
+            }
+            nanos = Math.max(nanos, ERROR_PENALTY * average);
+        }
+        Host.update(host.latencyNanos, nanos);
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Double-buffered statistics, so that a reporter thread can take the
+ * statistics for the last interval while samplers keep recording.
+ *
+ * Recording never blocks: writers only increment an epoch counter on the
+ * way in and out. The reader swaps the buffers, then waits until every
+ * writer that might still be using the old buffer has finished. This is
+ * the writer-reader phaser used by HdrHistogram's Recorder.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class IntervalRecorder {
+
+    /**
+     * Statistics for one interval: totals, and optionally a breakdown by
+     * test name.
+     */
+    public static class Interval {
+
+        private int significantDigits;
+
+        private TestStatistics totals;
+
+        // null unless broken down by test name
+        private Map<String, TestStatistics> byName = null;
+
+        Interval(int _significantDigits, boolean _byName) {
+            significantDigits = _significantDigits;
+            totals = new TestStatistics(null, significantDigits);
+            if (_byName) {
+                byName = new HashMap<String, TestStatistics>();
+            }
+        }
+
+        void record(Result res) {
+            totals.record(res);
+            if (null == byName) {
+                return;
+            }
+            TestStatistics stats = byName.get(res.getTestName());
+            if (null == stats) {
+                stats = new TestStatistics(res.getTestName(),
+                        significantDigits);
+                byName.put(res.getTestName(), stats);
+            }
+            stats.record(res);
+        }
+
+        void reset() {
+            totals.reset();
+            if (null != byName) {
+                // keep the entries, to avoid reallocating them
+                Iterator<TestStatistics> iter = byName.values()
+                        .iterator();
+                while (iter.hasNext()) {
+                    iter.next().reset();
+                }
+            }
+        }
+
+        public TestStatistics getTotals() {
+            return totals;
+        }
+
+        /**
+         * @return statistics by test name, including names with no tests in
+         *         this interval, or null if not broken down by name
+         */
+        public Map<String, TestStatistics> getByName() {
+            return byName;
+        }
+
+    }
+
+    private AtomicLong startEpoch = new AtomicLong(0);
+
+    private AtomicLong evenEndEpoch = new AtomicLong(0);
+
+    private AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+    private volatile Interval active;
+
+    private Interval inactive;
+
+    private Object readerMutex = new Object();
+
+    /**
+     * @param _significantDigits
+     */
+    public IntervalRecorder(int _significantDigits) {
+        this(_significantDigits, false);
+    }
+
+    /**
+     * @param _significantDigits
+     * @param _byName
+     *            if true, also break down each interval by test name
+     */
+    public IntervalRecorder(int _significantDigits, boolean _byName) {
+        active = new Interval(_significantDigits, _byName);
+        inactive = new Interval(_significantDigits, _byName);
+    }
+
+    /**
+     * @param res
+     */
+    public void record(Result res) {
+        long epoch = startEpoch.getAndIncrement();
+        try {
+            active.record(res);
+        } finally {
+            if (epoch < 0) {
+                oddEndEpoch.getAndIncrement();
+            } else {
+                evenEndEpoch.getAndIncrement();
+            }
+        }
+    }
+
+    /**
+     * Swap in a fresh buffer, and return everything recorded since the
+     * previous call. The returned statistics will be reused by the next
+     * call, so callers must finish with them first.
+     *
+     * @return
+     */
+    public TestStatistics getIntervalStatistics() {
+        return getInterval().getTotals();
+    }
+
+    /**
+     * Like getIntervalStatistics(), but including any breakdown by test
+     * name. The returned interval will be reused by the next call.
+     *
+     * @return
+     */
+    public Interval getInterval() {
+        synchronized (readerMutex) {
+            inactive.reset();
+            Interval previous = active;
+            active = inactive;
+            inactive = previous;
+            flipPhase();
+            return previous;
+        }
+    }
+
+    private void flipPhase() {
+        boolean nextPhaseIsEven = (startEpoch.get() < 0);
+        long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        if (nextPhaseIsEven) {
+            evenEndEpoch.set(initialStartValue);
+        } else {
+            oddEndEpoch.set(initialStartValue);
+        }
+        long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+        // wait for writers that entered before the flip
+        AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch
+                : evenEndEpoch;
+        while (previousEndEpoch.get() != startValueAtFlip) {
+            Thread.yield();
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import com.marklogic.performance.sampler.Sampler;
+
+/**
+ * Background thread that reports throughput and latency for each interval
+ * while the test runs, to stderr and to a CSV time-series file.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class IntervalReporter extends Thread {
+
+    static final String[] FIELDS = new String[] { "elapsed-seconds",
+            "interval-seconds", "number-of-tests", "number-of-errors",
+            "tests-per-second", "bytes-per-second", "percentile-50-ms",
+            "percentile-95-ms", "percentile-99-ms", "maximum-ms" };
+
+    private List<Sampler> samplers;
+
+    private long intervalNanos;
+
+    private long startNanos;
+
+    private long lastNanos;
+
+    private Writer out;
+
+    private TestStatistics interval;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param _config
+     * @param _samplers
+     *            may grow while the test runs, so access is synchronized on
+     *            the list
+     * @param _outputPath
+     * @throws IOException
+     */
+    public IntervalReporter(Configuration _config, List<Sampler> _samplers,
+            String _outputPath) throws IOException {
+        samplers = _samplers;
+        intervalNanos = _config.getReportIntervalSeconds()
+                * Configuration.NANOS_PER_SECOND;
+        interval = new TestStatistics(null, _config
+                .getHistogramSignificantDigits());
+        out = new FileWriter(_outputPath);
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (i > 0) {
+                out.write(",");
+            }
+            out.write(FIELDS[i]);
+        }
+        out.write("\n");
+        out.flush();
+        setName("interval-reporter");
+        setDaemon(true);
+    }
+
+    /**
+     * @param _startNanos
+     *            the shared start time for the test
+     */
+    public void startReporting(long _startNanos) {
+        startNanos = _startNanos;
+        lastNanos = _startNanos;
+        start();
+    }
+
+    public void run() {
+        long next = startNanos + intervalNanos;
+        long now;
+        while (running) {
+            now = System.nanoTime();
+            if (now < next) {
+                try {
+                    Thread.sleep(Math.max(1, (next - now)
+                            / Configuration.NANOS_PER_MILLI));
+                } catch (InterruptedException e) {
+                    // halt() will have cleared the running flag
+                    Thread.interrupted();
+                }
+                continue;
+            }
+            report(now);
+            next += intervalNanos;
+        }
+    }
+
+    /**
+     * Stop the thread, and report the final partial interval.
+     */
+    public void halt() {
+        running = false;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.interrupted();
+        }
+        report(System.nanoTime());
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("WARNING: error closing interval output: "
+                    + e.getMessage());
+        }
+    }
+
+    private synchronized void report(long now) {
+        Sampler[] current;
+        synchronized (samplers) {
+            current = samplers.toArray(new Sampler[0]);
+        }
+        interval.reset();
+        for (int i = 0; i < current.length; i++) {
+            interval.add(current[i].getIntervalRecorder()
+                    .getIntervalStatistics());
+        }
+
+        double seconds = (double) (now - lastNanos)
+                / Configuration.NANOS_PER_SECOND;
+        double elapsed = (double) (now - startNanos)
+                / Configuration.NANOS_PER_SECOND;
+        lastNanos = now;
+        long tests = interval.getNumberOfTests();
+        double testsPerSecond = tests / seconds;
+        double bytesPerSecond = (interval.getBytesSent() + interval
+                .getBytesReceived())
+                / seconds;
+        double maxMillis = (0 == tests) ? 0 : interval.getMaxMillis();
+
+        System.err.println(new Date()
+                + ": "
+                + String.format(Locale.ROOT,
+                        "interval %.0f s: %d tests (%d errors),"
+                                + " %.1f tests/s, %.0f B/s,"
+                                + " p50/p95/p99/max %.1f/%.1f/%.1f/%.1f ms",
+                        elapsed, tests, interval.getNumberOfErrors(),
+                        testsPerSecond, bytesPerSecond, interval
+                                .getPercentileDurationMillis(50),
+                        interval.getPercentileDurationMillis(95),
+                        interval.getPercentileDurationMillis(99),
+                        maxMillis));
+        try {
+            out.write(String.format(Locale.ROOT,
+                    "%.3f,%.3f,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n",
+                    elapsed, seconds, tests, interval.getNumberOfErrors(),
+                    testsPerSecond, bytesPerSecond, interval
+                            .getPercentileDurationMillis(50), interval
+                            .getPercentileDurationMillis(95), interval
+                            .getPercentileDurationMillis(99), maxMillis));
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("WARNING: error writing interval output: "
+                    + e.getMessage());
+        }
+    }
+
+}
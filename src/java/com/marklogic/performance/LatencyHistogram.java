@@ -0,0 +1,339 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Arrays;
+
+/**
+ * Constant-memory histogram of durations, in nanoseconds.
+ *
+ * The layout follows Gil Tene's HdrHistogram: values fall into power-of-two
+ * buckets, and each bucket is split into enough linear sub-buckets to
+ * preserve the requested number of significant decimal digits. Memory use
+ * depends only on the precision and range, never on the number of samples.
+ *
+ * Counts are kept in rows of one half-bucket each, allocated on first use,
+ * so a histogram that only sees a narrow range of durations stays small.
+ * This matters when there are many thousands of samplers.
+ *
+ * Instances are not synchronized: each Sampler records into its own
+ * histogram, and SummaryResults merges them after the run.
+ *
+ * @see http://hdrhistogram.github.io/HdrHistogram/
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class LatencyHistogram {
+
+    /**
+     * longer durations are recorded in the highest bucket, but the exact
+     * maximum is still tracked.
+     */
+    public static final long HIGHEST_TRACKABLE_NANOS = 3600 * Configuration.NANOS_PER_SECOND;
+
+    private int significantDigits;
+
+    private int subBucketHalfCountMagnitude;
+
+    private int subBucketHalfCount;
+
+    private int subBucketCount;
+
+    private long subBucketMask;
+
+    private int leadingZeroCountBase;
+
+    // rows of subBucketHalfCount counts, null until used
+    private long[][] counts;
+
+    private long totalCount = 0;
+
+    private long totalValue = 0;
+
+    private long minValue = Long.MAX_VALUE;
+
+    private long maxValue = Long.MIN_VALUE;
+
+    /**
+     * @param _significantDigits
+     *            between 1 and 5
+     */
+    public LatencyHistogram(int _significantDigits) {
+        if (_significantDigits < 1 || _significantDigits > 5) {
+            throw new IllegalArgumentException(
+                    "significant digits must be between 1 and 5: "
+                            + _significantDigits);
+        }
+        significantDigits = _significantDigits;
+
+        long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(
+                10, significantDigits);
+        int subBucketCountMagnitude = (int) Math.ceil(Math
+                .log(largestValueWithSingleUnitResolution)
+                / Math.log(2));
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        subBucketCount = 1 << subBucketCountMagnitude;
+        subBucketHalfCount = subBucketCount / 2;
+        subBucketMask = subBucketCount - 1;
+        leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        // how many power-of-two buckets do we need to cover the range?
+        long smallestUntrackableValue = subBucketCount;
+        int bucketCount = 1;
+        while (smallestUntrackableValue <= HIGHEST_TRACKABLE_NANOS) {
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        counts = new long[bucketCount + 1][];
+    }
+
+    /**
+     * @param value
+     *            duration in nanoseconds
+     */
+    public void recordValue(long value) {
+        recordValue(value, 1);
+    }
+
+    /**
+     * @param value
+     *            duration in nanoseconds
+     * @param count
+     */
+    public void recordValue(long value, long count) {
+        if (value < 0) {
+            // clock skew: treat as zero
+            value = 0;
+        }
+        if (value < minValue) {
+            minValue = value;
+        }
+        if (value > maxValue) {
+            maxValue = value;
+        }
+        totalValue += value * count;
+        totalCount += count;
+        int index = countsIndexFor(Math.min(value, HIGHEST_TRACKABLE_NANOS));
+        int row = index >> subBucketHalfCountMagnitude;
+        if (null == counts[row]) {
+            counts[row] = new long[subBucketHalfCount];
+        }
+        counts[row][index & (subBucketHalfCount - 1)] += count;
+    }
+
+    /**
+     * Merge another histogram into this one. The other histogram must have
+     * been created with the same precision.
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        if (null == other || 0 == other.totalCount) {
+            return;
+        }
+        if (other.significantDigits != significantDigits) {
+            throw new IllegalArgumentException(
+                    "cannot merge histograms with different precision: "
+                            + significantDigits + " != "
+                            + other.significantDigits);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (null == other.counts[i]) {
+                continue;
+            }
+            if (null == counts[i]) {
+                counts[i] = new long[subBucketHalfCount];
+            }
+            for (int j = 0; j < subBucketHalfCount; j++) {
+                counts[i][j] += other.counts[i][j];
+            }
+        }
+        totalCount += other.totalCount;
+        totalValue += other.totalValue;
+        if (other.minValue < minValue) {
+            minValue = other.minValue;
+        }
+        if (other.maxValue > maxValue) {
+            maxValue = other.maxValue;
+        }
+    }
+
+    /**
+     *
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            if (null != counts[i]) {
+                Arrays.fill(counts[i], 0);
+            }
+        }
+        totalCount = 0;
+        totalValue = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram h = new LatencyHistogram(significantDigits);
+        h.add(this);
+        return h;
+    }
+
+    /**
+     * Uses the same rank as the old sorted-list implementation: the element
+     * at index (percentile * count / 100), clamped to the last element.
+     *
+     * @param percentile
+     * @return duration in nanoseconds, accurate to the configured number of
+     *         significant digits
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (0 == totalCount) {
+            return 0;
+        }
+        long rank = 1 + (long) (percentile * totalCount * .01);
+        if (rank > totalCount) {
+            rank = totalCount;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (null == counts[i]) {
+                continue;
+            }
+            for (int j = 0; j < subBucketHalfCount; j++) {
+                seen += counts[i][j];
+                if (seen >= rank) {
+                    long value = highestEquivalentValue(valueFromIndex(indexOf(
+                            i, j)));
+                    return Math.max(minValue, Math.min(value, maxValue));
+                }
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * @param mean
+     *            the exact mean, in nanoseconds
+     * @return standard deviation in nanoseconds, using the midpoint of each
+     *         sub-bucket
+     */
+    public double getStandardDeviation(double mean) {
+        if (0 == totalCount) {
+            return 0;
+        }
+        double sumOfSquares = 0;
+        double delta;
+        for (int i = 0; i < counts.length; i++) {
+            if (null == counts[i]) {
+                continue;
+            }
+            for (int j = 0; j < subBucketHalfCount; j++) {
+                if (0 == counts[i][j]) {
+                    continue;
+                }
+                delta = medianEquivalentValue(valueFromIndex(indexOf(i, j)))
+                        - mean;
+                sumOfSquares += delta * delta * counts[i][j];
+            }
+        }
+        return Math.sqrt(sumOfSquares / totalCount);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return exact sum of all recorded values, in nanoseconds
+     */
+    public long getTotalValue() {
+        return totalValue;
+    }
+
+    /**
+     * @return exact minimum, or Long.MAX_VALUE if empty
+     */
+    public long getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * @return exact maximum, or Long.MIN_VALUE if empty
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    public double getMean() {
+        if (0 == totalCount) {
+            return 0;
+        }
+        return (double) totalValue / totalCount;
+    }
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    private int countsIndexFor(long value) {
+        int bucketIndex = leadingZeroCountBase
+                - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude)
+                + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private int indexOf(int row, int column) {
+        return (row << subBucketHalfCountMagnitude) + column;
+    }
+
+    private long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1))
+                + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    private long sizeOfEquivalentValueRange(long value) {
+        int bucketIndex = leadingZeroCountBase
+                - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        int adjustedBucket = (subBucketIndex >= subBucketCount) ? (bucketIndex + 1)
+                : bucketIndex;
+        return 1L << adjustedBucket;
+    }
+
+    private long highestEquivalentValue(long lowestValue) {
+        return lowestValue + sizeOfEquivalentValueRange(lowestValue) - 1;
+    }
+
+    private double medianEquivalentValue(long lowestValue) {
+        return lowestValue
+                + (sizeOfEquivalentValueRange(lowestValue) - 1) / 2.0;
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A staged load profile, such as a staircase of thread counts or a ramp of
+ * arrival rates.
+ *
+ * Stages are separated by commas or whitespace. Each stage is a load, or a
+ * ramp from one load to another, followed by a colon and a duration in
+ * seconds. Loads are thread counts, or arrival rates if followed by "/s".
+ * For example, "50:300,100:300,200:300" runs 50, 100 and 200 threads for
+ * five minutes each, "10-100:60" ramps from 10 to 100 threads over one
+ * minute, and "100/s:60,200/s:60" runs 100 then 200 tests per second.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class LoadProfile {
+
+    private static final Pattern STAGE = Pattern
+            .compile("(\\d+(?:\\.\\d+)?)(?:-(\\d+(?:\\.\\d+)?))?(/s)?:(\\d+(?:\\.\\d+)?)");
+
+    /**
+     * One stage of the profile.
+     */
+    public static class Stage {
+
+        private String description;
+
+        private double startLoad;
+
+        private double endLoad;
+
+        private long durationNanos;
+
+        Stage(String _description, double _startLoad, double _endLoad,
+                long _durationNanos) {
+            description = _description;
+            startLoad = _startLoad;
+            endLoad = _endLoad;
+            durationNanos = _durationNanos;
+        }
+
+        /**
+         * @param elapsedNanos
+         *            since the start of this stage
+         * @return the load at that time, interpolated for ramps
+         */
+        public double getLoadAt(long elapsedNanos) {
+            if (elapsedNanos >= durationNanos) {
+                return endLoad;
+            }
+            return startLoad + (endLoad - startLoad) * elapsedNanos
+                    / durationNanos;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public double getStartLoad() {
+            return startLoad;
+        }
+
+        public double getEndLoad() {
+            return endLoad;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+    }
+
+    private Stage[] stages;
+
+    private boolean rate;
+
+    private long totalNanos = 0;
+
+    private double maxLoad = 0;
+
+    /**
+     * @param _spec
+     * @throws IllegalArgumentException
+     *             if the profile cannot be parsed
+     */
+    public LoadProfile(String _spec) {
+        String[] parts = _spec.trim().split("[,\\s]+");
+        List<Stage> list = new ArrayList<Stage>();
+        Matcher m;
+        boolean stageRate;
+        double start, end;
+        long nanos;
+        for (int i = 0; i < parts.length; i++) {
+            m = STAGE.matcher(parts[i]);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("bad load profile stage: "
+                        + parts[i]);
+            }
+            stageRate = (null != m.group(3));
+            if (0 == i) {
+                rate = stageRate;
+            } else if (rate != stageRate) {
+                throw new IllegalArgumentException(
+                        "load profile mixes thread counts and rates: "
+                                + _spec);
+            }
+            start = Double.parseDouble(m.group(1));
+            end = (null == m.group(2)) ? start : Double.parseDouble(m
+                    .group(2));
+            if (rate && (start <= 0 || end <= 0)) {
+                throw new IllegalArgumentException(
+                        "load profile rates must be positive: " + parts[i]);
+            }
+            nanos = (long) (Double.parseDouble(m.group(4)) * Configuration.NANOS_PER_SECOND);
+            if (nanos <= 0) {
+                throw new IllegalArgumentException(
+                        "load profile durations must be positive: "
+                                + parts[i]);
+            }
+            list.add(new Stage(parts[i], start, end, nanos));
+            totalNanos += nanos;
+            maxLoad = Math.max(maxLoad, Math.max(start, end));
+        }
+        stages = list.toArray(new Stage[0]);
+    }
+
+    /**
+     * @return true if loads are arrival rates, rather than thread counts
+     */
+    public boolean isRate() {
+        return rate;
+    }
+
+    public Stage[] getStages() {
+        return stages;
+    }
+
+    /**
+     * @return the sum of all stage durations
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the highest load in any stage
+     */
+    public double getMaxLoad() {
+        return maxLoad;
+    }
+
+    /**
+     * @return the time-weighted average load over the whole profile
+     */
+    public double getMeanLoad() {
+        double sum = 0;
+        for (int i = 0; i < stages.length; i++) {
+            sum += (stages[i].startLoad + stages[i].endLoad) / 2
+                    * stages[i].durationNanos;
+        }
+        return sum / totalNanos;
+    }
+
+    /**
+     * @param elapsedNanos
+     *            since the start of the run
+     * @return the load at that time, or the final load after the end
+     */
+    public double getLoadAt(long elapsedNanos) {
+        long stageStart = 0;
+        for (int i = 0; i < stages.length; i++) {
+            if (elapsedNanos < stageStart + stages[i].durationNanos) {
+                return stages[i].getLoadAt(elapsedNanos - stageStart);
+            }
+            stageStart += stages[i].durationNanos;
+        }
+        return stages[stages.length - 1].endLoad;
+    }
+
+}
@@ -24,7 +24,10 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import com.marklogic.performance.reporter.Reporter;
 import com.marklogic.performance.reporter.ReporterException;
@@ -54,6 +57,33 @@ public class PerformanceMeters {
 
     long startTime, endTime;
 
+    // garbage collection time during the run
+    long collectionNanos = 0;
+
+    // null unless there is a target rate
+    ArrivalPacer pacer = null;
+
+    // null unless there is a request or byte limit
+    private RequestBudget budget = null;
+
+    // how each new sampler gets its tests
+    private Constructor<? extends Sampler> samplerConstructor;
+
+    private TestIterator sharedIterator = null;
+
+    private int offsetPerThread = -1;
+
+    private boolean virtualThreads = false;
+
+    // every thread that has been started, including retired samplers
+    private List<Thread> runners = new ArrayList<Thread>();
+
+    // one summary per stage, if there is a load profile
+    List<SummaryResults> stageResults = new ArrayList<SummaryResults>();
+
+    // how often a thread-count profile adjusts the number of threads
+    private static final long PROFILE_ADJUST_MILLIS = 100;
+
     static Reporter reporter = null;
 
     public static void main(String args[]) throws Exception {
@@ -81,7 +111,12 @@ public class PerformanceMeters {
             if (debug)
                 pm.printTests();
 
-            pm.run();
+            if (config.isSaturationSearch()) {
+                // report the trial with the highest passing load
+                pm = new SaturationSearch(config, pm.tests).run();
+            } else {
+                pm.run();
+            }
 
             pm.reportResults();
         } catch (Exception e) {
@@ -113,63 +148,257 @@ public class PerformanceMeters {
     void run() throws Exception {
         // launch threads
         int numThreads = config.getNumThreads();
-        showProgress("creating " + numThreads + " threads...");
-        TestIterator ti = null;
-        int offsetPerThread = -1;
-        if (config.isShared()) {
-            ti = new SharedTestIterator(tests);
+        LoadProfile profile = config.getLoadProfile();
+        if (null != profile && !profile.isRate()) {
+            // the profile starts and retires threads as it goes
+            showProgress("load profile with up to " + numThreads
+                    + " threads...");
         } else {
-            offsetPerThread = tests.size() / numThreads;
+            showProgress("creating " + numThreads + " threads...");
+        }
+        budget = RequestBudget.newInstance(config);
+        if (config.isTargetRate()) {
+            // open loop: the threads are a worker pool for the pacer
+            pacer = new ArrivalPacer(config, tests);
+            pacer.setBudget(budget);
+            showProgress("target rate " + pacer.getRequestedRate()
+                    + " tests/sec");
+        } else if (config.isShared()) {
+            sharedIterator = new SharedTestIterator(tests);
+        } else {
+            offsetPerThread = tests.size() / Math.max(1, numThreads);
         }
 
         // use reflection to create a sampler constructor object
         Class<? extends Sampler> samplerClass = Class.forName(
                 config.getSamplerClassName()).asSubclass(Sampler.class);
         // constructor with test iterator and configuration arguments
-        Constructor<? extends Sampler> samplerConstructor = samplerClass
+        samplerConstructor = samplerClass
                 .getConstructor(new Class[] { TestIterator.class,
                         Configuration.class });
         if (XCCSampler.class == samplerClass) {
             showProgress("XCC " + Version.getVersionString());
         }
 
-        Sampler sampler;
-        for (int i = 0; i < numThreads; i++) {
-            if (offsetPerThread != -1) {
-                // new test iterator for each thread
-                ti = new OffsetTestIterator(tests, i * offsetPerThread);
+        if (null == profile || profile.isRate()) {
+            for (int i = 0; i < numThreads; i++) {
+                samplers.add(newSampler(i));
+            }
+        }
+
+        IntervalReporter intervalReporter = null;
+        if (config.getReportIntervalSeconds() > 0) {
+            String intervalPath = config.getIntervalOutputPath();
+            if (null == intervalPath || intervalPath.equals("")) {
+                intervalPath = NAME + "-" + System.currentTimeMillis()
+                        + "-intervals.csv";
             }
+            showProgress("Writing interval results to " + intervalPath);
+            intervalReporter = new IntervalReporter(config, samplers,
+                    intervalPath);
+        }
 
-            sampler = samplerConstructor.newInstance(ti, config);
-            sampler.setIndex(i);
-            samplers.add(sampler);
+        virtualThreads = config.isVirtualThreads();
+        if (virtualThreads && !VirtualThreads.isAvailable()) {
+            showProgress("WARNING: virtual threads are not available in "
+                    + "this JVM: using platform threads");
+            virtualThreads = false;
+        }
+
+        // connection setup stays out of the measured run
+        if (config.isPrewarm() && !samplers.isEmpty()) {
+            showProgress("opening connections...");
+            for (int i = 0; i < samplers.size(); i++) {
+                samplers.get(i).prewarm();
+            }
         }
 
         // with really large numbers of threads, creation time is significant
         showProgress("starting...");
+        long collectionStart = ClientOverhead.getCollectionNanos();
         startTime = System.nanoTime();
-        for (int i = 0; i < numThreads; i++) {
-            samplers.get(i).start();
+        if (null != intervalReporter) {
+            intervalReporter.startReporting(startTime);
+        }
+        for (int i = 0; i < samplers.size(); i++) {
+            startSampler(samplers.get(i));
+        }
+        if (null != pacer) {
+            pacer.startPacing(startTime);
+        }
+
+        if (null != profile) {
+            runProfile(profile);
         }
 
         // wait for all to finish
-        for (int i = 0; i < samplers.size(); i++) {
+        joinRunners();
+
+        endTime = System.nanoTime();
+        collectionNanos = ClientOverhead.getCollectionNanos()
+                - collectionStart;
+
+        if (null != intervalReporter) {
+            intervalReporter.halt();
+        }
+    }
+
+    private Sampler newSampler(int i) throws Exception {
+        TestIterator ti = sharedIterator;
+        if (offsetPerThread != -1) {
+            // new test iterator for each thread
+            ti = new OffsetTestIterator(tests, (i % config.getNumThreads())
+                    * offsetPerThread);
+        }
+        Sampler sampler = samplerConstructor.newInstance(ti, config);
+        sampler.setIndex(i);
+        if (null != pacer) {
+            sampler.setPacer(pacer);
+        }
+        sampler.setBudget(budget);
+        return sampler;
+    }
+
+    private void startSampler(Sampler sampler) {
+        // warm-up and cool-down cutoffs use this shared start
+        sampler.setRunStartNanos(startTime);
+        // each sampler is its own platform thread,
+        // or a task on a virtual thread
+        if (virtualThreads) {
+            runners.add(VirtualThreads.start(sampler.getName(), sampler));
+        } else {
+            sampler.start();
+            runners.add(sampler);
+        }
+    }
+
+    private void joinRunners() {
+        for (int i = 0; i < runners.size(); i++) {
             try {
-                (samplers.get(i)).join();
+                runners.get(i).join();
             } catch (InterruptedException e) {
                 // reset interrupt status and continue
                 Thread.interrupted();
                 continue;
             }
         }
+    }
 
-        endTime = System.nanoTime();
+    /**
+     * Follow the load profile until the end of the run, adjusting the
+     * number of threads for a thread-count profile, and summarize each
+     * stage as it ends. Rate profiles are paced by the ArrivalPacer.
+     *
+     * @param profile
+     * @throws Exception
+     */
+    private void runProfile(LoadProfile profile) throws Exception {
+        LoadProfile.Stage[] stages = profile.getStages();
+        // samplers that have not been retired, oldest first
+        List<Sampler> active = new ArrayList<Sampler>(samplers);
+        long stageStart = startTime;
+        long stageEnd = startTime;
+        long now, sleepMillis;
+        int target, maxThreads;
+        Sampler sampler;
+        for (int i = 0; i < stages.length; i++) {
+            stageEnd += stages[i].getDurationNanos();
+            showProgress("stage " + (1 + i) + " of " + stages.length + ": "
+                    + stages[i].getDescription());
+            maxThreads = active.size();
+            while ((now = System.nanoTime()) < stageEnd) {
+                if (!profile.isRate()) {
+                    target = (int) Math.round(stages[i].getLoadAt(now
+                            - stageStart));
+                    while (active.size() < target) {
+                        sampler = newSampler(samplers.size());
+                        if (config.isPrewarm()) {
+                            // setup still counts against the stage,
+                            // but not against the sampler's first test
+                            sampler.prewarm();
+                        }
+                        synchronized (samplers) {
+                            samplers.add(sampler);
+                        }
+                        active.add(sampler);
+                        startSampler(sampler);
+                    }
+                    while (active.size() > target) {
+                        // the newest threads go first
+                        active.remove(active.size() - 1).retire();
+                    }
+                    maxThreads = Math.max(maxThreads, active.size());
+                }
+                sleepMillis = Math.min(PROFILE_ADJUST_MILLIS,
+                        (stageEnd - now) / Configuration.NANOS_PER_MILLI);
+                try {
+                    Thread.sleep(Math.max(1, sleepMillis));
+                } catch (InterruptedException e) {
+                    // reset interrupt status and continue
+                    Thread.interrupted();
+                }
+            }
+            if (i == stages.length - 1) {
+                // let the final tests finish, so that they count
+                for (int j = 0; j < active.size(); j++) {
+                    active.get(j).retire();
+                }
+                joinRunners();
+            }
+            now = System.nanoTime();
+            stageResults.add(summarizeStage(stages[i], now - stageStart,
+                    maxThreads));
+            stageStart = now;
+        }
+    }
+
+    /**
+     * Take each sampler's statistics for the stage that just ended, and
+     * merge them.
+     */
+    private SummaryResults summarizeStage(LoadProfile.Stage stage,
+            long durationNanos, int threads) {
+        int digits = config.getHistogramSignificantDigits();
+        TestStatistics totals = new TestStatistics(null, digits);
+        Map<String, TestStatistics> byName = new TreeMap<String, TestStatistics>();
+        Sampler[] current;
+        synchronized (samplers) {
+            current = samplers.toArray(new Sampler[0]);
+        }
+        IntervalRecorder.Interval interval;
+        Iterator<TestStatistics> iter;
+        TestStatistics stats, merged;
+        for (int i = 0; i < current.length; i++) {
+            // the interval is reused, so merge it right away
+            interval = current[i].getStageRecorder().getInterval();
+            totals.add(interval.getTotals());
+            iter = interval.getByName().values().iterator();
+            while (iter.hasNext()) {
+                stats = iter.next();
+                if (0 == stats.getNumberOfTests()) {
+                    continue;
+                }
+                merged = byName.get(stats.getName());
+                if (null == merged) {
+                    merged = new TestStatistics(stats.getName(), digits);
+                    byName.put(stats.getName(), merged);
+                }
+                merged.add(stats);
+            }
+        }
+        SummaryResults results = new SummaryResults(config, stage,
+                durationNanos, threads, current, totals, byName.values());
+        showProgress(String.format(
+                "stage %s: %d tests, %.0f tests/sec, %.0f ms avg",
+                stage.getDescription(), results.getNumberOfTests(),
+                results.getTestsPerSecond(), results.getAvgMillis()));
+        return results;
     }
 
     /**
      * @param message
      */
-    private static void showProgress(String message) {
+    static void showProgress(String message) {
         System.err.println(new Date() + ": " + message);
     }
 
@@ -192,15 +421,18 @@ public class PerformanceMeters {
         showProgress("Writing results to "
                 + outputFile.getCanonicalPath());
         FileWriter resultDocument = new FileWriter(outputFile);
-        Sampler[] samplerArray = samplers.toArray(new Sampler[0]);
-        SummaryResults summaryResults = new SummaryResults(config,
-                startTime, endTime, samplerArray);
+        SummaryResults summaryResults = summarize();
+        for (int i = 0; i < stageResults.size(); i++) {
+            summaryResults.addStage(stageResults.get(i));
+        }
 
         reporter.setSummaryResults(summaryResults);
         reporter.report(resultDocument, config.isReportTime());
         resultDocument.flush();
         resultDocument.close();
 
+        closeResults();
+
         // report some generic information
         if (config.isReportTime()) {
             System.out.println(String.format(
@@ -208,6 +440,12 @@ public class PerformanceMeters {
                     summaryResults.getNumberOfTests(), summaryResults
                             .getDurationMillis(), summaryResults
                             .getNumberOfErrors()));
+            if (summaryResults.hasMeasurementWindow()) {
+                System.out.println(String.format(
+                        "Excluded %d warm-up and %d cool-down tests.",
+                        summaryResults.getWarmupExcludedCount(),
+                        summaryResults.getCooldownExcludedCount()));
+            }
 
             // report min, max, avg response times
             System.out.println(String.format(
@@ -235,6 +473,118 @@ public class PerformanceMeters {
                                             .getPercentileDurationMillis(reportPercentile));
                 }
             }
+            if (summaryResults.hasCorrectedHistogram()) {
+                // report the same, from intended start times
+                System.out.println(String.format(
+                        "Corrected response times (max/avg): %.0f/%.0f ms",
+                        summaryResults.getCorrectedMaxMillis(),
+                        summaryResults.getCorrectedAvgMillis()));
+                if (config.hasReportPercentileDuration()) {
+                    int[] percentiles = config
+                            .getReportPercentileDuration();
+                    for (int i = 0; i < percentiles.length; i++) {
+                        System.out.println("Corrected response time ("
+                                + percentiles[i]
+                                + "th percentile): "
+                                + summaryResults
+                                        .getCorrectedPercentileDurationMillis(percentiles[i]));
+                    }
+                }
+            }
+
+            if (summaryResults.hasSchedulingLagHistogram()) {
+                // report open-loop accuracy
+                System.out.println(String.format(
+                        "Tests per second (requested/achieved): %.0f/%.0f",
+                        summaryResults.getRequestedTestsPerSecond(),
+                        summaryResults.getTestsPerSecond()));
+                LatencyHistogram lag = summaryResults
+                        .getSchedulingLagHistogram();
+                System.out.println(String.format(
+                        "Scheduling lag (avg/99th/max): %.1f/%.1f/%.1f ms",
+                        lag.getMean() / Configuration.NANOS_PER_MILLI,
+                        (double) lag.getValueAtPercentile(99)
+                                / Configuration.NANOS_PER_MILLI,
+                        (double) lag.getMaxValue()
+                                / Configuration.NANOS_PER_MILLI));
+                if (summaryResults.getUnstartedCount() > 0) {
+                    System.out.println(String.format(
+                            "%d tests were still queued at the end.",
+                            summaryResults.getUnstartedCount()));
+                }
+            }
+
+            if (summaryResults.getConnectionsOpened() > 0) {
+                LatencyHistogram connect = summaryResults
+                        .getConnectHistogram();
+                System.out.println(String.format(
+                        "Connections opened: %d, setup (avg/max): %.1f/%.1f ms",
+                        summaryResults.getConnectionsOpened(), connect
+                                .getMean()
+                                / Configuration.NANOS_PER_MILLI,
+                        (double) connect.getMaxValue()
+                                / Configuration.NANOS_PER_MILLI));
+            }
+            if (summaryResults.hasPoolWaitHistogram()) {
+                LatencyHistogram wait = summaryResults
+                        .getPoolWaitHistogram();
+                System.out.println(String.format(
+                        "Connection pool wait (avg/99th/max): %.1f/%.1f/%.1f ms",
+                        wait.getMean() / Configuration.NANOS_PER_MILLI,
+                        (double) wait.getValueAtPercentile(99)
+                                / Configuration.NANOS_PER_MILLI,
+                        (double) wait.getMaxValue()
+                                / Configuration.NANOS_PER_MILLI));
+            }
+
+            if (summaryResults.hasHostStatistics()) {
+                Iterator<TestStatistics> hosts = summaryResults
+                        .getHostStatistics().iterator();
+                TestStatistics host;
+                while (hosts.hasNext()) {
+                    host = hosts.next();
+                    System.out.println(String.format(
+                            "Host %s: %.1f tests/s, %d errors, "
+                                    + "avg/99th %.1f/%.1f ms", host
+                                    .getName(), summaryResults
+                                    .getTestsPerSecond(host), host
+                                    .getNumberOfErrors(), host
+                                    .getAvgMillis(), host
+                                    .getPercentileDurationMillis(99)));
+                }
+            }
+
+            if (summaryResults.hasPhaseHistograms()) {
+                StringBuffer phases = new StringBuffer(
+                        "Request phases (avg/99th ms):");
+                for (int i = 0; i < Result.PHASE_NAMES.length; i++) {
+                    LatencyHistogram phase = summaryResults
+                            .getPhaseHistogram(i);
+                    phases.append(String.format(" %s %.1f/%.1f",
+                            Result.PHASE_NAMES[i], phase.getMean()
+                                    / Configuration.NANOS_PER_MILLI,
+                            (double) phase.getValueAtPercentile(99)
+                                    / Configuration.NANOS_PER_MILLI));
+                }
+                System.out.println(phases);
+            }
+
+            // was this a measurement of the client?
+            System.out.println(String.format(
+                    "Client overhead (harness/GC/CPU): %.0f/%.0f/%.0f ms, "
+                            + "%.1f%% of wall time",
+                    summaryResults.getHarnessMillis(), summaryResults
+                            .getCollectionMillis(), summaryResults
+                            .getCpuMillis(), 100 * summaryResults
+                            .getOverheadShare()));
+            if (summaryResults.isClientBound()) {
+                System.out.println(String.format(
+                        "WARNING: client overhead exceeds %.1f%%"
+                                + " of wall time!\n"
+                                + "WARNING: results may measure the client,"
+                                + " not the server!", 100 * config
+                                .getOverheadThreshold()));
+            }
 
             // report bytes sent, received
             System.out.println("Bytes (sent/received): "
@@ -251,6 +601,25 @@ public class PerformanceMeters {
 
     }
 
+    /**
+     * @return the summary of the whole run, without any stages
+     */
+    SummaryResults summarize() {
+        SummaryResults results = new SummaryResults(config, startTime,
+                endTime, samplers.toArray(new Sampler[0]), pacer);
+        results.setCollectionNanos(collectionNanos);
+        return results;
+    }
+
+    /**
+     * Discard any spilled results.
+     */
+    void closeResults() {
+        for (int i = 0; i < samplers.size(); i++) {
+            samplers.get(i).getResultStore().close();
+        }
+    }
+
     void printTests() throws Exception {
         TestIterator ti = new SimpleTestIterator(tests);
         int i = 0;
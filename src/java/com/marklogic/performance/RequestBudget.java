@@ -0,0 +1,186 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Global stop conditions, shared by every sampler: a total number of
+ * requests, and a total number of bytes.
+ *
+ * Requests are counted down without overshooting. Each stripe takes a batch
+ * of requests from the global pool, and hands them out one at a time to its
+ * threads. Batches shrink as the pool empties, and once it is empty a
+ * thread may take requests from other stripes, so the run ends with
+ * exactly maxRequests tests, unless it stops for some other reason first.
+ *
+ * Bytes are only known after each request, so they are added to striped
+ * totals and checked before each request. Requests that are already
+ * running when the total is reached will still finish.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class RequestBudget {
+
+    // one stripe per cache line, to avoid false sharing
+    private static final int PADDING = 8;
+
+    private static final int MAX_STRIPES = 64;
+
+    private int stripes;
+
+    private int mask;
+
+    private long maxRequests;
+
+    private long maxBytes;
+
+    // requests not yet given to any stripe
+    private AtomicLong remaining;
+
+    private AtomicLongArray allowance;
+
+    private AtomicLongArray bytes;
+
+    /**
+     * @param _maxRequests
+     *            or 0 for no limit
+     * @param _maxBytes
+     *            or 0 for no limit
+     * @param _threads
+     */
+    public RequestBudget(long _maxRequests, long _maxBytes, int _threads) {
+        maxRequests = _maxRequests;
+        maxBytes = _maxBytes;
+        // a power of two, so that the stripe is a mask
+        stripes = 1;
+        while (stripes < _threads && stripes < MAX_STRIPES) {
+            stripes *= 2;
+        }
+        mask = stripes - 1;
+        remaining = new AtomicLong(maxRequests);
+        allowance = new AtomicLongArray(stripes * PADDING);
+        bytes = new AtomicLongArray(stripes * PADDING);
+    }
+
+    /**
+     * @param _config
+     * @return a budget, or null if none is configured
+     */
+    public static RequestBudget newInstance(Configuration _config) {
+        if (_config.getMaxRequests() < 1 && _config.getMaxBytes() < 1) {
+            return null;
+        }
+        return new RequestBudget(_config.getMaxRequests(), _config
+                .getMaxBytes(), _config.getNumThreads());
+    }
+
+    /**
+     * Take one request from the budget.
+     *
+     * @param threadIndex
+     * @return false if the budget is spent, and the thread should stop
+     */
+    public boolean tryAcquire(int threadIndex) {
+        if (maxBytes > 0 && getBytes() >= maxBytes) {
+            return false;
+        }
+        if (maxRequests < 1) {
+            return true;
+        }
+        int stripe = threadIndex & mask;
+        int index = stripe * PADDING;
+        long available, batch;
+        while (true) {
+            available = allowance.get(index);
+            if (available > 0) {
+                if (allowance.compareAndSet(index, available,
+                        available - 1)) {
+                    return true;
+                }
+                continue;
+            }
+            // refill this stripe from the global pool
+            available = remaining.get();
+            if (available < 1) {
+                break;
+            }
+            batch = Math.max(1, available / (4 * stripes));
+            if (remaining.compareAndSet(available, available - batch)) {
+                // keep one for this request
+                allowance.addAndGet(index, batch - 1);
+                return true;
+            }
+        }
+        // the pool is empty: look for leftovers in other stripes
+        for (int i = 1; i < stripes; i++) {
+            index = ((stripe + i) & mask) * PADDING;
+            while ((available = allowance.get(index)) > 0) {
+                if (allowance.compareAndSet(index, available,
+                        available - 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param threadIndex
+     * @param _bytes
+     *            sent and received by one request
+     */
+    public void addBytes(int threadIndex, long _bytes) {
+        if (maxBytes > 0) {
+            bytes.addAndGet((threadIndex & mask) * PADDING, _bytes);
+        }
+    }
+
+    /**
+     * @return true if no more requests should start
+     */
+    public boolean isSpent() {
+        if (maxBytes > 0 && getBytes() >= maxBytes) {
+            return true;
+        }
+        if (maxRequests < 1 || remaining.get() > 0) {
+            return false;
+        }
+        for (int i = 0; i < stripes; i++) {
+            if (allowance.get(i * PADDING) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the total bytes sent and received so far
+     */
+    public long getBytes() {
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) {
+            sum += bytes.get(i * PADDING);
+        }
+        return sum;
+    }
+
+}
@@ -18,6 +18,10 @@
  */
 package com.marklogic.performance;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * @author Ron Avnur, ron.avnur@marklogic.com
  * @author Michael Blakeley, michael.blakeley@marklogic.com
@@ -70,10 +74,39 @@ public class Result implements ResultInterface {
      */
     private static final String TEST_NAME = "name";
 
+    private static final String HOST = "host";
+
+    public static final int PHASE_DNS = 0;
+
+    public static final int PHASE_CONNECT = 1;
+
+    public static final int PHASE_TLS = 2;
+
+    public static final int PHASE_WRITE = 3;
+
+    public static final int PHASE_FIRST_BYTE = 4;
+
+    public static final int PHASE_BODY = 5;
+
+    /**
+     * request phases, in order: "-millis" will be appended to each field
+     * name
+     */
+    public static final String[] PHASE_NAMES = { "dns", "connect", "tls",
+            "write", "first-byte", "body" };
+
+    private static final String PHASE_SUFFIX = "-millis";
+
     private String testName, comment, queryResult;
 
+    // host:port, or null if the sampler did not choose a host
+    private String host = null;
+
     private long startNanos, endNanos, bytesSent, bytesReceived;
 
+    // null unless the sampler timed each phase of the request
+    private long[] phaseNanos = null;
+
     private boolean error;
 
     public Result(String _testName, String _comment) {
@@ -97,6 +130,33 @@ public class Result implements ResultInterface {
         return getFieldNames(false);
     }
 
+    /**
+     * @param withDetails
+     * @param withPhases
+     *            if true, details include the time for each request phase
+     * @param withHost
+     *            if true, details include the host that answered
+     * @return
+     */
+    public static String[] getFieldNames(boolean withDetails,
+            boolean withPhases, boolean withHost) {
+        String[] fields = getFieldNames(withDetails);
+        if (!withDetails || (!withPhases && !withHost)) {
+            return fields;
+        }
+        List<String> fieldsList = new ArrayList<String>(Arrays
+                .asList(fields));
+        if (withHost) {
+            fieldsList.add(HOST);
+        }
+        if (withPhases) {
+            for (int i = 0; i < PHASE_NAMES.length; i++) {
+                fieldsList.add(PHASE_NAMES[i] + PHASE_SUFFIX);
+            }
+        }
+        return fieldsList.toArray(new String[0]);
+    }
+
     /* (non-Javadoc)
      * @see com.marklogic.performance.ResultInterface#getFieldValue(java.lang.String)
      */
@@ -106,6 +166,9 @@ public class Result implements ResultInterface {
         if (_field.equals(TEST_NAME))
             return getTestName();
 
+        if (_field.equals(HOST))
+            return getHost();
+
         if (_field.equals(COMMENT))
             return getComment();
 
@@ -130,6 +193,15 @@ public class Result implements ResultInterface {
         if (_field.equals(BYTES_RECEIVED))
             return "" + getBytesReceived();
 
+        if (_field.endsWith(PHASE_SUFFIX)) {
+            for (int i = 0; i < PHASE_NAMES.length; i++) {
+                if (_field.equals(PHASE_NAMES[i] + PHASE_SUFFIX)) {
+                    return "" + (double) getPhaseNanos(i)
+                            / Configuration.NANOS_PER_MILLI;
+                }
+            }
+        }
+
         throw new UnknownResultFieldException("unknown result field: "
                 + _field);
     }
@@ -154,15 +226,19 @@ public class Result implements ResultInterface {
         error = err;
     }
 
+    /**
+     * Keep the response text. Samplers count the bytes received as they
+     * read them, so this does not.
+     *
+     * @param res
+     */
     public void setQueryResult(String res) {
         queryResult = res;
-        bytesReceived += res.length();
     }
 
     public void setQueryResult(String res, boolean e) {
         queryResult = res;
         error = e;
-        bytesReceived += res.length();
     }
 
     public void print() {
@@ -177,6 +253,21 @@ public class Result implements ResultInterface {
         return comment;
     }
 
+    /**
+     * @return host:port, or null if the sampler did not choose a host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @param _host
+     *            host:port
+     */
+    public void setHost(String _host) {
+        host = _host;
+    }
+
     public String getQueryResult() {
         return queryResult;
     }
@@ -230,6 +321,20 @@ public class Result implements ResultInterface {
         return bytesReceived;
     }
 
+    /**
+     * @param bytes
+     */
+    public void setBytesSent(long bytes) {
+        bytesSent = bytes;
+    }
+
+    /**
+     * @param bytes
+     */
+    public void setBytesReceived(long bytes) {
+        bytesReceived = bytes;
+    }
+
     /**
      * @param bytes
      */
@@ -244,6 +349,34 @@ public class Result implements ResultInterface {
         bytesSent += bytes;
     }
 
+    /**
+     * @param phase
+     *            one of the PHASE constants
+     * @param nanos
+     */
+    public void setPhaseNanos(int phase, long nanos) {
+        if (null == phaseNanos) {
+            phaseNanos = new long[PHASE_NAMES.length];
+        }
+        phaseNanos[phase] = nanos;
+    }
+
+    /**
+     * @param phase
+     *            one of the PHASE constants
+     * @return the time for that phase, or 0 if it did not happen
+     */
+    public long getPhaseNanos(int phase) {
+        return null == phaseNanos ? 0 : phaseNanos[phase];
+    }
+
+    /**
+     * @return true if the sampler timed each phase of the request
+     */
+    public boolean hasPhases() {
+        return null != phaseNanos;
+    }
+
     /**
      *
      */
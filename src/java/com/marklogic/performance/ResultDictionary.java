@@ -0,0 +1,85 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a small integer id to each distinct test name, comment and host,
+ * so result stores do not need to keep a copy of the strings per result.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+class ResultDictionary {
+
+    private List<String> names = new ArrayList<String>();
+
+    private List<String> comments = new ArrayList<String>();
+
+    private List<String> hosts = new ArrayList<String>();
+
+    // by name, then comment, then host: no key is built per result,
+    // and each test's strings keep their cached hash codes
+    private Map<String, Map<String, Map<String, Integer>>> ids = new HashMap<String, Map<String, Map<String, Integer>>>();
+
+    /**
+     * @param name
+     * @param comment
+     * @param host
+     * @return
+     */
+    int getId(String name, String comment, String host) {
+        Map<String, Map<String, Integer>> byComment = ids.get(name);
+        if (null == byComment) {
+            byComment = new HashMap<String, Map<String, Integer>>();
+            ids.put(name, byComment);
+        }
+        Map<String, Integer> byHost = byComment.get(comment);
+        if (null == byHost) {
+            byHost = new HashMap<String, Integer>();
+            byComment.put(comment, byHost);
+        }
+        Integer id = byHost.get(host);
+        if (null == id) {
+            id = Integer.valueOf(names.size());
+            names.add(name);
+            comments.add(comment);
+            hosts.add(host);
+            byHost.put(host, id);
+        }
+        return id.intValue();
+    }
+
+    String getName(int id) {
+        return names.get(id);
+    }
+
+    String getComment(int id) {
+        return comments.get(id);
+    }
+
+    String getHost(int id) {
+        return hosts.get(id);
+    }
+
+}
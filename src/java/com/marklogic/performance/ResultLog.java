@@ -0,0 +1,304 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Append-only, memory-mapped log of results, for runs that record every
+ * result. Each Sampler writes its own log, so there is no locking.
+ *
+ * Each record holds the test id, start and end nanos, bytes sent and
+ * received, flags, and the offset of the response text (or -1). If the
+ * phases flag is set, the time for each request phase follows. Test names
+ * and comments are stored once, in memory, and response text goes to a
+ * second file as length-prefixed UTF-8. Reporters read both files back
+ * sequentially, one Result at a time.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ResultLog implements ResultStore {
+
+    static final int RECORD_SIZE = 4 + 8 + 8 + 8 + 8 + 1 + 8;
+
+    static final int REGION_SIZE = 8 * 1024 * 1024;
+
+    static final int PHASES_SIZE = 8 * Result.PHASE_NAMES.length;
+
+    private static final byte FLAG_ERROR = 1;
+
+    private static final byte FLAG_PHASES = 2;
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Files that are still open. One shutdown hook deletes whatever is left,
+     * since File.deleteOnExit() keeps every path it is given until the JVM
+     * exits, even after the file has been deleted.
+     */
+    static final Set<File> openFiles = new HashSet<File>();
+
+    private static boolean hookAdded = false;
+
+    private File directory;
+
+    private MappedAppender records;
+
+    private MappedAppender responses;
+
+    private int count = 0;
+
+    private ResultDictionary dictionary = new ResultDictionary();
+
+    /**
+     * Files are not created until the first result is added.
+     *
+     * @param _directory
+     *            where to write the log files
+     */
+    public ResultLog(File _directory) {
+        directory = _directory;
+    }
+
+    public void add(Result res) throws IOException {
+        if (null == records) {
+            records = new MappedAppender(".results");
+            responses = new MappedAppender(".responses");
+        }
+
+        long responseOffset = -1;
+        String queryResult = res.getQueryResult();
+        if (null != queryResult) {
+            byte[] bytes = queryResult.getBytes(ENCODING);
+            responseOffset = responses.length;
+            responses.reserve(4 + bytes.length);
+            responses.buffer.putInt(bytes.length);
+            responses.buffer.put(bytes);
+        }
+
+        byte flags = res.isError() ? FLAG_ERROR : 0;
+        if (res.hasPhases()) {
+            flags |= FLAG_PHASES;
+        }
+        records.reserve(RECORD_SIZE + (res.hasPhases() ? PHASES_SIZE : 0));
+        records.buffer.putInt(dictionary.getId(res.getTestName(), res
+                .getComment(), res.getHost()));
+        records.buffer.putLong(res.getStartNanos());
+        records.buffer.putLong(res.getEndNanos());
+        records.buffer.putLong(res.getBytesSent());
+        records.buffer.putLong(res.getBytesReceived());
+        records.buffer.put(flags);
+        records.buffer.putLong(responseOffset);
+        if (res.hasPhases()) {
+            for (int i = 0; i < Result.PHASE_NAMES.length; i++) {
+                records.buffer.putLong(res.getPhaseNanos(i));
+            }
+        }
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Iterator<Result> iterator() {
+        if (null == records) {
+            return new ArrayList<Result>().iterator();
+        }
+        try {
+            return new LogIterator();
+        } catch (IOException e) {
+            throw new ResultStoreException(e);
+        }
+    }
+
+    public void close() {
+        if (null == records) {
+            return;
+        }
+        records.close();
+        responses.close();
+    }
+
+    /**
+     * Maps the file one region at a time, so it can grow without limit.
+     */
+    private class MappedAppender {
+
+        File file;
+
+        FileChannel channel;
+
+        MappedByteBuffer buffer;
+
+        long length = 0;
+
+        MappedAppender(String suffix) throws IOException {
+            file = File.createTempFile("performance-meters-", suffix,
+                    directory);
+            deleteOnExit(file);
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+
+        void reserve(int bytes) throws IOException {
+            if (null == buffer || buffer.remaining() < bytes) {
+                // drop the old region first, so it can be unmapped
+                buffer = null;
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                        length, Math.max(REGION_SIZE, bytes));
+            }
+            length += bytes;
+        }
+
+        DataInputStream open() throws IOException {
+            return new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+        }
+
+        void close() {
+            buffer = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing useful to do
+            }
+            file.delete();
+            synchronized (openFiles) {
+                openFiles.remove(file);
+            }
+        }
+    }
+
+    private static void deleteOnExit(File file) {
+        synchronized (openFiles) {
+            openFiles.add(file);
+            if (hookAdded) {
+                return;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    synchronized (openFiles) {
+                        Iterator<File> iter = openFiles.iterator();
+                        while (iter.hasNext()) {
+                            iter.next().delete();
+                        }
+                    }
+                }
+            });
+            hookAdded = true;
+        }
+    }
+
+    /**
+     * Both files were written in the same order, so both can be read
+     * sequentially.
+     */
+    private class LogIterator implements Iterator<Result> {
+
+        DataInputStream recordsIn;
+
+        DataInputStream responsesIn;
+
+        long responsesPosition = 0;
+
+        int index = 0;
+
+        LogIterator() throws IOException {
+            recordsIn = records.open();
+            responsesIn = responses.open();
+        }
+
+        public boolean hasNext() {
+            if (index < count) {
+                return true;
+            }
+            closeStreams();
+            return false;
+        }
+
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            index++;
+            try {
+                int id = recordsIn.readInt();
+                Result res = new Result(dictionary.getName(id),
+                        dictionary.getComment(id));
+                res.setHost(dictionary.getHost(id));
+                res.setStart(recordsIn.readLong());
+                res.setEnd(recordsIn.readLong());
+                long bytesSent = recordsIn.readLong();
+                long bytesReceived = recordsIn.readLong();
+                byte flags = recordsIn.readByte();
+                res.setError(FLAG_ERROR == (flags & FLAG_ERROR));
+                long responseOffset = recordsIn.readLong();
+                if (FLAG_PHASES == (flags & FLAG_PHASES)) {
+                    for (int i = 0; i < Result.PHASE_NAMES.length; i++) {
+                        res.setPhaseNanos(i, recordsIn.readLong());
+                    }
+                }
+                if (responseOffset > -1) {
+                    if (responseOffset != responsesPosition) {
+                        throw new IOException("corrupt result log: "
+                                + responseOffset + " != "
+                                + responsesPosition);
+                    }
+                    byte[] bytes = new byte[responsesIn.readInt()];
+                    responsesIn.readFully(bytes);
+                    responsesPosition += 4 + bytes.length;
+                    res.setQueryResult(new String(bytes, ENCODING));
+                }
+                res.setBytesSent(bytesSent);
+                res.setBytesReceived(bytesReceived);
+                return res;
+            } catch (IOException e) {
+                closeStreams();
+                throw new ResultStoreException(e);
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void closeStreams() {
+            try {
+                recordsIn.close();
+                responsesIn.close();
+            } catch (IOException e) {
+                // nothing useful to do
+            }
+        }
+    }
+
+}
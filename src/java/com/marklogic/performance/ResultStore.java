@@ -0,0 +1,59 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Storage for individual results, when they will be reported.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public interface ResultStore {
+
+    /**
+     * @param res
+     * @throws IOException
+     */
+    public abstract void add(Result res) throws IOException;
+
+    /**
+     * @return
+     */
+    public abstract int size();
+
+    /**
+     * Results are returned in the order they were added. Implementations
+     * may construct each Result as it is read, so callers should not keep
+     * references they do not need.
+     *
+     * @return
+     * @throws ResultStoreException
+     *             if the results cannot be read
+     */
+    public abstract Iterator<Result> iterator();
+
+    /**
+     * Release any resources, discarding the stored results.
+     */
+    public abstract void close();
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Search for the highest load that meets the latency and error-rate SLOs.
+ *
+ * Each trial is a short, ordinary run at one thread count or arrival rate.
+ * The search multiplies the load by searchStepFactor until a trial fails,
+ * then bisects between the highest passing load and the lowest failing
+ * load, until they are within searchPrecision of each other. Every trial is
+ * reported as one stage of the highest passing trial, in order of load, so
+ * that the report shows the throughput and latency curve.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class SaturationSearch {
+
+    static class Trial {
+
+        double load;
+
+        PerformanceMeters meters;
+
+        SummaryResults summary;
+
+        boolean passed;
+
+    }
+
+    private Configuration config;
+
+    private TestList tests;
+
+    private boolean rate;
+
+    private List<Trial> trials = new ArrayList<Trial>();
+
+    /**
+     * @param _config
+     * @param _tests
+     */
+    public SaturationSearch(Configuration _config, TestList _tests) {
+        config = _config;
+        tests = _tests;
+        rate = _config.isRateSearch();
+    }
+
+    /**
+     * @return the highest passing trial, or the lowest failing trial if
+     *         none passed, with every trial as one of its stages
+     * @throws Exception
+     */
+    public PerformanceMeters run() throws Exception {
+        double max = config.getSearchMax();
+        double factor = config.getSearchStepFactor();
+        Trial best = null;
+        Trial lowestFailure = null;
+        Trial trial;
+
+        // step up until a trial fails, or the maximum passes
+        double load = normalize(config.getSearchStart());
+        if (max > 0 && load > max) {
+            load = normalize(max);
+        }
+        double next;
+        int steps = 0;
+        while (true) {
+            trial = runTrial(load);
+            steps++;
+            if (!trial.passed) {
+                lowestFailure = trial;
+                break;
+            }
+            best = trial;
+            if (max > 0 && load >= max) {
+                break;
+            }
+            if (max <= 0 && steps >= Configuration.SEARCH_MAX_STEPS) {
+                // otherwise a server that always passes is searched forever
+                System.err.println("WARNING: every trial met the SLOs!\n"
+                        + "WARNING: stopping at " + describe(load)
+                        + ": set " + Configuration.SEARCH_MAX_KEY + "!");
+                break;
+            }
+            next = normalize(load * factor);
+            if (max > 0 && next > max) {
+                next = normalize(max);
+            }
+            if (next <= load) {
+                // a small factor may round back to the same thread count
+                next = load + 1;
+            }
+            load = next;
+        }
+
+        // bisect between the highest pass and the lowest failure
+        double pass = (null == best) ? 0 : best.load;
+        while (null != lowestFailure
+                && lowestFailure.load - pass > getResolution(lowestFailure.load)) {
+            load = normalize((pass + lowestFailure.load) / 2);
+            if (load <= pass || load >= lowestFailure.load) {
+                break;
+            }
+            trial = runTrial(load);
+            if (trial.passed) {
+                best = trial;
+                pass = load;
+            } else {
+                lowestFailure = trial;
+            }
+        }
+
+        Trial chosen = best;
+        if (null == chosen) {
+            System.err.println("WARNING: no trial met the SLOs!\n"
+                    + "WARNING: reporting the lowest load!");
+            chosen = lowestFailure;
+        } else {
+            PerformanceMeters.showProgress("highest load meeting the SLOs: "
+                    + describe(chosen.load));
+        }
+
+        // the curve, in order of load
+        Collections.sort(trials, new Comparator<Trial>() {
+            public int compare(Trial o1, Trial o2) {
+                return Double.compare(o1.load, o2.load);
+            }
+        });
+        for (int i = 0; i < trials.size(); i++) {
+            trial = trials.get(i);
+            chosen.meters.stageResults.add(trial.summary);
+            if (trial != chosen) {
+                trial.meters.closeResults();
+            }
+        }
+        return chosen.meters;
+    }
+
+    private Trial runTrial(double load) throws Exception {
+        PerformanceMeters.showProgress("trial: " + describe(load));
+        Trial trial = new Trial();
+        trial.load = load;
+        measure(trial);
+        trials.add(trial);
+        return trial;
+    }
+
+    /**
+     * Run one trial at its load, and decide whether it met the SLOs.
+     *
+     * @param trial
+     * @throws Exception
+     */
+    void measure(Trial trial) throws Exception {
+        double load = trial.load;
+        Properties overrides = new Properties();
+        overrides.setProperty(Configuration.TEST_TIME_KEY, ""
+                + config.getSearchTrialSeconds());
+        overrides.setProperty(Configuration.SEARCH_MODE_KEY, "");
+        overrides.setProperty(Configuration.LOAD_PROFILE_KEY, "");
+        if (rate) {
+            overrides.setProperty(Configuration.TARGET_RATE_KEY, "" + load);
+        } else {
+            overrides.setProperty("numThreads", "" + (int) load);
+        }
+        // the curve should show the SLO percentile
+        int percentile = config.getSloPercentile();
+        int[] reported = config.getReportPercentileDuration();
+        String percentiles = "" + percentile;
+        if (null != reported) {
+            for (int i = 0; i < reported.length; i++) {
+                if (reported[i] == percentile) {
+                    percentiles = null;
+                    break;
+                }
+                percentiles += "," + reported[i];
+            }
+        }
+        if (null != percentiles) {
+            overrides.setProperty("reportPercentileDuration", percentiles);
+        }
+
+        trial.meters = new PerformanceMeters(config.override(overrides));
+        trial.meters.tests = tests;
+        trial.meters.run();
+        trial.summary = trial.meters.summarize();
+        trial.passed = meetsSlo(trial.summary);
+        // only ever a stage: reportResults summarizes the chosen trial
+        // again, so the overall result keeps no stage name
+        trial.summary.setStageName(describe(load));
+        trial.summary.setSloPassed(trial.passed);
+
+        PerformanceMeters.showProgress(String.format(
+                "trial %s: %.0f tests/sec, %dth percentile %.1f ms,"
+                        + " %.2f%% errors: %s", describe(load), trial.summary
+                        .getTestsPerSecond(), percentile, trial.summary
+                        .getSloPercentileDurationMillis(percentile),
+                100 * getErrorRate(trial.summary), trial.passed ? "pass"
+                        : "fail"));
+    }
+
+    private boolean meetsSlo(SummaryResults summary) {
+        if (summary.getNumberOfTests() < 1) {
+            return false;
+        }
+        if (getErrorRate(summary) > config.getSloErrorRate()) {
+            return false;
+        }
+        double latency = config.getSloLatencyMillis();
+        return latency <= 0
+                || summary.getSloPercentileDurationMillis(config
+                        .getSloPercentile()) <= latency;
+    }
+
+    private double getErrorRate(SummaryResults summary) {
+        if (summary.getNumberOfTests() < 1) {
+            return 0;
+        }
+        return (double) summary.getNumberOfErrors()
+                / summary.getNumberOfTests();
+    }
+
+    /**
+     * @return how close the bounds must be to stop searching
+     */
+    private double getResolution(double failedLoad) {
+        double resolution = config.getSearchPrecision() * failedLoad;
+        if (rate) {
+            // otherwise a server that always fails is searched forever
+            return Math.max(resolution, config.getSearchPrecision()
+                    * config.getSearchStart());
+        }
+        return Math.max(1, resolution);
+    }
+
+    private double normalize(double load) {
+        if (rate) {
+            return load;
+        }
+        return Math.max(1, Math.round(load));
+    }
+
+    private String describe(double load) {
+        if (rate) {
+            return String.format("rate=%.1f/s", load);
+        }
+        return "threads=" + (int) load;
+    }
+
+}
@@ -19,54 +19,117 @@
 package com.marklogic.performance;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-class SharedTestIterator extends AbstractTestIterator {
+/**
+ * One pass through the tests, shared by every thread, without locks.
+ *
+ * Each pass has its own order and atomic sequence number. Threads claim
+ * tests by incrementing the sequence: values past the end of the list mean
+ * that the pass is over. A new pass replaces the old one with a single
+ * compare-and-set, so that concurrent calls to reset() start just one new
+ * pass, and next() wraps around just as it always has. A shuffle applies to
+ * the current pass if no test has been claimed yet, or else to the next
+ * pass.
+ *
+ * Unlike the old synchronized iterator, reset() does nothing until the
+ * current pass is over. Every thread calls reset() at the end of its loop,
+ * and an unconditional reset would restart the pass under every other
+ * thread.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+class SharedTestIterator implements TestIterator {
+
+    private static class Pass {
+
+        final TestOrder order;
+
+        final AtomicInteger sequence = new AtomicInteger(0);
+
+        Pass(TestOrder _order) {
+            order = _order;
+        }
+
+    }
+
+    private AtomicReference<Pass> current;
+
+    // the order for the next pass, after a late shuffle
+    private AtomicReference<TestOrder> pendingOrder = new AtomicReference<TestOrder>();
+
+    private int size;
 
     /**
      * @param _tests
      */
     SharedTestIterator(TestList _tests) {
-        super(_tests);
+        TestOrder order = _tests.getOrder();
+        size = order.size();
+        current = new AtomicReference<Pass>(new Pass(order));
     }
 
     public boolean hasNext() {
-        // TODO bottleneck for lots of threads?
-        synchronized (this) {
-            return super.hasNext();
-        }
+        return current.get().sequence.get() < size;
     }
 
     public TestInterface next() {
-        // TODO bottleneck for lots of threads?
-        synchronized (this) {
-            if (cursor >= super.tests.size()) {
-                super.reset();
+        Pass pass;
+        int i;
+        while (true) {
+            pass = current.get();
+            i = pass.sequence.getAndIncrement();
+            if (i < size) {
+                return pass.order.get(i);
+            }
+            if (0 == size) {
+                throw new IndexOutOfBoundsException("no tests");
             }
-            return super.next();
+            // the pass is over: wrap around
+            nextPass(pass);
         }
     }
 
     /*
      * (non-Javadoc)
-     * 
+     *
      * @see com.marklogic.performance.TestIterator#shuffle()
      */
     public void shuffle(Random random) {
-        // TODO bottleneck for lots of threads?
-        synchronized (this) {
-            super.shuffle(random);
+        Pass pass = current.get();
+        TestOrder order = pass.order.shuffle(random);
+        if (0 == pass.sequence.get()
+                && current.compareAndSet(pass, new Pass(order))) {
+            return;
         }
+        pendingOrder.set(order);
     }
 
-    /*
-     * (non-Javadoc)
-     * 
+    /**
+     * Start a new pass, but only if the current pass is over.
+     *
      * @see com.marklogic.performance.TestIterator#reset()
      */
     public void reset() {
-        // TODO bottleneck for lots of threads?
-        synchronized (this) {
-            super.reset();
+        Pass pass = current.get();
+        if (pass.sequence.get() >= size) {
+            // every thread that reached the end may call this,
+            // but only one new pass will start
+            nextPass(pass);
+        }
+    }
+
+    private void nextPass(Pass pass) {
+        // take the pending order in one step, so no shuffle is lost
+        TestOrder pending = pendingOrder.getAndSet(null);
+        TestOrder order = (null == pending) ? pass.order : pending;
+        if (!current.compareAndSet(pass, new Pass(order)) && null != pending) {
+            // another thread started the pass: keep the shuffle for the
+            // next one, unless there is a newer one
+            pendingOrder.compareAndSet(null, pending);
         }
     }
-}
\ No newline at end of file
+
+}
@@ -76,16 +76,21 @@ public class SpecialVariable implements XdmVariable {
     public XdmValue getValue() {
         // process special value according to whatever rules we define
         XdmValue value = null;
+        // samplers may run on virtual threads, so don't cast the thread
+        Sampler sampler = Sampler.current();
         switch (special) {
         case NAME:
-            // name of current thread
-            value = ValueFactory.newXSString(Thread.currentThread()
-                    .getName());
+            // name of current sampler, or else the current thread
+            value = ValueFactory.newXSString(null == sampler ? Thread
+                    .currentThread().getName() : sampler.getName());
             break;
         case INDEX:
             // index of current Sampler
-            // TODO: how to organize this so we know?
-            value = ValueFactory.newXSInteger(((Sampler)Thread.currentThread()).getIndex());
+            if (null == sampler) {
+                throw new UnimplementedFeatureException(
+                        "INDEX is only defined within a sampler");
+            }
+            value = ValueFactory.newXSInteger(sampler.getIndex());
             break;
         default:
             throw new UnimplementedFeatureException(
@@ -19,10 +19,11 @@
 package com.marklogic.performance;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
 
 import com.marklogic.performance.sampler.Sampler;
@@ -94,21 +95,72 @@ public class SummaryResults implements ResultInterface {
 
     private static final String NUMBER_OF_ERRORS = "number-of-errors";
 
-    private long numberOfTests = 0;
+    private static final String WARMUP_EXCLUDED = "warmup-excluded-tests";
 
-    private long numberOfErrors = 0;
+    private static final String COOLDOWN_EXCLUDED = "cooldown-excluded-tests";
 
-    long minNanos = Long.MAX_VALUE;
+    /**
+     * prefix for fields measured from intended start times
+     */
+    private static final String CORRECTED = "corrected-";
+
+    /**
+     * prefix for fields measuring how late paced tests started
+     */
+    private static final String SCHEDULING_LAG = "scheduling-lag-";
+
+    private static final String REQUESTED_TESTS_PER_SECOND = "requested-tests-per-second";
 
-    long maxNanos = Long.MIN_VALUE;
+    private static final String UNSTARTED_TESTS = "unstarted-tests";
+
+    private static final String STAGE = "stage";
+
+    private static final String SLO_PASSED = "slo-passed";
+
+    private static final String CONNECTIONS_OPENED = "connections-opened";
+
+    /**
+     * prefix for fields measuring connection setup
+     */
+    private static final String CONNECT = "connect-";
+
+    /**
+     * prefix for fields measuring waits for pooled connections
+     */
+    private static final String POOL_WAIT = "pool-wait-";
+
+    /**
+     * prefix for fields measuring one phase of each request
+     */
+    private static final String PHASE = "phase-";
+
+    /**
+     * prefix for fields measuring the client, rather than the server
+     */
+    private static final String CLIENT = "client-";
 
-    long totalNanos = 0;
+    private static final String HARNESS_MS = "harness-ms";
+
+    private static final String GC_MS = "gc-ms";
+
+    private static final String CPU_MS = "cpu-ms";
+
+    private static final String CPU_UTILIZATION = "cpu-utilization";
+
+    private static final String OVERHEAD_SHARE = "overhead-share";
+
+    private static final String CLIENT_BOUND = "bound";
 
     long durationNanos = 0;
 
-    long bytesSent = 0;
+    private boolean hasMeasurementWindow = false;
 
-    long bytesReceived = 0;
+    private long warmupExcluded = 0;
+
+    private long cooldownExcluded = 0;
+
+    // merged from the running totals of each sampler
+    private TestStatistics statistics;
 
     private Sampler[] samplers;
 
@@ -120,32 +172,138 @@ public class SummaryResults implements ResultInterface {
 
     private boolean reportStandardDeviation;
 
-    private List<Result> sortedResults;
+    private LatencyHistogram histogram;
+
+    // null unless coordinated omission correction is configured
+    private LatencyHistogram correctedHistogram = null;
+
+    // null unless exact percentiles are configured
+    private ExactPercentiles exactPercentiles = null;
+
+    // exact values for reportPercentilesArray, computed in one pass
+    private long[] exactPercentileNanos = null;
+
+    // null unless there is a target rate
+    private LatencyHistogram schedulingLagHistogram = null;
+
+    private double requestedRate = 0;
+
+    private long unstartedCount = 0;
+
+    // sorted by test name
+    private Map<String, TestStatistics> testStatistics;
+
+    // sorted by host:port, and empty for stages
+    private Map<String, TestStatistics> hostStatistics = new TreeMap<String, TestStatistics>();
+
+    // null unless this summarizes one stage of a load profile
+    private String stageName = null;
+
+    // null unless this is a saturation search trial
+    private Boolean sloPassed = null;
+
+    // null for stages, which do not measure connections
+    private ConnectionStatistics connections = null;
+
+    // by Result.PHASE_NAMES: null unless configured, and null for stages
+    private LatencyHistogram[] phaseHistograms = null;
+
+    // null for stages, which do not measure the client
+    private ClientOverhead overhead = null;
+
+    private long collectionNanos = 0;
+
+    private long runNanos = 0;
+
+    private double overheadThreshold;
+
+    // per-stage summaries, if there is a load profile
+    private List<SummaryResults> stages = new ArrayList<SummaryResults>();
 
     public SummaryResults(Configuration _config, long startNanos,
             long endNanos, Sampler[] _samplers) {
-        samplers = _samplers;
-        durationNanos = endNanos - startNanos;
+        this(_config, startNanos, endNanos, _samplers, null);
+    }
 
-        // gather min, max, avg response times
-        // gather bytes sent, received
+    /**
+     * @param _config
+     * @param startNanos
+     * @param endNanos
+     * @param _samplers
+     * @param _pacer
+     *            the source of open-loop tests, or null
+     */
+    public SummaryResults(Configuration _config, long startNanos,
+            long endNanos, Sampler[] _samplers, ArrivalPacer _pacer) {
+        samplers = _samplers;
+        hasMeasurementWindow = _config.hasMeasurementWindow();
+        if (hasMeasurementWindow) {
+            // throughput is measured over the window, not the whole run
+            long windowStart = startNanos + _config.getWarmupNanos();
+            long windowEnd = endNanos;
+            if (_config.getCooldownNanos() > 0) {
+                windowEnd = Math.min(endNanos, startNanos
+                        + _config.getTestTimeNanos()
+                        - _config.getCooldownNanos());
+            }
+            durationNanos = Math.max(0, windowEnd - windowStart);
+        } else {
+            durationNanos = endNanos - startNanos;
+        }
+        runNanos = endNanos - startNanos;
+        overhead = new ClientOverhead();
+        overheadThreshold = _config.getOverheadThreshold();
+        connections = new ConnectionStatistics(_config
+                .getHistogramSignificantDigits());
+
+        // merge the running totals of each sampler:
+        // min, max, avg, variance, bytes sent and received, errors,
+        // plus the histogram for percentiles
+        statistics = new TestStatistics(null, _config
+                .getHistogramSignificantDigits());
+        histogram = statistics.getHistogram();
+        if (_config.isCorrectedLatency()) {
+            correctedHistogram = new LatencyHistogram(_config
+                    .getHistogramSignificantDigits());
+        }
+        if (null != _pacer) {
+            schedulingLagHistogram = new LatencyHistogram(_config
+                    .getHistogramSignificantDigits());
+            requestedRate = _pacer.getRequestedRate();
+            unstartedCount = _pacer.getUnstartedCount();
+        }
+        if (_config.isReportPhases()) {
+            phaseHistograms = new LatencyHistogram[Result.PHASE_NAMES.length];
+            for (int i = 0; i < phaseHistograms.length; i++) {
+                phaseHistograms[i] = new LatencyHistogram(_config
+                        .getHistogramSignificantDigits());
+            }
+        }
+        testStatistics = new TreeMap<String, TestStatistics>();
         Sampler sampler;
-        long min, max;
         for (int i = 0; i < samplers.length; i++) {
             sampler = samplers[i];
-            numberOfTests += sampler.getResultsCount();
-            numberOfErrors += sampler.getErrorCount();
-            min = sampler.getMinDurationNanos();
-            if (min < minNanos) {
-                minNanos = min;
+            if (null != phaseHistograms) {
+                for (int j = 0; j < phaseHistograms.length; j++) {
+                    phaseHistograms[j].add(sampler.getPhaseHistograms()[j]);
+                }
+            }
+            statistics.add(sampler.getStatistics());
+            overhead.add(sampler.getClientOverhead());
+            connections.add(sampler.getConnectionStatistics());
+            warmupExcluded += sampler.getWarmupExcludedCount();
+            cooldownExcluded += sampler.getCooldownExcludedCount();
+            if (null != correctedHistogram) {
+                correctedHistogram.add(sampler.getCorrectedHistogram());
             }
-            max = sampler.getMaxDurationNanos();
-            if (max > maxNanos) {
-                maxNanos = max;
+            if (null != schedulingLagHistogram) {
+                schedulingLagHistogram.add(sampler
+                        .getSchedulingLagHistogram());
             }
-            totalNanos += sampler.getTotalNanos();
-            bytesSent += sampler.getBytesSent();
-            bytesReceived += sampler.getBytesReceived();
+            addTestStatistics(_config, sampler.getTestStatistics()
+                    .values());
+            addStatistics(_config, hostStatistics, sampler
+                    .getHostStatistics().values());
         }
 
         // gather configuration information
@@ -159,17 +317,319 @@ public class SummaryResults implements ResultInterface {
         } else {
             reportPercentilesArray = null;
         }
+
+        if (_config.isExactPercentiles()) {
+            DurationArray[] runs = new DurationArray[samplers.length];
+            for (int i = 0; i < samplers.length; i++) {
+                runs[i] = samplers[i].getDurations();
+            }
+            exactPercentiles = new ExactPercentiles(runs);
+            if (null != reportPercentilesArray) {
+                double[] percentiles = new double[reportPercentilesArray.length];
+                for (int i = 0; i < percentiles.length; i++) {
+                    percentiles[i] = reportPercentilesArray[i];
+                }
+                exactPercentileNanos = exactPercentiles
+                        .getValuesAtPercentiles(percentiles);
+            }
+        }
     }
 
-    private void loadSortedResults() {
-        sortedResults = new ArrayList<Result>();
-        for (int i = 0; i < samplers.length; i++) {
-            // results are a List of Test objects
-            sortedResults.addAll(samplers[i].getResults());
+    /**
+     * Summarize one stage of a load profile, from the statistics that the
+     * samplers recorded during that stage.
+     *
+     * @param _config
+     * @param _stage
+     * @param _durationNanos
+     * @param _threads
+     *            the most threads that were running during the stage
+     * @param _samplers
+     * @param _totals
+     * @param _byName
+     */
+    public SummaryResults(Configuration _config, LoadProfile.Stage _stage,
+            long _durationNanos, int _threads, Sampler[] _samplers,
+            TestStatistics _totals, Collection<TestStatistics> _byName) {
+        stageName = _stage.getDescription();
+        samplers = _samplers;
+        durationNanos = _durationNanos;
+        numberOfThreads = _threads;
+        statistics = _totals;
+        histogram = statistics.getHistogram();
+        testStatistics = new TreeMap<String, TestStatistics>();
+        addTestStatistics(_config, _byName);
+        if (_config.isTargetRate()) {
+            requestedRate = (_stage.getStartLoad() + _stage.getEndLoad()) / 2;
+        }
+        reportStandardDeviation = _config.isReportStandardDeviation();
+        if (_config.hasReportPercentileDuration()) {
+            reportPercentilesArray = _config
+                    .getReportPercentileDuration();
+        } else {
+            reportPercentilesArray = null;
+        }
+    }
+
+    /**
+     * @param _stage
+     */
+    public void addStage(SummaryResults _stage) {
+        stages.add(_stage);
+    }
+
+    /**
+     * @return per-stage summaries, in order, or an empty list if there is
+     *         no load profile
+     */
+    public List<SummaryResults> getStages() {
+        return stages;
+    }
+
+    /**
+     * @return the stage that this summarizes, or null for the whole run
+     */
+    public String getStageName() {
+        return stageName;
+    }
+
+    /**
+     * Label this summary as one stage of a longer run, such as one trial
+     * of a saturation search.
+     *
+     * @param _stageName
+     */
+    public void setStageName(String _stageName) {
+        stageName = _stageName;
+        fields = null;
+    }
+
+    /**
+     * @param _passed
+     *            true if this trial met the SLOs
+     */
+    public void setSloPassed(boolean _passed) {
+        sloPassed = Boolean.valueOf(_passed);
+        fields = null;
+    }
+
+    /**
+     * @return the latency at the SLO percentile, from intended start times
+     *         if those were recorded
+     */
+    public double getSloPercentileDurationMillis(int percentile) {
+        if (null != correctedHistogram) {
+            return getCorrectedPercentileDurationMillis(percentile);
+        }
+        return getPercentileDurationMillis(percentile);
+    }
+
+    /**
+     * @param _collectionNanos
+     *            garbage collection time during the run
+     */
+    public void setCollectionNanos(long _collectionNanos) {
+        collectionNanos = _collectionNanos;
+    }
+
+    /**
+     * @return the number of connections that samplers opened, or 0 if they
+     *         do not report connections
+     */
+    public long getConnectionsOpened() {
+        return null == connections ? 0 : connections.getOpenedCount();
+    }
+
+    /**
+     * @return connection setup times, or null
+     */
+    public LatencyHistogram getConnectHistogram() {
+        return null == connections ? null : connections
+                .getConnectHistogram();
+    }
+
+    /**
+     * @return pool wait times, or null
+     */
+    public LatencyHistogram getPoolWaitHistogram() {
+        return null == connections ? null : connections.getWaitHistogram();
+    }
+
+    /**
+     * @return true if samplers waited for a connection pool with a size
+     *         limit
+     */
+    public boolean hasPoolWaitHistogram() {
+        return null != connections
+                && connections.getWaitHistogram().getTotalCount() > 0;
+    }
+
+    /**
+     * @param phase
+     *            one of the Result.PHASE constants
+     * @return times for that phase, or null
+     */
+    public LatencyHistogram getPhaseHistogram(int phase) {
+        return null == phaseHistograms ? null : phaseHistograms[phase];
+    }
+
+    /**
+     * @return true if any test was timed phase by phase
+     */
+    public boolean hasPhaseHistograms() {
+        return null != phaseHistograms
+                && phaseHistograms[Result.PHASE_BODY].getTotalCount() > 0;
+    }
+
+    /**
+     * @return true if client overhead was measured
+     */
+    public boolean hasClientOverhead() {
+        return null != overhead;
+    }
+
+    /**
+     * @return time spent in the harness, summed over sampler threads
+     */
+    public double getHarnessMillis() {
+        return (double) overhead.getTotalNanos()
+                / Configuration.NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return garbage collection time during the run
+     */
+    public double getCollectionMillis() {
+        return (double) collectionNanos / Configuration.NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return CPU time, summed over sampler threads that could report it
+     */
+    public double getCpuMillis() {
+        return (double) overhead.getCpuNanos()
+                / Configuration.NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return sampler CPU time, as a share of every processor for the
+     *         whole run
+     */
+    public double getCpuUtilization() {
+        if (0 == runNanos) {
+            return 0;
+        }
+        return (double) overhead.getCpuNanos()
+                / (runNanos * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the harness share of sampler wall time, plus the share of
+     *         the run that was paused for garbage collection
+     */
+    public double getOverheadShare() {
+        if (0 == runNanos) {
+            return 0;
+        }
+        return overhead.getShare() + (double) collectionNanos / runNanos;
+    }
+
+    /**
+     * @return true if client overhead exceeded the threshold, or the
+     *         samplers kept the client processors nearly busy
+     */
+    public boolean isClientBound() {
+        if (null == overhead) {
+            return false;
         }
+        return getOverheadShare() > overheadThreshold
+                || getCpuUtilization() > 1 - overheadThreshold;
+    }
+
+    private void addTestStatistics(Configuration _config,
+            Collection<TestStatistics> _stats) {
+        addStatistics(_config, testStatistics, _stats);
+    }
+
+    private void addStatistics(Configuration _config,
+            Map<String, TestStatistics> _merged,
+            Collection<TestStatistics> _stats) {
+        Iterator<TestStatistics> iter = _stats.iterator();
+        TestStatistics stats, merged;
+        while (iter.hasNext()) {
+            stats = iter.next();
+            merged = _merged.get(stats.getName());
+            if (null == merged) {
+                merged = new TestStatistics(stats.getName(), _config
+                        .getHistogramSignificantDigits());
+                _merged.put(stats.getName(), merged);
+            }
+            merged.add(stats);
+        }
+    }
 
-        Comparator<Result> c = new ResultDurationComparator();
-        Collections.sort(sortedResults, c);
+    /**
+     * @return per-test-name statistics, sorted by name
+     */
+    public Collection<TestStatistics> getTestStatistics() {
+        return testStatistics.values();
+    }
+
+    /**
+     * @return field names for each entry in getTestStatistics()
+     */
+    public String[] getTestStatisticsFieldNames() {
+        return TestStatistics
+                .getFieldNames(null == reportPercentilesArray ? TestStatistics.DEFAULT_PERCENTILES
+                        : reportPercentilesArray);
+    }
+
+    /**
+     * @return true if tests ran against more than one host
+     */
+    public boolean hasHostStatistics() {
+        return hostStatistics.size() > 1;
+    }
+
+    /**
+     * @return per-host statistics, sorted by host:port
+     */
+    public Collection<TestStatistics> getHostStatistics() {
+        return hostStatistics.values();
+    }
+
+    /**
+     * @return field names for each entry in getHostStatistics()
+     */
+    public String[] getHostStatisticsFieldNames() {
+        String[] fields = getTestStatisticsFieldNames();
+        String[] hostFields = new String[fields.length + 1];
+        System.arraycopy(fields, 0, hostFields, 0, fields.length);
+        hostFields[fields.length] = TESTS_PER_SECOND;
+        return hostFields;
+    }
+
+    /**
+     * @param _stats
+     *            one entry from getHostStatistics()
+     * @param _field
+     * @return
+     * @throws UnknownResultFieldException
+     */
+    public String getHostFieldValue(TestStatistics _stats, String _field)
+            throws UnknownResultFieldException {
+        if (_field.equals(TESTS_PER_SECOND))
+            return "" + getTestsPerSecond(_stats);
+        return _stats.getFieldValue(_field);
+    }
+
+    /**
+     * @param _stats
+     * @return throughput for part of the run, such as one host
+     */
+    public double getTestsPerSecond(TestStatistics _stats) {
+        return (double) _stats.getNumberOfTests()
+                * Configuration.NANOS_PER_SECOND / durationNanos;
     }
 
     /**
@@ -186,25 +646,19 @@ public class SummaryResults implements ResultInterface {
         if (samplers.length < 1)
             return 0;
 
-        if (sortedResults == null) {
-            loadSortedResults();
-            // DEBUG
-            // Iterator<Result> iter = sortedResults.iterator();
-            // while (iter.hasNext()) {
-            // System.err.println("DEBUG: sorted = "
-            // + iter.next().getDurationNanos());
-            // }
+        if (null != exactPercentiles) {
+            if (null != exactPercentileNanos) {
+                for (int i = 0; i < reportPercentilesArray.length; i++) {
+                    if (percentile == reportPercentilesArray[i]) {
+                        return exactPercentileNanos[i];
+                    }
+                }
+            }
+            return exactPercentiles.getValueAtPercentile(percentile);
         }
 
-        double size = sortedResults.size();
-
-        int pidx = (int) (percentile * size * .01);
-        if (pidx > size - 1) {
-            pidx = (int) (size - 1);
-        }
-        // System.err.println("DEBUG: percentile=" + percentile + ", size="
-        // + size + ", pidx=" + pidx);
-        return sortedResults.get(pidx).getDurationNanos();
+        // accurate to histogramSignificantDigits
+        return histogram.getValueAtPercentile(percentile);
     }
 
     public double getPercentileDurationMillis(int percentile) {
@@ -221,19 +675,8 @@ public class SummaryResults implements ResultInterface {
             return 0;
         }
 
-        if (sortedResults == null) {
-            loadSortedResults();
-        }
-
-        // iterate through the results from all the results
-        Iterator<Result> iter = sortedResults.iterator();
-        double sumOfSquares = 0;
-        double avgNanos = getAvgNanos();
-        while (iter.hasNext()) {
-            sumOfSquares += Math.pow(iter.next().getDurationNanos()
-                    - avgNanos, 2);
-        }
-        return Math.sqrt(sumOfSquares / getNumberOfTests());
+        // exact, from the online variance of each sampler
+        return statistics.getStandardDeviationNanos();
     }
 
     public double getStandardDeviationMillis() {
@@ -245,6 +688,12 @@ public class SummaryResults implements ResultInterface {
     public String[] getFieldNames() {
         if (fields == null) {
             List<String> fieldsList = new Vector<String>();
+            if (null != stageName) {
+                fieldsList.add(STAGE);
+            }
+            if (null != sloPassed) {
+                fieldsList.add(SLO_PASSED);
+            }
             fieldsList.add(NUMBER_OF_TESTS);
             fieldsList.add(NUMBER_OF_ERRORS);
             fieldsList.add(NUMBER_OF_THREADS);
@@ -266,11 +715,65 @@ public class SummaryResults implements ResultInterface {
             if (reportStandardDeviation) {
                 fieldsList.add(STANDARD_DEVIATION);
             }
+            if (hasMeasurementWindow) {
+                fieldsList.add(WARMUP_EXCLUDED);
+                fieldsList.add(COOLDOWN_EXCLUDED);
+            }
+            if (null != correctedHistogram) {
+                addHistogramFieldNames(fieldsList, CORRECTED);
+            }
+            if (null != stageName && requestedRate > 0
+                    && null == schedulingLagHistogram) {
+                // a paced summary reports the requested rate below
+                fieldsList.add(REQUESTED_TESTS_PER_SECOND);
+            }
+            if (null != schedulingLagHistogram) {
+                fieldsList.add(REQUESTED_TESTS_PER_SECOND);
+                fieldsList.add(UNSTARTED_TESTS);
+                addHistogramFieldNames(fieldsList, SCHEDULING_LAG);
+            }
+            if (getConnectionsOpened() > 0) {
+                fieldsList.add(CONNECTIONS_OPENED);
+                addHistogramFieldNames(fieldsList, CONNECT);
+            }
+            if (hasPoolWaitHistogram()) {
+                addHistogramFieldNames(fieldsList, POOL_WAIT);
+            }
+            if (hasPhaseHistograms()) {
+                for (int i = 0; i < Result.PHASE_NAMES.length; i++) {
+                    addHistogramFieldNames(fieldsList, PHASE
+                            + Result.PHASE_NAMES[i] + "-");
+                }
+            }
+            if (null != overhead) {
+                fieldsList.add(CLIENT + HARNESS_MS);
+                for (int i = 0; i < ClientOverhead.CATEGORY_NAMES.length; i++) {
+                    fieldsList.add(CLIENT + ClientOverhead.CATEGORY_NAMES[i]
+                            + "-ms");
+                }
+                fieldsList.add(CLIENT + GC_MS);
+                fieldsList.add(CLIENT + CPU_MS);
+                fieldsList.add(CLIENT + CPU_UTILIZATION);
+                fieldsList.add(CLIENT + OVERHEAD_SHARE);
+                fieldsList.add(CLIENT + CLIENT_BOUND);
+            }
             fields = fieldsList.toArray(new String[0]);
         }
         return fields;
     }
 
+    private void addHistogramFieldNames(List<String> fieldsList,
+            String prefix) {
+        fieldsList.add(prefix + MAXIMUM_MS);
+        fieldsList.add(prefix + AVERAGE_MS);
+        if (reportPercentilesArray != null) {
+            for (int i = 0; i < reportPercentilesArray.length; i++) {
+                fieldsList.add(prefix + PERCENTILE_DURATION
+                        + reportPercentilesArray[i]);
+            }
+        }
+    }
+
     /**
      * @param _field
      * @return
@@ -279,6 +782,55 @@ public class SummaryResults implements ResultInterface {
     public String getFieldValue(String _field)
             throws UnknownResultFieldException {
         // TODO change data structure to hash, to simplify this code?
+        if (_field.startsWith(CORRECTED)) {
+            return getHistogramFieldValue(correctedHistogram, CORRECTED,
+                    _field);
+        }
+
+        if (_field.startsWith(SCHEDULING_LAG)) {
+            return getHistogramFieldValue(schedulingLagHistogram,
+                    SCHEDULING_LAG, _field);
+        }
+
+        if (_field.equals(CONNECTIONS_OPENED))
+            return "" + getConnectionsOpened();
+
+        if (_field.startsWith(CONNECT)) {
+            return getHistogramFieldValue(getConnectHistogram(), CONNECT,
+                    _field);
+        }
+
+        if (_field.startsWith(POOL_WAIT)) {
+            return getHistogramFieldValue(getPoolWaitHistogram(),
+                    POOL_WAIT, _field);
+        }
+
+        if (_field.startsWith(PHASE)) {
+            for (int i = 0; i < Result.PHASE_NAMES.length; i++) {
+                String prefix = PHASE + Result.PHASE_NAMES[i] + "-";
+                if (_field.startsWith(prefix)) {
+                    return getHistogramFieldValue(getPhaseHistogram(i),
+                            prefix, _field);
+                }
+            }
+        }
+
+        if (_field.startsWith(CLIENT)) {
+            return getClientFieldValue(_field);
+        }
+
+        if (_field.equals(STAGE))
+            return stageName;
+
+        if (_field.equals(SLO_PASSED))
+            return "" + sloPassed;
+
+        if (_field.equals(REQUESTED_TESTS_PER_SECOND))
+            return "" + getRequestedTestsPerSecond();
+
+        if (_field.equals(UNSTARTED_TESTS))
+            return "" + getUnstartedCount();
+
         if (_field.equals(NUMBER_OF_TESTS))
             return "" + getNumberOfTests();
 
@@ -321,6 +873,12 @@ public class SummaryResults implements ResultInterface {
             return "" + getPercentileDurationMillis(percentile);
         }
 
+        if (_field.equals(WARMUP_EXCLUDED))
+            return "" + getWarmupExcludedCount();
+
+        if (_field.equals(COOLDOWN_EXCLUDED))
+            return "" + getCooldownExcludedCount();
+
         if (_field.startsWith(STANDARD_DEVIATION)) {
             return "" + getStandardDeviationMillis();
         }
@@ -329,6 +887,146 @@ public class SummaryResults implements ResultInterface {
                 + _field);
     }
 
+    private String getClientFieldValue(String _field)
+            throws UnknownResultFieldException {
+        if (null == overhead) {
+            throw new UnknownResultFieldException("not measured: " + _field);
+        }
+        String suffix = _field.substring(CLIENT.length());
+
+        if (suffix.equals(HARNESS_MS))
+            return "" + getHarnessMillis();
+
+        if (suffix.equals(GC_MS))
+            return "" + getCollectionMillis();
+
+        if (suffix.equals(CPU_MS))
+            return "" + getCpuMillis();
+
+        if (suffix.equals(CPU_UTILIZATION))
+            return "" + getCpuUtilization();
+
+        if (suffix.equals(OVERHEAD_SHARE))
+            return "" + getOverheadShare();
+
+        if (suffix.equals(CLIENT_BOUND))
+            return "" + isClientBound();
+
+        for (int i = 0; i < ClientOverhead.CATEGORY_NAMES.length; i++) {
+            if (suffix.equals(ClientOverhead.CATEGORY_NAMES[i] + "-ms")) {
+                return "" + (double) overhead.getNanos(i)
+                        / Configuration.NANOS_PER_MILLI;
+            }
+        }
+
+        throw new UnknownResultFieldException("unknown result field: "
+                + _field);
+    }
+
+    private String getHistogramFieldValue(LatencyHistogram _histogram,
+            String prefix, String _field) throws UnknownResultFieldException {
+        if (null == _histogram) {
+            throw new UnknownResultFieldException("not configured: "
+                    + _field);
+        }
+        String suffix = _field.substring(prefix.length());
+
+        if (suffix.equals(MAXIMUM_MS))
+            return "" + (double) _histogram.getMaxValue()
+                    / Configuration.NANOS_PER_MILLI;
+
+        if (suffix.equals(AVERAGE_MS))
+            return "" + _histogram.getMean() / Configuration.NANOS_PER_MILLI;
+
+        if (suffix.startsWith(PERCENTILE_DURATION)) {
+            int percentile = java.lang.Integer.parseInt(suffix
+                    .replaceFirst(PERCENTILE_DURATION + "(\\d+)$", "$1"));
+            return "" + (double) _histogram.getValueAtPercentile(percentile)
+                    / Configuration.NANOS_PER_MILLI;
+        }
+
+        throw new UnknownResultFieldException("unknown result field: "
+                + _field);
+    }
+
+    /**
+     * @return true if tests arrived at a target rate
+     */
+    public boolean hasSchedulingLagHistogram() {
+        return null != schedulingLagHistogram;
+    }
+
+    /**
+     * @return how late each paced test started, or null
+     */
+    public LatencyHistogram getSchedulingLagHistogram() {
+        return schedulingLagHistogram;
+    }
+
+    /**
+     * @return the configured arrival rate, to compare with
+     *         getTestsPerSecond()
+     */
+    public double getRequestedTestsPerSecond() {
+        return requestedRate;
+    }
+
+    /**
+     * @return paced tests that were still queued at the end of the run
+     */
+    public long getUnstartedCount() {
+        return unstartedCount;
+    }
+
+    /**
+     * @return true if warm-up or cool-down samples were excluded
+     */
+    public boolean hasMeasurementWindow() {
+        return hasMeasurementWindow;
+    }
+
+    /**
+     * @return tests that were run, but started during the warm-up period
+     */
+    public long getWarmupExcludedCount() {
+        return warmupExcluded;
+    }
+
+    /**
+     * @return tests that were run, but ended during the cool-down period
+     */
+    public long getCooldownExcludedCount() {
+        return cooldownExcluded;
+    }
+
+    /**
+     * @return true if durations from intended start times were recorded
+     */
+    public boolean hasCorrectedHistogram() {
+        return null != correctedHistogram;
+    }
+
+    /**
+     * @return durations from intended start times, or null
+     */
+    public LatencyHistogram getCorrectedHistogram() {
+        return correctedHistogram;
+    }
+
+    public double getCorrectedPercentileDurationMillis(int percentile) {
+        return (double) correctedHistogram.getValueAtPercentile(percentile)
+                / Configuration.NANOS_PER_MILLI;
+    }
+
+    public double getCorrectedMaxMillis() {
+        return (double) correctedHistogram.getMaxValue()
+                / Configuration.NANOS_PER_MILLI;
+    }
+
+    public double getCorrectedAvgMillis() {
+        return correctedHistogram.getMean() / Configuration.NANOS_PER_MILLI;
+    }
+
     /**
      * @return
      */
@@ -337,7 +1035,7 @@ public class SummaryResults implements ResultInterface {
     }
 
     public double getAvgNanos() {
-        return (double) totalNanos / numberOfTests;
+        return (double) getTotalNanos() / getNumberOfTests();
     }
 
     public double getAvgMillis() {
@@ -345,11 +1043,11 @@ public class SummaryResults implements ResultInterface {
     }
 
     public long getBytesReceived() {
-        return bytesReceived;
+        return statistics.getBytesReceived();
     }
 
     public long getBytesSent() {
-        return bytesSent;
+        return statistics.getBytesSent();
     }
 
     public long getDurationNanos() {
@@ -361,32 +1059,32 @@ public class SummaryResults implements ResultInterface {
     }
 
     public long getMaxNanos() {
-        return maxNanos;
+        return statistics.getMaxNanos();
     }
 
     public double getMaxMillis() {
-        return (double) maxNanos / Configuration.NANOS_PER_MILLI;
+        return (double) getMaxNanos() / Configuration.NANOS_PER_MILLI;
     }
 
     public long getMinNanos() {
-        return minNanos;
+        return statistics.getMinNanos();
     }
 
     public double getMinMillis() {
-        return (double) minNanos / Configuration.NANOS_PER_MILLI;
+        return (double) getMinNanos() / Configuration.NANOS_PER_MILLI;
     }
 
     public long getNumberOfTests() {
-        return numberOfTests;
+        return statistics.getNumberOfTests();
     }
 
     public double getTestsPerSecond() {
-        return (double) numberOfTests * Configuration.NANOS_PER_SECOND
+        return (double) getNumberOfTests() * Configuration.NANOS_PER_SECOND
                 / durationNanos;
     }
 
     public long getTotalNanos() {
-        return totalNanos;
+        return statistics.getTotalNanos();
     }
 
     public double getTotalMillis() {
@@ -394,12 +1092,20 @@ public class SummaryResults implements ResultInterface {
     }
 
     public double getBytesPerSecond() {
-        double bytes = (double) bytesSent + (double) bytesReceived;
+        double bytes = (double) getBytesSent()
+                + (double) getBytesReceived();
         double secs = (double) durationNanos
                 / (double) Configuration.NANOS_PER_SECOND;
         return bytes / secs;
     }
 
+    /**
+     * @return the merged histogram of all sample durations
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
     /**
      * @return
      */
@@ -411,7 +1117,7 @@ public class SummaryResults implements ResultInterface {
      * @return
      */
     public long getNumberOfErrors() {
-        return numberOfErrors;
+        return statistics.getNumberOfErrors();
     }
 
 }
\ No newline at end of file
@@ -19,11 +19,13 @@
 package com.marklogic.performance;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
 /**
+ * Distinct tests, each with a weight. The list behaves as if each test
+ * were repeated as many times as its weight, without the copies.
+ *
  * @author Michael Blakeley, michael.blakeley@marklogic.com
  *
  */
@@ -31,6 +33,12 @@ public abstract class TestList {
 
     List<AbstractTest> tests = new ArrayList<AbstractTest>();
 
+    // parallel to tests: any missing weights are 1
+    List<Integer> weights = new ArrayList<Integer>();
+
+    // built on first use, and replaced by each shuffle
+    private volatile TestOrder order = null;
+
     protected Configuration configuration;
 
     /**
@@ -41,25 +49,94 @@ public abstract class TestList {
     }
 
     /**
-     * @return
+     * @param test
+     * @param weight
+     */
+    protected void add(AbstractTest test, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive: "
+                    + test.getName() + " " + weight);
+        }
+        while (weights.size() < tests.size()) {
+            weights.add(1);
+        }
+        tests.add(test);
+        weights.add(weight);
+        order = null;
+    }
+
+    /**
+     * @return the total weight of all the tests
      */
     public int size() {
-        return tests.size();
+        return getOrder().size();
     }
 
     /**
      * @param i
+     *            less than size()
      * @return
      */
     public TestInterface get(int i) {
+        return getOrder().get(i);
+    }
+
+    /**
+     * @return the number of distinct tests
+     */
+    public int getDistinctCount() {
+        return tests.size();
+    }
+
+    /**
+     * @param i
+     *            less than getDistinctCount()
+     * @return
+     */
+    public TestInterface getDistinct(int i) {
         return tests.get(i);
     }
 
+    /**
+     * @param i
+     *            less than getDistinctCount()
+     * @return
+     */
+    public int getWeight(int i) {
+        return i < weights.size() ? weights.get(i).intValue() : 1;
+    }
+
     /**
      * @param random
      */
     public void shuffle(Random random) {
-        Collections.shuffle(tests, random);
+        order = getOrder().shuffle(random);
+    }
+
+    /**
+     * @return the current order, which never changes
+     */
+    TestOrder getOrder() {
+        TestOrder current = order;
+        if (null == current) {
+            current = newOrder();
+            order = current;
+        }
+        return current;
+    }
+
+    /**
+     * @return a new order, from the distinct tests and their weights
+     */
+    TestOrder newOrder() {
+        int count = getDistinctCount();
+        TestInterface[] distinct = new TestInterface[count];
+        long[] weight = new long[count];
+        for (int i = 0; i < count; i++) {
+            distinct[i] = getDistinct(i);
+            weight[i] = getWeight(i);
+        }
+        return new TestOrder(distinct, weight);
     }
 
 }
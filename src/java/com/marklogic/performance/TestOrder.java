@@ -0,0 +1,160 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * One ordering of a weighted test list, which never changes once built, so
+ * that any number of threads can read it without locks.
+ *
+ * A pass has one slot per unit of weight, but memory only grows with the
+ * number of distinct tests. In list order, each test fills as many
+ * consecutive slots as its weight. Shuffled, unweighted lists are permuted,
+ * and weighted lists draw each slot from an alias table, using a hash of
+ * the slot and a per-shuffle seed, so that each test appears in proportion
+ * to its weight.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+class TestOrder {
+
+    private TestInterface[] tests;
+
+    // running totals of the weights, or null if every weight is 1
+    private long[] cumulative;
+
+    private AliasTable alias;
+
+    private int size;
+
+    private boolean shuffled = false;
+
+    private long seed;
+
+    /**
+     * @param _tests
+     *            distinct tests
+     * @param _weights
+     *            for each test
+     */
+    TestOrder(TestInterface[] _tests, long[] _weights) {
+        tests = _tests;
+        long total = 0;
+        boolean weighted = false;
+        for (int i = 0; i < _weights.length; i++) {
+            if (_weights[i] < 1) {
+                throw new IllegalArgumentException("weight must be positive: "
+                        + _tests[i].getName());
+            }
+            total += _weights[i];
+            weighted = weighted || 1 != _weights[i];
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("total weight is too large: "
+                    + total);
+        }
+        size = (int) total;
+        if (weighted) {
+            cumulative = new long[_weights.length];
+            total = 0;
+            for (int i = 0; i < _weights.length; i++) {
+                total += _weights[i];
+                cumulative[i] = total;
+            }
+            alias = new AliasTable(_weights);
+        }
+    }
+
+    private TestOrder(TestOrder _order, long _seed) {
+        tests = _order.tests;
+        cumulative = _order.cumulative;
+        alias = _order.alias;
+        size = _order.size;
+        shuffled = true;
+        seed = _seed;
+    }
+
+    /**
+     * @return the number of slots in a pass
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param slot
+     * @return the test in that slot
+     */
+    TestInterface get(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("slot " + slot + " of "
+                    + size);
+        }
+        if (null == cumulative) {
+            return tests[slot];
+        }
+        if (shuffled) {
+            return tests[alias.pick(mix(seed + slot))];
+        }
+        // the first test whose running total is past the slot
+        int low = 0, high = cumulative.length - 1, middle;
+        while (low < high) {
+            middle = (low + high) >>> 1;
+            if (cumulative[middle] > slot) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return tests[low];
+    }
+
+    /**
+     * @param random
+     * @return a new, shuffled order
+     */
+    TestOrder shuffle(Random random) {
+        if (null == cumulative) {
+            TestInterface[] copy = tests.clone();
+            Collections.shuffle(Arrays.asList(copy), random);
+            return new TestOrder(copy, ones(copy.length));
+        }
+        return new TestOrder(this, random.nextLong());
+    }
+
+    private static long[] ones(int length) {
+        long[] weights = new long[length];
+        Arrays.fill(weights, 1);
+        return weights;
+    }
+
+    /**
+     * @return well-mixed bits, from the SplitMix64 finalizer
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Aggregate statistics for a group of results, such as all the results for
+ * one test name. Results are folded in as they complete, so no individual
+ * results need to be kept.
+ *
+ * Instances are not synchronized: each Sampler records into its own, and
+ * SummaryResults merges them after the run.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class TestStatistics implements ResultInterface {
+
+    /**
+     * used when reportPercentileDuration is not set
+     */
+    public static final int[] DEFAULT_PERCENTILES = new int[] { 50, 95,
+            99 };
+
+    private static final String NAME = "name";
+
+    private static final String NUMBER_OF_TESTS = "number-of-tests";
+
+    private static final String NUMBER_OF_ERRORS = "number-of-errors";
+
+    private static final String MINIMUM_MS = "minimum-ms";
+
+    private static final String MAXIMUM_MS = "maximum-ms";
+
+    private static final String AVERAGE_MS = "average-ms";
+
+    /**
+     * actual number will be appended to the field name
+     */
+    private static final String PERCENTILE_DURATION = "percentile-duration-";
+
+    private static final String TOTAL_BYTES_SENT = "total-bytes-sent";
+
+    private static final String TOTAL_BYTES_RECEIVED = "total-bytes-received";
+
+    private String name;
+
+    private LatencyHistogram histogram;
+
+    private long numberOfErrors = 0;
+
+    private long bytesSent = 0;
+
+    private long bytesReceived = 0;
+
+    // Welford's online mean and sum of squared deviations, in nanoseconds
+    private double mean = 0;
+
+    private double sumOfSquares = 0;
+
+    /**
+     * @param _name
+     * @param _significantDigits
+     */
+    public TestStatistics(String _name, int _significantDigits) {
+        name = _name;
+        histogram = new LatencyHistogram(_significantDigits);
+    }
+
+    /**
+     * @param res
+     */
+    public void record(Result res) {
+        long duration = res.getDurationNanos();
+        histogram.recordValue(duration);
+        // the histogram count already includes this sample
+        double delta = duration - mean;
+        mean += delta / histogram.getTotalCount();
+        sumOfSquares += delta * (duration - mean);
+        bytesSent += res.getBytesSent();
+        bytesReceived += res.getBytesReceived();
+        if (res.isError()) {
+            numberOfErrors++;
+        }
+    }
+
+    /**
+     * @param other
+     */
+    public void add(TestStatistics other) {
+        // Chan et al. pairwise combination of the online variance
+        long count = histogram.getTotalCount();
+        long otherCount = other.histogram.getTotalCount();
+        if (otherCount > 0) {
+            long combined = count + otherCount;
+            double delta = other.mean - mean;
+            mean += delta * otherCount / combined;
+            sumOfSquares += other.sumOfSquares + delta * delta * count
+                    * otherCount / combined;
+        }
+        histogram.add(other.histogram);
+        numberOfErrors += other.numberOfErrors;
+        bytesSent += other.bytesSent;
+        bytesReceived += other.bytesReceived;
+    }
+
+    /**
+     *
+     */
+    public void reset() {
+        histogram.reset();
+        mean = 0;
+        sumOfSquares = 0;
+        numberOfErrors = 0;
+        bytesSent = 0;
+        bytesReceived = 0;
+    }
+
+    /**
+     * @param percentiles
+     * @return
+     */
+    public static String[] getFieldNames(int[] percentiles) {
+        List<String> fieldsList = new Vector<String>();
+        fieldsList.add(NAME);
+        fieldsList.add(NUMBER_OF_TESTS);
+        fieldsList.add(NUMBER_OF_ERRORS);
+        fieldsList.add(MINIMUM_MS);
+        fieldsList.add(MAXIMUM_MS);
+        fieldsList.add(AVERAGE_MS);
+        for (int i = 0; i < percentiles.length; i++) {
+            fieldsList.add(PERCENTILE_DURATION + percentiles[i]);
+        }
+        fieldsList.add(TOTAL_BYTES_SENT);
+        fieldsList.add(TOTAL_BYTES_RECEIVED);
+        return fieldsList.toArray(new String[0]);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.marklogic.performance.ResultInterface#getFieldValue(java.lang.String)
+     */
+    public String getFieldValue(String _field)
+            throws UnknownResultFieldException {
+        if (_field.equals(NAME))
+            return getName();
+
+        if (_field.equals(NUMBER_OF_TESTS))
+            return "" + getNumberOfTests();
+
+        if (_field.equals(NUMBER_OF_ERRORS))
+            return "" + getNumberOfErrors();
+
+        if (_field.equals(MINIMUM_MS))
+            return "" + getMinMillis();
+
+        if (_field.equals(MAXIMUM_MS))
+            return "" + getMaxMillis();
+
+        if (_field.equals(AVERAGE_MS))
+            return "" + getAvgMillis();
+
+        if (_field.equals(TOTAL_BYTES_SENT))
+            return "" + getBytesSent();
+
+        if (_field.equals(TOTAL_BYTES_RECEIVED))
+            return "" + getBytesReceived();
+
+        if (_field.startsWith(PERCENTILE_DURATION)) {
+            int percentile = java.lang.Integer.parseInt(_field
+                    .replaceFirst(PERCENTILE_DURATION + "(\\d+)$", "$1"));
+            return "" + getPercentileDurationMillis(percentile);
+        }
+
+        throw new UnknownResultFieldException("unknown result field: "
+                + _field);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    public long getNumberOfTests() {
+        return histogram.getTotalCount();
+    }
+
+    public long getNumberOfErrors() {
+        return numberOfErrors;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getMinNanos() {
+        return histogram.getMinValue();
+    }
+
+    public long getMaxNanos() {
+        return histogram.getMaxValue();
+    }
+
+    public long getTotalNanos() {
+        return histogram.getTotalValue();
+    }
+
+    public double getMinMillis() {
+        return (double) getMinNanos() / Configuration.NANOS_PER_MILLI;
+    }
+
+    public double getMaxMillis() {
+        return (double) getMaxNanos() / Configuration.NANOS_PER_MILLI;
+    }
+
+    public double getAvgMillis() {
+        return histogram.getMean() / Configuration.NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the population standard deviation, in nanoseconds, computed
+     *         exactly as samples were recorded
+     */
+    public double getStandardDeviationNanos() {
+        long count = histogram.getTotalCount();
+        if (0 == count) {
+            return 0;
+        }
+        return Math.sqrt(sumOfSquares / count);
+    }
+
+    public double getStandardDeviationMillis() {
+        return getStandardDeviationNanos() / Configuration.NANOS_PER_MILLI;
+    }
+
+    public double getPercentileDurationMillis(int percentile) {
+        return (double) histogram.getValueAtPercentile(percentile)
+                / Configuration.NANOS_PER_MILLI;
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Random;
+
+/**
+ * A think-time distribution, in milliseconds.
+ *
+ * The syntax is the distribution name, then its parameters, separated by
+ * colons: "fixed:MEAN", "exponential:MEAN", "uniform:MIN:MAX",
+ * "normal:MEAN:STDDEV", or "pareto:MEAN:SHAPE". A plain number is the same
+ * as "fixed". Normal delays are truncated at zero, and Pareto shapes must
+ * be greater than 1, so that the mean is finite.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ThinkTime {
+
+    public static final String FIXED = "fixed";
+
+    public static final String EXPONENTIAL = "exponential";
+
+    public static final String UNIFORM = "uniform";
+
+    public static final String NORMAL = "normal";
+
+    public static final String PARETO = "pareto";
+
+    private String distribution;
+
+    private double a;
+
+    private double b;
+
+    private String spec;
+
+    /**
+     * @param _spec
+     * @throws IllegalArgumentException
+     *             if the distribution cannot be parsed
+     */
+    public ThinkTime(String _spec) {
+        spec = _spec.trim();
+        String[] parts = spec.split(":");
+        try {
+            if (1 == parts.length) {
+                distribution = FIXED;
+                a = Double.parseDouble(parts[0]);
+            } else {
+                distribution = parts[0].toLowerCase();
+                a = Double.parseDouble(parts[1]);
+                if (parts.length > 2) {
+                    b = Double.parseDouble(parts[2]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad think time: " + spec);
+        }
+        int expected = (FIXED.equals(distribution) || EXPONENTIAL
+                .equals(distribution)) ? 2 : 3;
+        if (!FIXED.equals(distribution) && !EXPONENTIAL.equals(distribution)
+                && !UNIFORM.equals(distribution)
+                && !NORMAL.equals(distribution)
+                && !PARETO.equals(distribution)) {
+            throw new IllegalArgumentException(
+                    "unknown think time distribution: " + spec);
+        }
+        if (parts.length > expected || (parts.length > 1 && parts.length < expected)) {
+            throw new IllegalArgumentException("bad think time: " + spec);
+        }
+        if (a < 0 || b < 0 || (UNIFORM.equals(distribution) && b < a)) {
+            throw new IllegalArgumentException("bad think time: " + spec);
+        }
+        if (PARETO.equals(distribution) && b <= 1) {
+            throw new IllegalArgumentException(
+                    "pareto shape must be greater than 1: " + spec);
+        }
+    }
+
+    /**
+     * @param random
+     * @return the next think time, in nanoseconds
+     */
+    public long nextNanos(Random random) {
+        double millis;
+        if (EXPONENTIAL.equals(distribution)) {
+            millis = -a * Math.log(1 - random.nextDouble());
+        } else if (UNIFORM.equals(distribution)) {
+            millis = a + (b - a) * random.nextDouble();
+        } else if (NORMAL.equals(distribution)) {
+            millis = Math.max(0, a + b * random.nextGaussian());
+        } else if (PARETO.equals(distribution)) {
+            // the scale that gives the requested mean
+            double scale = a * (b - 1) / b;
+            millis = scale / Math.pow(1 - random.nextDouble(), 1 / b);
+        } else {
+            millis = a;
+        }
+        return (long) (millis * Configuration.NANOS_PER_MILLI);
+    }
+
+    /**
+     * @return the mean think time, in milliseconds
+     */
+    public double getMeanMillis() {
+        if (UNIFORM.equals(distribution)) {
+            return (a + b) / 2;
+        }
+        return a;
+    }
+
+    public String toString() {
+        return spec;
+    }
+
+}
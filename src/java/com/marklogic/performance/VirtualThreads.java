@@ -0,0 +1,80 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Starts virtual threads, on JVMs that have them. This code is built for
+ * older JVMs too, so the Thread.ofVirtual() API is called by reflection.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class VirtualThreads {
+
+    private static Method ofVirtual = null;
+
+    private static Method name = null;
+
+    private static Method start = null;
+
+    static {
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual", new Class<?>[0]);
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", new Class<?>[] { String.class });
+            start = builder.getMethod("start",
+                    new Class<?>[] { Runnable.class });
+        } catch (Exception e) {
+            // not available in this JVM
+            ofVirtual = null;
+        }
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads
+     */
+    public static boolean isAvailable() {
+        return null != ofVirtual;
+    }
+
+    /**
+     * @param _name
+     * @param task
+     * @return the started virtual thread
+     */
+    public static Thread start(String _name, Runnable task) {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException(
+                    "virtual threads are not available in this JVM");
+        }
+        try {
+            Object builder = ofVirtual.invoke(null, new Object[0]);
+            builder = name.invoke(builder, new Object[] { _name });
+            return (Thread) start.invoke(builder, new Object[] { task });
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+}
@@ -70,7 +70,7 @@ public class XMLFileTestList extends TestList {
             if (childNode.getNodeType() != Node.ELEMENT_NODE) {
                 continue;
             }
-            // if a test is weighted, repeat it N times
+            // a weighted test is picked as if it were repeated N times
             weight = 1;
             if (childNode.hasAttributes()) {
                 attr = childNode.getAttributes().getNamedItem(
@@ -79,9 +79,7 @@ public class XMLFileTestList extends TestList {
                     weight = Integer.parseInt(attr.getNodeValue());
                 }
             }
-            for (int j = 0; j < weight; j++) {
-                tests.add(new XMLFileTest(childNode));
-            }
+            add(new XMLFileTest(childNode), weight);
         }
     }
 
@@ -20,12 +20,15 @@ package com.marklogic.performance.reporter;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.marklogic.performance.Result;
 import com.marklogic.performance.ResultInterface;
+import com.marklogic.performance.SummaryResults;
+import com.marklogic.performance.TestStatistics;
 import com.marklogic.performance.sampler.Sampler;
 
 /**
@@ -71,26 +74,93 @@ public class CSVReporter extends AbstractReporter {
             }
             out.write("\n");
             out.write("\n");
+
+            // break down the summary by test name
+            fields = summaryResults.getTestStatisticsFieldNames();
+            out.write(join(fields, ","));
+            out.write("\n");
+            Iterator<TestStatistics> iter = summaryResults
+                    .getTestStatistics().iterator();
+            while (iter.hasNext()) {
+                putResult(out, fields, iter.next(), reportTime);
+            }
+            out.write("\n");
+
+            // and by host, if there was more than one
+            if (summaryResults.hasHostStatistics()) {
+                fields = summaryResults.getHostStatisticsFieldNames();
+                out.write(join(fields, ","));
+                out.write("\n");
+                iter = summaryResults.getHostStatistics().iterator();
+                TestStatistics stats;
+                while (iter.hasNext()) {
+                    stats = iter.next();
+                    for (int i = 0; i < fields.length; i++) {
+                        if (i > 0)
+                            out.write(",");
+                        out.write(escape(summaryResults.getHostFieldValue(
+                                stats, fields[i])));
+                    }
+                    out.write("\n");
+                }
+                out.write("\n");
+            }
+
+            // and by stage, if there was a load profile
+            if (!summaryResults.getStages().isEmpty()) {
+                putStages(out);
+            }
         }
 
         // grab results from each sampler
         Sampler[] samplers = summaryResults.getSamplers();
 
         // use the built-in fieldnames to report results
-        String[] fields = Result.getFieldNames(reportTime);
+        String[] fields = Result.getFieldNames(reportTime,
+                summaryResults.hasPhaseHistograms(), summaryResults
+                        .hasHostStatistics());
         out.write(join(fields, ","));
         out.write("\n");
 
         for (int i = 0; i < samplers.length; i++) {
-            List<Result> results = samplers[i].getResults();
+            // results may be read back from disk, one at a time
+            Iterator<Result> results = samplers[i].getResultStore()
+                    .iterator();
             // put in a result for end time, total time and queries per second.
-            for (int j = 0; j < results.size(); j++) {
-                putResult(out, fields, results.get(j), reportTime);
+            while (results.hasNext()) {
+                putResult(out, fields, results.next(), reportTime);
             }
         }
 
     }
 
+    private void putStages(Writer out) throws IOException {
+        List<SummaryResults> stages = summaryResults.getStages();
+        String[] fields = stages.get(0).getFieldNames();
+        out.write(join(fields, ","));
+        out.write("\n");
+        for (int i = 0; i < stages.size(); i++) {
+            putResult(out, fields, stages.get(i), true);
+        }
+        out.write("\n");
+
+        // per-stage breakdown by test name, with the stage first
+        fields = summaryResults.getTestStatisticsFieldNames();
+        out.write("stage," + join(fields, ","));
+        out.write("\n");
+        SummaryResults stage;
+        Iterator<TestStatistics> iter;
+        for (int i = 0; i < stages.size(); i++) {
+            stage = stages.get(i);
+            iter = stage.getTestStatistics().iterator();
+            while (iter.hasNext()) {
+                out.write(escape(stage.getStageName()) + ",");
+                putResult(out, fields, iter.next(), true);
+            }
+        }
+        out.write("\n");
+    }
+
     private void putResult(Writer out, String[] fields, ResultInterface res,
             boolean reportTime) throws IOException {
         for (int i = 0; i < fields.length; i++) {
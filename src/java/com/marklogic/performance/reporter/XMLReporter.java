@@ -20,10 +20,12 @@ package com.marklogic.performance.reporter;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.List;
+import java.util.Iterator;
 
 import com.marklogic.performance.Result;
 import com.marklogic.performance.ResultInterface;
+import com.marklogic.performance.SummaryResults;
+import com.marklogic.performance.TestStatistics;
 import com.marklogic.performance.sampler.Sampler;
 
 /**
@@ -45,6 +47,18 @@ public class XMLReporter extends AbstractReporter {
 
     static final String resultNodeEnd = "</h:result>";
 
+    static final String testSummaryNodeBegin = "<h:test-summary>";
+
+    static final String testSummaryNodeEnd = "</h:test-summary>";
+
+    static final String hostSummaryNodeBegin = "<h:host-summary>";
+
+    static final String hostSummaryNodeEnd = "</h:host-summary>";
+
+    static final String stageSummaryNodeBegin = "<h:stage-summary>";
+
+    static final String stageSummaryNodeEnd = "</h:stage-summary>";
+
     // from harness.java
     private static final String padding = "                                        ";
 
@@ -67,18 +81,46 @@ public class XMLReporter extends AbstractReporter {
                 formatElement(out, fields[i], summaryResults
                         .getFieldValue(fields[i]), 1);
             }
+
+            // break down the summary by test name
+            fields = summaryResults.getTestStatisticsFieldNames();
+            Iterator<TestStatistics> iter = summaryResults
+                    .getTestStatistics().iterator();
+            while (iter.hasNext()) {
+                putTestSummary(out, fields, iter.next(), 1);
+            }
+
+            // and by host, if there was more than one
+            if (summaryResults.hasHostStatistics()) {
+                fields = summaryResults.getHostStatisticsFieldNames();
+                iter = summaryResults.getHostStatistics().iterator();
+                while (iter.hasNext()) {
+                    putHostSummary(out, fields, iter.next());
+                }
+            }
+
+            // and by stage, if there was a load profile
+            Iterator<SummaryResults> stages = summaryResults.getStages()
+                    .iterator();
+            while (stages.hasNext()) {
+                putStageSummary(out, stages.next());
+            }
         }
 
         // grab results from each sampler
         Sampler[] samplers = summaryResults.getSamplers();
         // use the built-in fieldnames to report results
-        String[] fields = Result.getFieldNames(reportTime);
+        String[] fields = Result.getFieldNames(reportTime,
+                summaryResults.hasPhaseHistograms(), summaryResults
+                        .hasHostStatistics());
         for (int i = 0; i < samplers.length; i++) {
-            List<Result> results = samplers[i].getResults();
+            // results may be read back from disk, one at a time
+            Iterator<Result> results = samplers[i].getResultStore()
+                    .iterator();
             // put in a result for end time, total time and queries per second.
             // hack in a thread index, too
-            for (int j = 0; j < results.size(); j++) {
-                putResult(out, fields, results.get(j), reportTime, i);
+            while (results.hasNext()) {
+                putResult(out, fields, results.next(), reportTime, i);
             }
         }
 
@@ -102,6 +144,42 @@ public class XMLReporter extends AbstractReporter {
         formatNode(out, resultNodeEnd, 1, true, true);
     }
 
+    private void putTestSummary(Writer out, String[] fields,
+            ResultInterface stats, int level) throws IOException {
+        formatNode(out, testSummaryNodeBegin, level, true, true);
+        for (int i = 0; i < fields.length; i++) {
+            formatElement(out, fields[i], stats.getFieldValue(fields[i]),
+                    level + 1);
+        }
+        formatNode(out, testSummaryNodeEnd, level, true, true);
+    }
+
+    private void putHostSummary(Writer out, String[] fields,
+            TestStatistics stats) throws IOException {
+        formatNode(out, hostSummaryNodeBegin, 1, true, true);
+        for (int i = 0; i < fields.length; i++) {
+            formatElement(out, fields[i], summaryResults.getHostFieldValue(
+                    stats, fields[i]), 2);
+        }
+        formatNode(out, hostSummaryNodeEnd, 1, true, true);
+    }
+
+    private void putStageSummary(Writer out, SummaryResults stage)
+            throws IOException {
+        formatNode(out, stageSummaryNodeBegin, 1, true, true);
+        String[] fields = stage.getFieldNames();
+        for (int i = 0; i < fields.length; i++) {
+            formatElement(out, fields[i], stage.getFieldValue(fields[i]), 2);
+        }
+        fields = stage.getTestStatisticsFieldNames();
+        Iterator<TestStatistics> iter = stage.getTestStatistics()
+                .iterator();
+        while (iter.hasNext()) {
+            putTestSummary(out, fields, iter.next(), 2);
+        }
+        formatNode(out, stageSummaryNodeEnd, 1, true, true);
+    }
+
     public static String escapeXml(String _in) {
         if (_in == null)
             return "";
@@ -0,0 +1,583 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.marklogic.performance.ArrivalPacer;
+import com.marklogic.performance.ClientOverhead;
+import com.marklogic.performance.Configuration;
+import com.marklogic.performance.HostSelector;
+import com.marklogic.performance.ExpectedResult;
+import com.marklogic.performance.Result;
+import com.marklogic.performance.TestInterface;
+import com.marklogic.performance.TestIterator;
+
+/**
+ * Non-blocking HTTP sampler: each thread runs a selector event loop, and
+ * keeps asyncRequestsPerThread requests in flight over keep-alive
+ * connections. A few threads can then drive thousands of concurrent
+ * requests.
+ *
+ * Requests are the same as for HTTPSampler: the query is POSTed to
+ * /evaluate.xqy. Only plain HTTP is supported.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class AsyncHTTPSampler extends Sampler {
+
+    /**
+     * One request slot, with its connection.
+     */
+    static class Exchange {
+
+        SocketChannel channel = null;
+
+        // the host for the current connection
+        HostSelector.Host target = null;
+
+        SelectionKey key = null;
+
+        // true if the connection has already served a request
+        boolean reused = false;
+
+        ByteBuffer request;
+
+        TestInterface test;
+
+        Result result;
+
+        long intendedStartNanos;
+
+        // when the current connection started to open
+        long connectStartNanos;
+
+        // request phases, if configured: 0 until reached
+        long dnsNanos, connectNanos, writeStartNanos, writtenNanos,
+                firstByteNanos;
+
+        HttpResponseParser parser = new HttpResponseParser();
+
+        // null to compare the kept text
+        ExpectedResult expected;
+
+        // each slot has its own, because checks keep state
+        Map<String, ExpectedResult> expectedResults = new HashMap<String, ExpectedResult>();
+
+    }
+
+    /**
+     * Hands a slot back to the event loop when its think time is over.
+     */
+    private class Wakeup implements Runnable {
+
+        private Exchange exchange;
+
+        Wakeup(Exchange _exchange) {
+            exchange = _exchange;
+        }
+
+        public void run() {
+            woken.add(exchange);
+            selector.wakeup();
+        }
+
+    }
+
+    private Selector selector;
+
+    private ByteBuffer readBuffer;
+
+    // slots ready to start their next test
+    private LinkedList<Exchange> ready = new LinkedList<Exchange>();
+
+    // slots whose think time has passed, added by the timer thread
+    private ConcurrentLinkedQueue<Exchange> woken = new ConcurrentLinkedQueue<Exchange>();
+
+    // slots waiting for think time to pass
+    private int thinking = 0;
+
+    // slots waiting for the pacer
+    private LinkedList<Exchange> idle = new LinkedList<Exchange>();
+
+    private int inFlight = 0;
+
+    private Map<String, InetSocketAddress> addresses = new HashMap<String, InetSocketAddress>();
+
+    private long startTime;
+
+    private long testTimeNanos;
+
+    private long loops = 0;
+
+    private boolean reportPhases;
+
+    public AsyncHTTPSampler(TestIterator ti, Configuration cfg) {
+        super(ti, cfg);
+    }
+
+    /**
+     * Run one request outside the event loop, on a connection of its own,
+     * and wait for the response. The event loop does not use this.
+     *
+     * @see com.marklogic.performance.sampler.Sampler#sample(Result,
+     *      String, TestInterface)
+     */
+    protected String sample(Result result, String query,
+            TestInterface test) throws Exception {
+        byte[] request = formatRequest(query, test);
+        result.incrementBytesSent(request.length);
+        HttpConnection conn = new HttpConnection(protocol, host, port,
+                readsize);
+        try {
+            // the parser checks the body bytes, whether or not they are kept
+            String body = conn.exchange(request, config.isReportPhases()
+                    ? result : null, keepBody, expectedResult);
+            result.incrementBytesReceived(conn.getBodyBytes());
+            return body;
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * @param query
+     * @param test
+     * @return the complete request, including headers, formatted as for
+     *         HTTPSampler
+     * @throws UnsupportedEncodingException
+     */
+    protected byte[] formatRequest(String query, TestInterface test)
+            throws UnsupportedEncodingException {
+        return HTTPSampler.formatQueryRequest(query, host + ":" + port,
+                getAuthorization(test), true);
+    }
+
+    protected void runTests() {
+        configure();
+        if (!"http".equalsIgnoreCase(protocol)) {
+            throw new SamplerException(getClass().getName()
+                    + " does not support protocol " + protocol);
+        }
+        if (null == pacer) {
+            setupRandom();
+        }
+        testTimeNanos = config.getTestTimeNanos();
+        reportPhases = config.isReportPhases();
+        readBuffer = ByteBuffer.allocateDirect(readsize);
+        try {
+            selector = Selector.open();
+            try {
+                loop();
+            } finally {
+                Iterator<SelectionKey> keys = selector.keys().iterator();
+                while (keys.hasNext()) {
+                    close(keys.next().channel());
+                }
+                selector.close();
+            }
+        } catch (IOException e) {
+            // turn this into a fatal runtime exception
+            throw new SamplerException(e);
+        }
+    }
+
+    private void loop() throws IOException {
+        startTime = getLoopStartNanos();
+        if (null != random) {
+            testIterator.shuffle(random);
+        }
+        int requests = config.getAsyncRequestsPerThread();
+        for (int i = 0; i < requests; i++) {
+            if (null == pacer) {
+                dispatch(new Exchange());
+            } else {
+                idle.add(new Exchange());
+            }
+        }
+
+        long timeout;
+        Iterator<SelectionKey> selected;
+        SelectionKey key;
+        Exchange exchange;
+        while (true) {
+            if (null != pacer) {
+                dispatchArrivals();
+                if (0 == inFlight && pacer.isDrained()) {
+                    break;
+                }
+            } else if (0 == inFlight && ready.isEmpty() && 0 == thinking) {
+                break;
+            }
+
+            // block until a socket is ready, or a slot has work:
+            // the timer wakes the selector when think time is over
+            timeout = 0;
+            if (null != pacer && !idle.isEmpty()) {
+                // poll for the next arrival
+                timeout = 1;
+            }
+            if (!ready.isEmpty() || !woken.isEmpty()) {
+                selector.selectNow();
+            } else {
+                selector.select(timeout);
+            }
+
+            selected = selector.selectedKeys().iterator();
+            while (selected.hasNext()) {
+                key = selected.next();
+                selected.remove();
+                handle((Exchange) key.attachment());
+            }
+
+            while (null != (exchange = woken.poll())) {
+                thinking--;
+                ready.add(exchange);
+            }
+            // only the slots that are ready now: a slot that fails at
+            // once goes back on the list for the next time around
+            for (int i = ready.size(); i > 0; i--) {
+                dispatch(ready.removeFirst());
+            }
+        }
+    }
+
+    private void dispatchArrivals() throws IOException {
+        ArrivalPacer.Arrival arrival;
+        while (!idle.isEmpty() && null != (arrival = pacer.poll())) {
+            begin(idle.removeFirst(), arrival.getTest(), arrival
+                    .getIntendedStartNanos());
+        }
+    }
+
+    /**
+     * Start the next closed-loop test on this slot, or retire it.
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    private void dispatch(Exchange exchange) throws IOException {
+        long mark = System.nanoTime();
+        TestInterface test = nextTest();
+        overhead.add(ClientOverhead.ITERATOR, System.nanoTime() - mark);
+        if (null == test) {
+            close(exchange.channel);
+            return;
+        }
+        begin(exchange, test, -1);
+    }
+
+    /**
+     * @return the next test, or null at the end of the run
+     */
+    private TestInterface nextTest() {
+        if (retired) {
+            return null;
+        }
+        if (0 != testTimeNanos
+                && testTimeNanos < System.nanoTime() - startTime) {
+            // end of the timed test
+            return null;
+        }
+        if (!testIterator.hasNext()) {
+            loops++;
+            if (!config.isRepeatingTest()
+                    || (config.getLoopsPerThread() > 0 && loops >= config
+                            .getLoopsPerThread())) {
+                // no more tests to run
+                return null;
+            }
+            testIterator.reset();
+            if (null != random) {
+                testIterator.shuffle(random);
+            }
+            if (!testIterator.hasNext()) {
+                return null;
+            }
+        }
+        if (null != budget && !budget.tryAcquire(getIndex())) {
+            return null;
+        }
+        return testIterator.next();
+    }
+
+    private void begin(Exchange exchange, TestInterface test,
+            long intendedStartNanos) throws IOException {
+        long queryStart = System.nanoTime();
+        String query = null;
+        try {
+            query = test.getQuery();
+        } catch (Exception e) {
+            // turn this into a fatal runtime exception
+            throw new SamplerException(e);
+        }
+        exchange.test = test;
+        exchange.intendedStartNanos = intendedStartNanos;
+        // a kept connection stays with its host
+        if (null == exchange.target || null == exchange.channel
+                || !exchange.channel.isOpen()) {
+            exchange.target = hostSelector.select();
+        }
+        host = exchange.target.getName();
+        port = exchange.target.getPort();
+        exchange.request = ByteBuffer.wrap(formatRequest(query, test));
+        exchange.result = new Result(test.getName(), test
+                .getCommentExpectedResult());
+        exchange.result.setHost(exchange.target.toString());
+        hostSelector.begin(exchange.target);
+        exchange.expected = checkResults ? getExpectedResult(
+                exchange.expectedResults, test.getCommentExpectedResult())
+                : null;
+        exchange.parser.reset(keepBody, exchange.expected);
+        inFlight++;
+        exchange.result.setStart();
+        overhead.add(ClientOverhead.QUERY, exchange.result.getStartNanos()
+                - queryStart);
+        send(exchange);
+    }
+
+    private void send(Exchange exchange) {
+        exchange.dnsNanos = 0;
+        exchange.connectNanos = 0;
+        exchange.writeStartNanos = 0;
+        exchange.writtenNanos = 0;
+        exchange.firstByteNanos = 0;
+        try {
+            if (null != exchange.channel && exchange.channel.isOpen()) {
+                exchange.reused = true;
+                exchange.key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            exchange.reused = false;
+            exchange.connectStartNanos = System.nanoTime();
+            InetSocketAddress address = getAddress(exchange.target);
+            long resolved = System.nanoTime();
+            exchange.dnsNanos = resolved - exchange.connectStartNanos;
+            exchange.channel = SocketChannel.open();
+            exchange.channel.configureBlocking(false);
+            exchange.channel.socket().setTcpNoDelay(true);
+            int ops = SelectionKey.OP_CONNECT;
+            if (exchange.channel.connect(address)) {
+                connected(exchange);
+                ops = SelectionKey.OP_WRITE;
+            }
+            exchange.key = exchange.channel.register(selector, ops,
+                    exchange);
+        } catch (IOException e) {
+            fail(exchange, e);
+        }
+    }
+
+    private void connected(Exchange exchange) {
+        long now = System.nanoTime();
+        connections.recordConnect(now - exchange.connectStartNanos);
+        exchange.connectNanos = now - exchange.connectStartNanos
+                - exchange.dnsNanos;
+    }
+
+    private InetSocketAddress getAddress(HostSelector.Host target)
+            throws UnknownHostException {
+        String key = target.toString();
+        InetSocketAddress address = addresses.get(key);
+        if (null == address) {
+            address = new InetSocketAddress(target.getName(), target
+                    .getPort());
+            if (address.isUnresolved()) {
+                throw new UnknownHostException(target.getName());
+            }
+            addresses.put(key, address);
+        }
+        return address;
+    }
+
+    private void handle(Exchange exchange) {
+        SelectionKey key = exchange.key;
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (null == exchange.result) {
+                // an idle slot: the server closed its keep-alive connection
+                close(exchange.channel);
+                return;
+            }
+            if (key.isConnectable()) {
+                exchange.channel.finishConnect();
+                connected(exchange);
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (key.isWritable()) {
+                if (0 == exchange.writeStartNanos) {
+                    exchange.writeStartNanos = System.nanoTime();
+                }
+                exchange.channel.write(exchange.request);
+                if (!exchange.request.hasRemaining()) {
+                    exchange.writtenNanos = System.nanoTime();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                readBuffer.clear();
+                int actual = exchange.channel.read(readBuffer);
+                if (0 == exchange.firstByteNanos) {
+                    exchange.firstByteNanos = System.nanoTime();
+                }
+                if (actual < 0) {
+                    if (exchange.parser.endOfStream()) {
+                        complete(exchange);
+                    }
+                    return;
+                }
+                readBuffer.flip();
+                if (exchange.parser.parse(readBuffer)) {
+                    complete(exchange);
+                }
+            }
+        } catch (IOException e) {
+            fail(exchange, e);
+        }
+    }
+
+    private void complete(Exchange exchange) throws IOException {
+        Result res = exchange.result;
+        HttpResponseParser parser = exchange.parser;
+        res.setEnd();
+        res.incrementBytesSent(exchange.request.limit());
+        res.incrementBytesReceived(parser.getBodyBytes());
+        if (reportPhases) {
+            // there is no TLS phase: https is not supported
+            res.setPhaseNanos(Result.PHASE_DNS, exchange.dnsNanos);
+            res.setPhaseNanos(Result.PHASE_CONNECT, exchange.connectNanos);
+            res.setPhaseNanos(Result.PHASE_WRITE, exchange.writtenNanos
+                    - exchange.writeStartNanos);
+            res.setPhaseNanos(Result.PHASE_FIRST_BYTE,
+                    exchange.firstByteNanos - exchange.writtenNanos);
+            res.setPhaseNanos(Result.PHASE_BODY, res.getEndNanos()
+                    - exchange.firstByteNanos);
+        }
+        if (!parser.isKeepAlive()) {
+            close(exchange.channel);
+        }
+        if (parser.getStatusCode() >= 300) {
+            // an error, or a redirect: redirects are not followed
+            String errorMessage = parser.getStatusLine();
+            System.err.println("Error running query "
+                    + exchange.test.getName() + ": " + errorMessage);
+            res.setError(true);
+            if (keepBody) {
+                res.setQueryResult(errorMessage);
+            }
+        } else {
+            if (keepBody) {
+                res.setQueryResult(parser.getBody());
+            }
+            if (checkResults
+                    && !(null == exchange.expected ? exchange.test
+                            .getCommentExpectedResult().equals(
+                                    res.getQueryResult()) : exchange.expected
+                            .matches())) {
+                res.setError(true);
+            }
+        }
+        finish(exchange);
+    }
+
+    private void fail(Exchange exchange, IOException e) {
+        close(exchange.channel);
+        if (exchange.reused && 0 == exchange.parser.getBytesRead()) {
+            // the server closed an idle keep-alive connection:
+            // try once more, on a new connection
+            exchange.request.rewind();
+            exchange.parser.reset(keepBody, exchange.expected);
+            send(exchange);
+            return;
+        }
+        Result res = exchange.result;
+        res.setEnd();
+        String errorMessage = e.toString() + " " + e.getMessage();
+        System.err.println("Error running query " + exchange.test.getName()
+                + ": " + errorMessage);
+        res.setError(true);
+        if (keepBody) {
+            res.setQueryResult(errorMessage);
+        }
+        try {
+            finish(exchange);
+        } catch (IOException e2) {
+            // turn this into a fatal runtime exception
+            throw new SamplerException(e2);
+        }
+    }
+
+    private void finish(Exchange exchange) throws IOException {
+        inFlight--;
+        hostSelector.end(exchange.target, exchange.result.getDurationNanos(),
+                exchange.result.isError());
+        if (exchange.intendedStartNanos < 0) {
+            record(exchange.result);
+        } else {
+            record(exchange.result, exchange.intendedStartNanos);
+        }
+        TestInterface test = exchange.test;
+        exchange.result = null;
+        exchange.test = null;
+        if (null != exchange.channel && exchange.channel.isOpen()) {
+            // nothing to do until the next request: an idle close
+            // is found then, and retried
+            exchange.key.interestOps(0);
+        }
+        if (null != pacer) {
+            idle.add(exchange);
+            return;
+        }
+        // the event loop starts the next test, even without think time,
+        // so that failures do not recurse
+        long thinkNanos = nextThinkNanos(test);
+        if (0 == thinkNanos) {
+            ready.add(exchange);
+            return;
+        }
+        thinking++;
+        timer.schedule(new Wakeup(exchange), thinkNanos);
+    }
+
+    private void close(Channel channel) {
+        if (null == channel) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.UnsupportedEncodingException;
+
+import com.marklogic.performance.Configuration;
+import com.marklogic.performance.TestInterface;
+import com.marklogic.performance.TestIterator;
+
+/**
+ * Non-blocking equivalent of URISampler: the query is a simple URI, which
+ * is fetched with GET.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class AsyncURISampler extends AsyncHTTPSampler {
+
+    public AsyncURISampler(TestIterator ti, Configuration cfg) {
+        super(ti, cfg);
+    }
+
+    protected byte[] formatRequest(String uri, TestInterface test)
+            throws UnsupportedEncodingException {
+        if (null == uri) {
+            throw new NullPointerException("uri is null");
+        }
+        return HttpConnection.formatRequest("GET", uri, host + ":" + port,
+                getAuthorization(test), true, null, null);
+    }
+
+}
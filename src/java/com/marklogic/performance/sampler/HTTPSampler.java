@@ -18,12 +18,12 @@
  */
 package com.marklogic.performance.sampler;
 
-import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 
 import com.marklogic.performance.Configuration;
+import com.marklogic.performance.HostSelector;
 import com.marklogic.performance.Result;
 import com.marklogic.performance.TestInterface;
 import com.marklogic.performance.TestIterator;
@@ -38,31 +38,122 @@ public class HTTPSampler extends Sampler {
 
     protected static final String ENCODING = "UTF-8";
 
+    protected static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    protected boolean pooled;
+
+    protected boolean reportPhases;
+
     public HTTPSampler(TestIterator ti, Configuration cfg) {
         super(ti, cfg);
+        pooled = cfg.isPooledConnections();
+        reportPhases = cfg.isReportPhases();
     }
 
     public String sample(Result result, String query, TestInterface test)
             throws Exception {
-        String urlEncoded = URLEncoder.encode(query, ENCODING);
-        HttpURLConnection conn = setupConnection(new URL(protocol, host,
-                port, "/evaluate.xqy"), test);
-        // set post headers
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Length", ""
-                + urlEncoded.length());
-        conn.setRequestProperty("Content-Type",
-                "application/x-www-form-urlencoded");
-        conn.setDoOutput(true);
-        // TODO doesn't this increment twice?
-        // TODO shouldn't bytes sent reflect the HTTP headers too?
-        result.incrementBytesSent(query.length());
-        PrintWriter out = new PrintWriter(conn.getOutputStream());
-        out.print("query=" + urlEncoded);
-        out.flush();
-        out.close(); // needed?
-        result.incrementBytesSent(urlEncoded.length());
-        return new String(readResponse(conn));
+        return request(result, formatQueryRequest(query, host + ":" + port,
+                getAuthorization(test), pooled));
+    }
+
+    /**
+     * @param query
+     * @param hostHeader
+     *            host and port
+     * @param authorization
+     *            the Authorization header value
+     * @param keepAlive
+     * @return a complete request that POSTs the query to /evaluate.xqy
+     * @throws UnsupportedEncodingException
+     */
+    static byte[] formatQueryRequest(String query, String hostHeader,
+            String authorization, boolean keepAlive)
+            throws UnsupportedEncodingException {
+        byte[] body = ("query=" + URLEncoder.encode(query, ENCODING))
+                .getBytes(ENCODING);
+        return HttpConnection.formatRequest("POST", "/evaluate.xqy",
+                hostHeader, authorization, keepAlive, FORM_CONTENT_TYPE, body);
+    }
+
+    /**
+     * Send a request on a pooled connection, or on a new connection if
+     * connections are not pooled. Time spent waiting for the pool is not
+     * part of the sample: the result starts once a permit is granted.
+     * Bytes sent are the whole request, headers included, as for
+     * AsyncHTTPSampler.
+     *
+     * @param result
+     * @param request
+     *            the complete request, including headers
+     * @return the response body, or null if it was not kept
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    protected String request(Result result, byte[] request)
+            throws IOException, InterruptedException {
+        result.incrementBytesSent(request.length);
+        HttpConnectionPool pool = HttpConnectionPool.getInstance(protocol,
+                host, port, config);
+        if (!pooled) {
+            HttpConnection conn = pool.open(connections);
+            try {
+                return exchange(conn, request, result);
+            } finally {
+                conn.close();
+            }
+        }
+
+        pool.acquire(connections);
+        HttpConnection conn = null;
+        try {
+            result.setStart();
+            conn = pool.take(connections);
+            try {
+                return exchange(conn, request, result);
+            } catch (IOException e) {
+                if (!conn.isPooled() || 0 != conn.getBytesRead()) {
+                    throw e;
+                }
+                // the server closed an idle keep-alive connection,
+                // which may have been prewarmed and never used:
+                // try once more, on a new connection
+                conn.close();
+                conn = pool.open(connections);
+                return exchange(conn, request, result);
+            }
+        } finally {
+            if (null != conn) {
+                pool.giveBack(conn);
+            }
+            pool.release();
+        }
+    }
+
+    private String exchange(HttpConnection conn, byte[] request,
+            Result result) throws IOException {
+        // the parser checks the body bytes, whether or not they are kept
+        String body = conn.exchange(request, reportPhases ? result : null,
+                keepBody, expectedResult);
+        result.incrementBytesReceived(conn.getBodyBytes());
+        return body;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.marklogic.performance.sampler.Sampler#prewarm()
+     */
+    public void prewarm() throws Exception {
+        if (!pooled) {
+            return;
+        }
+        configure();
+        // one connection per sampler, to every host
+        HostSelector.Host[] hosts = hostSelector.getHosts();
+        for (int i = 0; i < hosts.length; i++) {
+            HttpConnectionPool.getInstance(protocol, hosts[i].getName(),
+                    hosts[i].getPort(), config).prewarm(connections, 1);
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.marklogic.performance.Configuration;
+import com.marklogic.performance.ExpectedResult;
+import com.marklogic.performance.Result;
+
+/**
+ * One blocking HTTP/1.1 connection, which can be kept for more requests.
+ * Responses are read with the same parser as the non-blocking samplers.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+class HttpConnection {
+
+    static final String ENCODING = "UTF-8";
+
+    static final String CRLF = "\r\n";
+
+    private Socket socket;
+
+    private InputStream in;
+
+    private OutputStream out;
+
+    private HttpResponseParser parser = new HttpResponseParser();
+
+    private byte[] readBuffer;
+
+    // wraps readBuffer, so that each read does not allocate
+    private ByteBuffer readView;
+
+    private boolean complete = false;
+
+    // setup phases, reported with the first request on this connection
+    private long dnsNanos, connectNanos, tlsNanos;
+
+    long lastUsedNanos;
+
+    // true once this connection has waited in an idle pool, prewarmed or not
+    boolean pooled = false;
+
+    /**
+     * Open a new connection.
+     *
+     * @param protocol
+     * @param host
+     * @param port
+     * @param readsize
+     * @throws IOException
+     */
+    HttpConnection(String protocol, String host, int port, int readsize)
+            throws IOException {
+        long start = System.nanoTime();
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(host);
+        }
+        long resolved = System.nanoTime();
+        dnsNanos = resolved - start;
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(address);
+        long connected = System.nanoTime();
+        connectNanos = connected - resolved;
+        if (Configuration.PROTOCOL_HTTPS.equalsIgnoreCase(protocol)) {
+            SSLSocket secure = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory
+                    .getDefault()).createSocket(socket, host, port, true);
+            // check the certificate against the host name,
+            // as HttpsURLConnection does
+            SSLParameters params = secure.getSSLParameters();
+            params.setEndpointIdentificationAlgorithm("HTTPS");
+            secure.setSSLParameters(params);
+            secure.startHandshake();
+            socket = secure;
+            tlsNanos = System.nanoTime() - connected;
+        }
+        in = socket.getInputStream();
+        out = new BufferedOutputStream(socket.getOutputStream());
+        readBuffer = new byte[readsize];
+        readView = ByteBuffer.wrap(readBuffer);
+    }
+
+    /**
+     * Send a request, and read the whole response.
+     *
+     * @param request
+     *            the complete request, including headers
+     * @param result
+     *            if not null, records the time for each phase
+     * @param keepBody
+     *            if false, the body is counted but not kept
+     * @param expected
+     *            if not null, checks the body as it arrives
+     * @return the response body, or null if it was not kept
+     * @throws IOException
+     *             if the exchange failed, or the response status was an
+     *             error or a redirect: redirects are not followed
+     */
+    String exchange(byte[] request, Result result, boolean keepBody,
+            ExpectedResult expected) throws IOException {
+        complete = false;
+        parser.reset(keepBody, expected);
+        long start = System.nanoTime();
+        out.write(request);
+        out.flush();
+        long written = System.nanoTime();
+        long firstByte = 0;
+        int actual;
+        boolean done = false;
+        while (!done) {
+            actual = in.read(readBuffer);
+            if (0 == firstByte) {
+                firstByte = System.nanoTime();
+            }
+            if (actual < 0) {
+                done = parser.endOfStream();
+            } else {
+                readView.clear();
+                readView.limit(actual);
+                done = parser.parse(readView);
+            }
+        }
+        complete = true;
+        if (null != result) {
+            result.setPhaseNanos(Result.PHASE_DNS, dnsNanos);
+            result.setPhaseNanos(Result.PHASE_CONNECT, connectNanos);
+            result.setPhaseNanos(Result.PHASE_TLS, tlsNanos);
+            result.setPhaseNanos(Result.PHASE_WRITE, written - start);
+            result.setPhaseNanos(Result.PHASE_FIRST_BYTE, firstByte
+                    - written);
+            result.setPhaseNanos(Result.PHASE_BODY, System.nanoTime()
+                    - firstByte);
+        }
+        // later requests do not pay for setup
+        clearSetupPhases();
+        if (parser.getStatusCode() >= 300) {
+            throw new IOException(parser.getStatusLine());
+        }
+        return parser.getBody();
+    }
+
+    /**
+     * Do not report setup phases with the next request, because setup was
+     * not part of it.
+     */
+    void clearSetupPhases() {
+        dnsNanos = 0;
+        connectNanos = 0;
+        tlsNanos = 0;
+    }
+
+    /**
+     * @return true if this connection came from an idle pool, where the
+     *         server may have closed it
+     */
+    boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * @return response bytes read so far, for the current request
+     */
+    long getBytesRead() {
+        return parser.getBytesRead();
+    }
+
+    /**
+     * @return body bytes read so far, for the current request
+     */
+    long getBodyBytes() {
+        return parser.getBodyBytes();
+    }
+
+    /**
+     * @return true if the last response was read completely, and the
+     *         server will keep the connection open
+     */
+    boolean isReusable() {
+        return complete && parser.isKeepAlive() && !socket.isClosed();
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing useful to do
+        }
+    }
+
+    /**
+     * @param method
+     * @param path
+     * @param hostHeader
+     *            host and port
+     * @param authorization
+     *            the Authorization header value
+     * @param keepAlive
+     * @param contentType
+     *            or null, if there is no body
+     * @param body
+     *            or null
+     * @return the complete request, including headers
+     * @throws UnsupportedEncodingException
+     */
+    static byte[] formatRequest(String method, String path,
+            String hostHeader, String authorization, boolean keepAlive,
+            String contentType, byte[] body)
+            throws UnsupportedEncodingException {
+        StringBuilder head = new StringBuilder(method + " " + path
+                + " HTTP/1.1" + CRLF);
+        head.append("Host: " + hostHeader + CRLF);
+        head.append("Connection: " + (keepAlive ? "keep-alive" : "close")
+                + CRLF);
+        head.append("Authorization: " + authorization + CRLF);
+        if (null != body) {
+            head.append("Content-Type: " + contentType + CRLF);
+            head.append("Content-Length: " + body.length + CRLF);
+        }
+        head.append(CRLF);
+        byte[] headBytes = head.toString().getBytes(ENCODING);
+        if (null == body) {
+            return headBytes;
+        }
+        byte[] request = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(body, 0, request, headBytes.length, body.length);
+        return request;
+    }
+
+}
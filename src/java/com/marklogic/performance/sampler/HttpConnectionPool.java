@@ -0,0 +1,217 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import com.marklogic.performance.Configuration;
+import com.marklogic.performance.ConnectionStatistics;
+
+/**
+ * Keep-alive connections to one host, shared by every sampler. If the pool
+ * has a size limit, samplers wait for a permit before each request, so
+ * that the number of threads and the number of connections are
+ * independent. Idle connections are reused most recent first, and closed
+ * once they have been idle for too long, before the server closes them.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+class HttpConnectionPool {
+
+    private static final Map<String, HttpConnectionPool> pools = new ConcurrentHashMap<String, HttpConnectionPool>();
+
+    private String protocol;
+
+    private String host;
+
+    private int port;
+
+    private int readsize;
+
+    private long idleNanos;
+
+    private int size;
+
+    // null if there is no size limit
+    private Semaphore permits = null;
+
+    // most recently used first
+    private LinkedList<HttpConnection> idle = new LinkedList<HttpConnection>();
+
+    private HttpConnectionPool(String _protocol, String _host, int _port,
+            Configuration _config) {
+        protocol = _protocol;
+        host = _host;
+        port = _port;
+        readsize = _config.getReadSize();
+        idleNanos = (long) (_config.getHttpPoolIdleMillis() * Configuration.NANOS_PER_MILLI);
+        size = _config.getHttpPoolSize();
+        if (size > 0) {
+            // fair, so that no sampler starves
+            permits = new Semaphore(size, true);
+        }
+    }
+
+    /**
+     * @param _protocol
+     * @param _host
+     * @param _port
+     * @param _config
+     * @return the pool for this host
+     */
+    static HttpConnectionPool getInstance(String _protocol, String _host,
+            int _port, Configuration _config) {
+        String key = _protocol + "://" + _host + ":" + _port;
+        HttpConnectionPool pool = pools.get(key);
+        if (null != pool) {
+            return pool;
+        }
+        synchronized (pools) {
+            pool = pools.get(key);
+            if (null == pool) {
+                pool = new HttpConnectionPool(_protocol, _host, _port,
+                        _config);
+                pools.put(key, pool);
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Wait for a permit, if the pool has a size limit. Every call must be
+     * followed by a call to release().
+     *
+     * @param stats
+     *            records the wait
+     * @throws InterruptedException
+     */
+    void acquire(ConnectionStatistics stats) throws InterruptedException {
+        if (null == permits) {
+            return;
+        }
+        long start = System.nanoTime();
+        permits.acquire();
+        stats.recordWait(System.nanoTime() - start);
+    }
+
+    void release() {
+        if (null != permits) {
+            permits.release();
+        }
+    }
+
+    /**
+     * @param stats
+     *            records any new connection
+     * @return an idle connection, or a new one
+     * @throws IOException
+     */
+    HttpConnection take(ConnectionStatistics stats) throws IOException {
+        HttpConnection conn = null;
+        long now = System.nanoTime();
+        synchronized (idle) {
+            while (null == conn && !idle.isEmpty()) {
+                conn = idle.removeFirst();
+                if (now - conn.lastUsedNanos > idleNanos) {
+                    // everything after this has been idle even longer
+                    conn.close();
+                    conn = null;
+                    evict(now);
+                }
+            }
+        }
+        if (null != conn) {
+            return conn;
+        }
+        return open(stats);
+    }
+
+    /**
+     * @param stats
+     *            records the new connection
+     * @return a new connection
+     * @throws IOException
+     */
+    HttpConnection open(ConnectionStatistics stats) throws IOException {
+        long start = System.nanoTime();
+        HttpConnection conn = new HttpConnection(protocol, host, port,
+                readsize);
+        stats.recordConnect(System.nanoTime() - start);
+        return conn;
+    }
+
+    /**
+     * Keep a connection for reuse, or close it if it cannot be reused.
+     *
+     * @param conn
+     */
+    void giveBack(HttpConnection conn) {
+        if (!conn.isReusable()) {
+            conn.close();
+            return;
+        }
+        long now = System.nanoTime();
+        conn.lastUsedNanos = now;
+        conn.pooled = true;
+        synchronized (idle) {
+            idle.addFirst(conn);
+            evict(now);
+        }
+    }
+
+    /**
+     * Open connections before the run starts, up to the size limit.
+     *
+     * @param stats
+     * @param count
+     *            connections wanted
+     * @throws IOException
+     */
+    void prewarm(ConnectionStatistics stats, int count) throws IOException {
+        if (size > 0) {
+            synchronized (idle) {
+                count = Math.min(count, size - idle.size());
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            HttpConnection conn = open(stats);
+            // setup happened before the run
+            conn.clearSetupPhases();
+            conn.lastUsedNanos = System.nanoTime();
+            conn.pooled = true;
+            synchronized (idle) {
+                idle.addFirst(conn);
+            }
+        }
+    }
+
+    // must hold the lock on idle
+    private void evict(long now) {
+        while (!idle.isEmpty()
+                && now - idle.getLast().lastUsedNanos > idleNanos) {
+            idle.removeLast().close();
+        }
+    }
+
+}
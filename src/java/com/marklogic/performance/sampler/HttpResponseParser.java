@@ -0,0 +1,341 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.marklogic.performance.ExpectedResult;
+
+/**
+ * Incremental HTTP/1.1 response parser, for non-blocking samplers. Bytes
+ * are fed in as they arrive, and the parser reports when the response is
+ * complete. Handles Content-Length, chunked, and read-until-close bodies.
+ *
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+class HttpResponseParser {
+
+    private static final int STATUS_LINE = 0;
+
+    private static final int HEADERS = 1;
+
+    private static final int BODY = 2;
+
+    private static final int CHUNK_SIZE = 3;
+
+    private static final int CHUNK_DATA = 4;
+
+    private static final int CHUNK_END = 5;
+
+    private static final int TRAILERS = 6;
+
+    private static final int UNTIL_CLOSE = 7;
+
+    private static final int DONE = 8;
+
+    private int state;
+
+    private StringBuilder line = new StringBuilder();
+
+    private String statusLine;
+
+    private int statusCode;
+
+    private long contentLength;
+
+    private boolean chunked;
+
+    private boolean keepAlive;
+
+    private long remaining;
+
+    private long bytesRead;
+
+    private long bodyBytes;
+
+    // null unless the body is wanted
+    private ByteArrayOutputStream body;
+
+    // null unless the body is checked as it arrives
+    private ExpectedResult expected;
+
+    /**
+     * Prepare for the next response.
+     *
+     * @param keepBody
+     *            if false, body bytes are counted, but not kept
+     */
+    void reset(boolean keepBody) {
+        reset(keepBody, null);
+    }
+
+    /**
+     * Prepare for the next response.
+     *
+     * @param keepBody
+     *            if false, body bytes are counted, but not kept
+     * @param _expected
+     *            if not null, is fed the body bytes
+     */
+    void reset(boolean keepBody, ExpectedResult _expected) {
+        expected = _expected;
+        state = STATUS_LINE;
+        line.setLength(0);
+        statusLine = null;
+        statusCode = 0;
+        contentLength = -1;
+        chunked = false;
+        keepAlive = true;
+        remaining = 0;
+        bytesRead = 0;
+        bodyBytes = 0;
+        body = keepBody ? new ByteArrayOutputStream() : null;
+    }
+
+    /**
+     * @param buf
+     * @return true if the response is complete
+     * @throws IOException
+     *             if the response is malformed
+     */
+    boolean parse(ByteBuffer buf) throws IOException {
+        bytesRead += buf.remaining();
+        while (buf.hasRemaining() && DONE != state) {
+            switch (state) {
+            case BODY:
+            case CHUNK_DATA:
+            case UNTIL_CLOSE:
+                consumeBody(buf);
+                break;
+            default:
+                if (readLine(buf)) {
+                    parseLine(line.toString());
+                    line.setLength(0);
+                }
+            }
+        }
+        return DONE == state;
+    }
+
+    /**
+     * The server closed the connection.
+     *
+     * @return true if the response is complete
+     * @throws IOException
+     *             if the response was cut short
+     */
+    boolean endOfStream() throws IOException {
+        if (UNTIL_CLOSE == state) {
+            state = DONE;
+            return true;
+        }
+        if (DONE != state) {
+            throw new IOException("connection closed after " + bytesRead
+                    + " bytes of response");
+        }
+        return true;
+    }
+
+    private boolean readLine(ByteBuffer buf) {
+        char c;
+        while (buf.hasRemaining()) {
+            // headers are ISO-8859-1
+            c = (char) (buf.get() & 0xff);
+            if ('\n' == c) {
+                int length = line.length();
+                if (length > 0 && '\r' == line.charAt(length - 1)) {
+                    line.setLength(length - 1);
+                }
+                return true;
+            }
+            line.append(c);
+        }
+        return false;
+    }
+
+    private void parseLine(String text) throws IOException {
+        switch (state) {
+        case STATUS_LINE:
+            // HTTP/1.1 200 OK
+            statusLine = text;
+            String[] parts = text.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("bad status line: " + text);
+            }
+            try {
+                statusCode = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("bad status line: " + text);
+            }
+            keepAlive = !parts[0].equals("HTTP/1.0");
+            state = HEADERS;
+            return;
+        case HEADERS:
+            if (text.length() > 0) {
+                parseHeader(text);
+                return;
+            }
+            startBody();
+            return;
+        case CHUNK_SIZE:
+            int semicolon = text.indexOf(';');
+            String size = (semicolon < 0 ? text : text.substring(0,
+                    semicolon)).trim();
+            try {
+                remaining = Long.parseLong(size, 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("bad chunk size: " + text);
+            }
+            state = (0 == remaining) ? TRAILERS : CHUNK_DATA;
+            return;
+        case CHUNK_END:
+            state = CHUNK_SIZE;
+            return;
+        case TRAILERS:
+            if (0 == text.length()) {
+                state = DONE;
+            }
+            return;
+        default:
+            throw new IllegalStateException("unexpected state " + state);
+        }
+    }
+
+    private void parseHeader(String text) throws IOException {
+        int colon = text.indexOf(':');
+        if (colon < 1) {
+            throw new IOException("bad header: " + text);
+        }
+        String name = text.substring(0, colon).trim();
+        String value = text.substring(colon + 1).trim();
+        if (name.equalsIgnoreCase("Content-Length")) {
+            try {
+                contentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IOException("bad header: " + text);
+            }
+        } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+            chunked = value.toLowerCase().indexOf("chunked") > -1;
+        } else if (name.equalsIgnoreCase("Connection")) {
+            if (value.equalsIgnoreCase("close")) {
+                keepAlive = false;
+            } else if (value.equalsIgnoreCase("keep-alive")) {
+                keepAlive = true;
+            }
+        }
+    }
+
+    private void startBody() {
+        if ((statusCode >= 100 && statusCode < 200) || 204 == statusCode
+                || 304 == statusCode) {
+            if (statusCode >= 100 && statusCode < 200) {
+                // interim response: the real one follows
+                state = STATUS_LINE;
+                return;
+            }
+            state = DONE;
+        } else if (chunked) {
+            state = CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            remaining = contentLength;
+            state = (0 == remaining) ? DONE : BODY;
+        } else {
+            keepAlive = false;
+            state = UNTIL_CLOSE;
+        }
+    }
+
+    private void consumeBody(ByteBuffer buf) {
+        int length = buf.remaining();
+        if (UNTIL_CLOSE != state && remaining < length) {
+            length = (int) remaining;
+        }
+        if (null != expected) {
+            int start = buf.position();
+            int limit = buf.limit();
+            buf.limit(start + length);
+            expected.update(buf);
+            buf.limit(limit);
+            buf.position(start);
+        }
+        if (null == body) {
+            buf.position(buf.position() + length);
+        } else if (buf.hasArray()) {
+            body.write(buf.array(), buf.arrayOffset() + buf.position(),
+                    length);
+            buf.position(buf.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buf.get(bytes);
+            body.write(bytes, 0, length);
+        }
+        bodyBytes += length;
+        if (UNTIL_CLOSE == state) {
+            return;
+        }
+        remaining -= length;
+        if (0 == remaining) {
+            state = (BODY == state) ? DONE : CHUNK_END;
+        }
+    }
+
+    /**
+     * @return true if the connection can be reused for another request
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getStatusLine() {
+        return statusLine;
+    }
+
+    /**
+     * @return all bytes fed to the parser, including headers
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return body bytes, after removing any chunk framing
+     */
+    long getBodyBytes() {
+        return bodyBytes;
+    }
+
+    /**
+     * @return the body, decoded with the platform charset, or null if it was
+     *         not kept
+     */
+    String getBody() {
+        if (null == body) {
+            return null;
+        }
+        return new String(body.toByteArray());
+    }
+
+}
@@ -20,22 +20,35 @@ package com.marklogic.performance.sampler;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
+import com.marklogic.performance.ArrivalPacer;
+import com.marklogic.performance.ClientOverhead;
+import com.marklogic.performance.ColumnarResultStore;
+import com.marklogic.performance.ConnectionStatistics;
 import com.marklogic.performance.Configuration;
+import com.marklogic.performance.DurationArray;
+import com.marklogic.performance.ExpectedResult;
+import com.marklogic.performance.IntervalRecorder;
+import com.marklogic.performance.LatencyHistogram;
+import com.marklogic.performance.HashedWheelTimer;
+import com.marklogic.performance.HostSelector;
+import com.marklogic.performance.RequestBudget;
 import com.marklogic.performance.Result;
-import com.marklogic.performance.ResultInterface;
+import com.marklogic.performance.ResultLog;
+import com.marklogic.performance.ResultStore;
 import com.marklogic.performance.TestInterface;
 import com.marklogic.performance.TestIterator;
-
-// TODO implement fixed number of test loops (iterations)
+import com.marklogic.performance.TestStatistics;
+import com.marklogic.performance.ThinkTime;
 
 /**
  * @author Ron Avnur, ron.avnur@marklogic.com
@@ -46,15 +59,80 @@ import com.marklogic.performance.TestIterator;
 public abstract class Sampler extends Thread {
     TestIterator testIterator;
 
-    protected List<Result> results;
+    protected ResultStore results;
+
+    // totals for every sample, whether or not results are kept
+    protected TestStatistics statistics;
+
+    // the same, broken down by test name
+    protected Map<String, TestStatistics> testStatistics;
+
+    // by host:port
+    protected Map<String, TestStatistics> hostStatistics;
+
+    protected HostSelector hostSelector;
+
+    // durations measured from the intended start times, if configured
+    protected LatencyHistogram correctedHistogram = null;
+
+    private long expectedIntervalNanos = 0;
+
+    // open-loop tests come from the pacer, if configured
+    protected ArrivalPacer pacer = null;
+
+    // how late paced tests started, if configured
+    protected LatencyHistogram schedulingLagHistogram = null;
+
+    // for live reporting, if configured
+    protected IntervalRecorder intervalRecorder = null;
+
+    // shared stop conditions, if configured
+    protected RequestBudget budget = null;
+
+    // per-stage statistics, if there is a load profile
+    protected IntervalRecorder stageRecorder = null;
+
+    // time spent in the harness, rather than waiting for the server
+    protected ClientOverhead overhead = new ClientOverhead();
+
+    // by Result.PHASE_NAMES, if configured
+    protected LatencyHistogram[] phaseHistograms = null;
+
+    // connection setup, apart from request latency
+    protected ConnectionStatistics connections;
+
+    // set when a load profile no longer needs this sampler
+    protected volatile boolean retired = false;
+
+    private long runStartNanos = -1;
+
+    private long intendedStartNanos = -1;
+
+    // samples outside this window are not summarized
+    private long windowStartNanos = Long.MIN_VALUE;
+
+    private long windowEndNanos = Long.MAX_VALUE;
+
+    private long warmupExcluded = 0;
+
+    private long cooldownExcluded = 0;
+
+    // every duration, for exact percentiles, if configured
+    protected DurationArray durations = null;
 
     Configuration config;
 
     Random random = null;
 
+    // think times, if configured
+    protected Random thinkRandom = null;
+
+    protected HashedWheelTimer timer = null;
+
     private int threadIndex = 0;
 
-    private int errorCount = -1;
+    // individual results are only kept when they will be reported
+    boolean retainResults;
 
     protected static int readsize = Configuration.READSIZE_DEFAULT;
 
@@ -65,6 +143,15 @@ public abstract class Sampler extends Thread {
 
     boolean checkResults = Configuration.CHECKRESULTS_DEFAULT;
 
+    // if false, samplers count response bytes without keeping them
+    protected boolean keepBody = true;
+
+    // checks for the current sample: null to compare the kept text
+    protected ExpectedResult expectedResult = null;
+
+    // by expected result text, with null values for plain text
+    private Map<String, ExpectedResult> expectedResults = new HashMap<String, ExpectedResult>();
+
     String user = Configuration.USER_DEFAULT;
 
     String password = Configuration.PASSWORD_DEFAULT;
@@ -75,16 +162,63 @@ public abstract class Sampler extends Thread {
 
     protected int port = Configuration.PORT_DEFAULT;
 
-    byte[] readBuffer = new byte[readsize];
+    // reused by every read on this sampler's thread
+    private byte[] readBuffer = null;
+
+    // the sampler running on the current thread, which need not be the
+    // sampler itself: see Configuration.THREAD_MODE_KEY
+    private static final ThreadLocal<Sampler> current = new ThreadLocal<Sampler>();
 
     public Sampler(TestIterator ti, Configuration cfg) {
         testIterator = ti;
         config = cfg;
+        retainResults = cfg.isRetainResults();
         // ensure that results are never null
-        results = new ArrayList<Result>();
+        // recorded query results may be huge, so they go to disk
+        if (retainResults && cfg.getRecordResults()
+                && cfg.isSpillResults()) {
+            results = new ResultLog(new File(cfg.getSpillPath()));
+        } else {
+            results = new ColumnarResultStore();
+        }
+        statistics = new TestStatistics(null, cfg
+                .getHistogramSignificantDigits());
+        testStatistics = new HashMap<String, TestStatistics>();
+        hostStatistics = new HashMap<String, TestStatistics>();
+        hostSelector = cfg.getHostSelector();
+        connections = new ConnectionStatistics(cfg
+                .getHistogramSignificantDigits());
+        if (cfg.isReportPhases()) {
+            phaseHistograms = new LatencyHistogram[Result.PHASE_NAMES.length];
+            for (int i = 0; i < phaseHistograms.length; i++) {
+                phaseHistograms[i] = new LatencyHistogram(cfg
+                        .getHistogramSignificantDigits());
+            }
+        }
+        if (cfg.getReportIntervalSeconds() > 0) {
+            intervalRecorder = new IntervalRecorder(cfg
+                    .getHistogramSignificantDigits());
+        }
+        if (null != cfg.getLoadProfile()) {
+            stageRecorder = new IntervalRecorder(cfg
+                    .getHistogramSignificantDigits(), true);
+        }
+        if (cfg.isExactPercentiles()) {
+            durations = new DurationArray();
+        }
+        expectedIntervalNanos = cfg.getExpectedIntervalNanos();
+        if (cfg.isCorrectedLatency()) {
+            correctedHistogram = new LatencyHistogram(cfg
+                    .getHistogramSignificantDigits());
+        }
+        if (cfg.isTargetRate()) {
+            schedulingLagHistogram = new LatencyHistogram(cfg
+                    .getHistogramSignificantDigits());
+        }
     }
 
     public Result sample(TestInterface test) {
+        long queryStart = System.nanoTime();
         String name = test.getName();
         String query = null;
         try {
@@ -94,17 +228,27 @@ public abstract class Sampler extends Thread {
             throw new SamplerException(e);
         }
         Result res = new Result(name, test.getCommentExpectedResult());
+        // every request chooses its host, to balance load
+        HostSelector.Host target = hostSelector.select();
+        host = target.getName();
+        port = target.getPort();
+        res.setHost(target.toString());
+        hostSelector.begin(target);
         res.setStart();
+        overhead.add(ClientOverhead.QUERY, res.getStartNanos() - queryStart);
+        expectedResult = checkResults ? getExpectedResult(
+                expectedResults, test.getCommentExpectedResult()) : null;
         try {
+            // the sampler has counted the response bytes, and checked them
             String responseData = sample(res, query, test);
-            res.incrementBytesReceived(responseData.length());
-            if (!config.isReportTime() || config.getRecordResults()) {
-                // TODO query result should be byte[] for binary results?
+            if (keepBody) {
                 res.setQueryResult(responseData);
             }
             if (checkResults
-                    && !test.getCommentExpectedResult().equals(
-                            res.getQueryResult())) {
+                    && !(null == expectedResult ? test
+                            .getCommentExpectedResult().equals(
+                                    res.getQueryResult()) : expectedResult
+                            .matches())) {
                 res.setError(true);
             }
         } catch (RuntimeException e) {
@@ -121,75 +265,397 @@ public abstract class Sampler extends Thread {
                             + (null != name ? name : query) + ": "
                             + errorMessage);
             res.setError(true);
-            if (!config.isReportTime() || config.getRecordResults()) {
+            if (keepBody) {
                 res.setQueryResult(errorMessage);
             }
         }
         res.setEnd();
+        hostSelector.end(target, res.getDurationNanos(), res.isError());
         return res;
     }
 
+    /**
+     * @param result
+     * @param query
+     * @param test
+     * @return the response, or null if keepBody is false. Either way, the
+     *         sampler must count the response bytes received, and feed the
+     *         same bytes to any expectedResult, before they are decoded.
+     * @throws Exception
+     */
     // TODO query result should be byte[] for binary results?
     protected abstract String sample(Result result, String query,
             TestInterface test) throws Exception;
 
+    /**
+     * Fold a completed result into the statistics for this sampler.
+     *
+     * @param res
+     */
+    protected void record(Result res) {
+        record(res, -1);
+    }
+
+    /**
+     * @param res
+     * @param intendedStartNanos
+     *            when the pacer scheduled the test to start, or -1 for
+     *            closed-loop tests
+     */
+    protected void record(Result res, long intendedStartNanos) {
+        long recordStart = System.nanoTime();
+        if (res.getStartNanos() < windowStartNanos) {
+            warmupExcluded++;
+        } else if (res.getEndNanos() > windowEndNanos) {
+            cooldownExcluded++;
+        } else {
+            summarize(res, intendedStartNanos);
+        }
+        // live reports and individual results include every sample
+        if (null != intervalRecorder) {
+            intervalRecorder.record(res);
+        }
+        if (null != stageRecorder) {
+            stageRecorder.record(res);
+        }
+        if (null != budget) {
+            budget.addBytes(threadIndex, res.getBytesSent()
+                    + res.getBytesReceived());
+        }
+        if (retainResults) {
+            try {
+                results.add(res);
+            } catch (IOException e) {
+                // turn this into a fatal runtime exception
+                throw new SamplerException(e);
+            }
+        }
+        overhead.add(ClientOverhead.RECORD, System.nanoTime() - recordStart);
+    }
+
+    private void summarize(Result res, long intendedStartNanos) {
+        statistics.record(res);
+        String name = res.getTestName();
+        TestStatistics byName = testStatistics.get(name);
+        if (null == byName) {
+            byName = new TestStatistics(name, config
+                    .getHistogramSignificantDigits());
+            testStatistics.put(name, byName);
+        }
+        byName.record(res);
+        if (null != res.getHost()) {
+            TestStatistics byHost = hostStatistics.get(res.getHost());
+            if (null == byHost) {
+                byHost = new TestStatistics(res.getHost(), config
+                        .getHistogramSignificantDigits());
+                hostStatistics.put(res.getHost(), byHost);
+            }
+            byHost.record(res);
+        }
+        if (intendedStartNanos >= 0) {
+            correctedHistogram.recordValue(res.getEndNanos()
+                    - intendedStartNanos);
+            schedulingLagHistogram.recordValue(res.getStartNanos()
+                    - intendedStartNanos);
+        } else if (null != correctedHistogram) {
+            recordCorrected(res);
+        }
+        if (null != durations) {
+            durations.add(res.getDurationNanos());
+        }
+        if (null != phaseHistograms && res.hasPhases()) {
+            for (int i = 0; i < phaseHistograms.length; i++) {
+                phaseHistograms[i].recordValue(res.getPhaseNanos(i));
+            }
+        }
+    }
+
+    /**
+     * Set the measurement window from the shared start of the run, so that
+     * every sampler uses the same cutoffs. Must be called before the
+     * sampler starts.
+     *
+     * @param startNanos
+     */
+    public void setRunStartNanos(long startNanos) {
+        runStartNanos = startNanos;
+        windowStartNanos = startNanos + config.getWarmupNanos();
+        if (config.getCooldownNanos() > 0) {
+            windowEndNanos = startNanos + config.getTestTimeNanos()
+                    - config.getCooldownNanos();
+        }
+    }
+
+    /**
+     * @return the number of samples that started during the warm-up period
+     */
+    public long getWarmupExcludedCount() {
+        return warmupExcluded;
+    }
+
+    /**
+     * @return the number of samples that ended during the cool-down period
+     */
+    public long getCooldownExcludedCount() {
+        return cooldownExcluded;
+    }
+
+    /**
+     * Correct for coordinated omission: a closed-loop sampler stops issuing
+     * requests while the server stalls, so the requests it would have sent
+     * never see the stall. Each test is intended to start one interval after
+     * the previous intended start, or at its actual start if that is
+     * earlier. Measuring from the intended start charges queued-up requests
+     * with the time they would have waited.
+     *
+     * @param res
+     */
+    private void recordCorrected(Result res) {
+        if (intendedStartNanos < 0) {
+            intendedStartNanos = res.getStartNanos();
+        } else {
+            intendedStartNanos = Math.min(res.getStartNanos(),
+                    intendedStartNanos + expectedIntervalNanos);
+        }
+        correctedHistogram.recordValue(res.getEndNanos()
+                - intendedStartNanos);
+    }
+
+    /**
+     * @return the number of samples recorded, even if the individual
+     *         results were not kept
+     */
     public int getResultsCount() {
-        return results.size();
+        return (int) statistics.getNumberOfTests();
+    }
+
+    /**
+     * @return running totals for every sample recorded by this sampler
+     */
+    public TestStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return
+     */
+    public double getStandardDeviationNanos() {
+        return statistics.getStandardDeviationNanos();
+    }
+
+    /**
+     * @return
+     */
+    public LatencyHistogram getHistogram() {
+        return statistics.getHistogram();
+    }
+
+    /**
+     * @return durations from intended start times, or null if coordinated
+     *         omission correction is not configured
+     */
+    public LatencyHistogram getCorrectedHistogram() {
+        return correctedHistogram;
+    }
+
+    /**
+     * @return every duration recorded, or null if exact percentiles are not
+     *         configured
+     */
+    public DurationArray getDurations() {
+        return durations;
+    }
+
+    /**
+     * @return how late each paced test started, or null if there is no
+     *         target rate
+     */
+    public LatencyHistogram getSchedulingLagHistogram() {
+        return schedulingLagHistogram;
+    }
+
+    /**
+     * Take tests from the pacer, rather than the test iterator. Must be
+     * called before the sampler starts.
+     *
+     * @param _pacer
+     */
+    public void setPacer(ArrivalPacer _pacer) {
+        pacer = _pacer;
+    }
+
+    /**
+     * @param _budget
+     *            shared stop conditions
+     */
+    public void setBudget(RequestBudget _budget) {
+        budget = _budget;
+    }
+
+    /**
+     * @return statistics for live reporting, or null if not configured
+     */
+    public IntervalRecorder getIntervalRecorder() {
+        return intervalRecorder;
+    }
+
+    /**
+     * @return statistics for each stage of the load profile, or null if not
+     *         configured
+     */
+    public IntervalRecorder getStageRecorder() {
+        return stageRecorder;
+    }
+
+    /**
+     * Ask this sampler to stop after its current test, because the load
+     * profile calls for fewer threads.
+     */
+    public void retire() {
+        retired = true;
+    }
+
+    /**
+     * @return when a timed loop should start counting: with a load profile,
+     *         samplers may start mid-run, but they all end together
+     */
+    protected long getLoopStartNanos() {
+        if (null != config.getLoadProfile() && runStartNanos > 0) {
+            return runStartNanos;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * @return time spent in the harness, with CPU time for the sampler
+     *         thread once it has finished
+     */
+    public ClientOverhead getClientOverhead() {
+        return overhead;
+    }
+
+    /**
+     * @return times for each request phase, by Result.PHASE_NAMES, or null
+     *         if not configured
+     */
+    public LatencyHistogram[] getPhaseHistograms() {
+        return phaseHistograms;
+    }
+
+    /**
+     * @return connections opened by this sampler, and their setup times
+     */
+    public ConnectionStatistics getConnectionStatistics() {
+        return connections;
+    }
+
+    /**
+     * Open any connections that this sampler will keep, before the run
+     * starts, so that setup time stays out of the first samples. Samplers
+     * that do not keep connections do nothing.
+     *
+     * @throws Exception
+     */
+    public void prewarm() throws Exception {
+        // nothing to do
+    }
+
+    /**
+     * Close any connections that this sampler kept. Called at the end of
+     * run().
+     */
+    protected void closeConnections() {
+        // nothing to do
     }
 
-    public List<Result> getResults() {
+    /**
+     * @return statistics for each test name, as recorded by this sampler
+     */
+    public Map<String, TestStatistics> getTestStatistics() {
+        return testStatistics;
+    }
+
+    /**
+     * @return statistics by host:port, for results tagged with a host
+     */
+    public Map<String, TestStatistics> getHostStatistics() {
+        return hostStatistics;
+    }
+
+    /**
+     * @return individual results, if they were kept
+     */
+    public ResultStore getResultStore() {
         return results;
     }
 
-    public ResultInterface[] getResultsArray() {
-        return results.toArray(new Result[0]);
+    /**
+     * @return the sampler running on the current thread, or null
+     */
+    public static Sampler current() {
+        return current.get();
     }
 
     public void run() {
-        // cache this stuff in case there's synchronization
-        readsize = config.getReadSize();
-        recordResults = config.getRecordResults();
-        reportTime = config.isReportTime();
-        checkResults = config.checkResults();
-        user = config.getUser();
-        password = config.getPassword();
-        host = config.getHost();
-        port = config.getPort();
-        protocol = config.getProtocol();
+        current.set(this);
+        // measured on whichever thread runs this sampler
+        long cpuStart = ClientOverhead.getCurrentThreadCpuNanos();
+        long runStart = System.nanoTime();
+        try {
+            runTests();
+        } finally {
+            long cpuEnd = ClientOverhead.getCurrentThreadCpuNanos();
+            overhead.setRun(System.nanoTime() - runStart,
+                    (cpuStart < 0 || cpuEnd < 0) ? -1 : cpuEnd - cpuStart);
+            closeConnections();
+            current.remove();
+        }
+    }
 
-        // random tests need some extra setup
-        // if shared, set up just once
-        if (config.isRandomTest()
-                && (0 == threadIndex || !config.isShared())) {
-            System.err.println("setting up for random test on "
-                    + threadIndex);
-            random = new Random();
-            long randomSeed = config.getRandomSeed();
-            if (randomSeed != Configuration.RANDOMSEED_DEFAULT) {
-                // adjust for thread identity: the exact technique
-                // shouldn't matter much
-                randomSeed = randomSeed + threadIndex;
-                random.setSeed(randomSeed);
-            }
+    /**
+     * The body of run(). Subclasses with their own loop should override
+     * this, rather than run().
+     */
+    protected void runTests() {
+        configure();
+
+        if (null != pacer) {
+            runPaced();
+            return;
         }
 
+        setupRandom();
+
         // timed test: run for a specified number of seconds
-        // not timed test: run once
-        long startTime = System.nanoTime();
+        // not timed test: run once, or until a loop or request limit
+        long startTime = getLoopStartNanos();
         long testTimeNanos = config.getTestTimeNanos();
-        long lastConfigUpdate = startTime;
-        long updateNanos = Configuration.NANOS_PER_SECOND;
-        long thinkMillis = config.getThinkMillis();
-        long nowTime;
+        boolean repeat = config.isRepeatingTest();
+        long loopsPerThread = config.getLoopsPerThread();
+        long loops = 0;
+        boolean spent = false;
+        long thinkNanos, mark;
+        TestInterface test;
         do {
             // if shared, only thread 0 will actually shuffle
             // the other threads might stall while this happens...
             // do we really need to shuffle again? new option?
             if (null != random) {
+                mark = System.nanoTime();
                 testIterator.shuffle(random);
+                overhead.add(ClientOverhead.ITERATOR, System.nanoTime()
+                        - mark);
             }
-            while (testIterator.hasNext()) {
-                results.add(sample(testIterator.next()));
+            while (!retired && testIterator.hasNext()) {
+                mark = System.nanoTime();
+                if (null != budget && !budget.tryAcquire(threadIndex)) {
+                    spent = true;
+                    break;
+                }
+                test = testIterator.next();
+                overhead.add(ClientOverhead.ITERATOR, System.nanoTime()
+                        - mark);
+                record(sample(test));
                 if (0 != testTimeNanos) {
                     if (testTimeNanos < System.nanoTime() - startTime) {
                         // end of the timed test
@@ -198,43 +664,115 @@ public abstract class Sampler extends Thread {
                 }
 
                 // try to avoid thread starvation
+                mark = System.nanoTime();
                 yield();
-                if (0 != thinkMillis) {
-                    try {
-                        Thread.sleep(thinkMillis);
-                    } catch (InterruptedException e) {
-                        // reset interrupt status and continue
-                        Thread.interrupted();
-                    }
-                }
-
-                // config may contain multiple hosts,
-                // so balance load by updating once in a while,
-                // but not every time, or we have locking issues.
-                nowTime = System.nanoTime();
-                if (nowTime - updateNanos > lastConfigUpdate) {
-                    host = config.getHost();
-                    lastConfigUpdate = System.nanoTime();
+                overhead.add(ClientOverhead.YIELD, System.nanoTime() - mark);
+                thinkNanos = nextThinkNanos(test);
+                if (0 != thinkNanos) {
+                    // parked, rather than sleeping on a timer of its own
+                    timer.park(thinkNanos);
                 }
             }
 
-            if (0 == testTimeNanos) {
+            loops++;
+            if (!repeat || retired || spent) {
                 // no more tests to run: exit the loop
                 break;
             }
 
-            if (testTimeNanos < System.nanoTime() - startTime) {
+            if (loopsPerThread > 0 && loops >= loopsPerThread) {
+                break;
+            }
+
+            if (0 != testTimeNanos
+                    && testTimeNanos < System.nanoTime() - startTime) {
                 // end of the timed test
                 break;
             }
+            mark = System.nanoTime();
             testIterator.reset();
-        } while (testTimeNanos != 0);
+            overhead.add(ClientOverhead.ITERATOR, System.nanoTime() - mark);
+        } while (true);
+    }
+
+    /**
+     * Called at the start of run().
+     */
+    protected void configure() {
+        // cache this stuff in case there's synchronization
+        readsize = config.getReadSize();
+        recordResults = config.getRecordResults();
+        reportTime = config.isReportTime();
+        checkResults = config.checkResults();
+        // results may be checked as they stream in
+        keepBody = !reportTime || recordResults;
+        user = config.getUser();
+        password = config.getPassword();
+        host = config.getHost();
+        port = config.getPort();
+        protocol = config.getProtocol();
+        if (config.hasThinkTime()) {
+            thinkRandom = new Random();
+            long randomSeed = config.getRandomSeed();
+            if (randomSeed != Configuration.RANDOMSEED_DEFAULT) {
+                thinkRandom.setSeed(randomSeed + threadIndex);
+            }
+            timer = HashedWheelTimer.getInstance();
+        }
+    }
+
+    /**
+     * @param test
+     *            the test that just finished
+     * @return nanoseconds to wait before the next test
+     */
+    protected long nextThinkNanos(TestInterface test) {
+        if (null == thinkRandom) {
+            return 0;
+        }
+        ThinkTime thinkTime = config.getThinkTime(test.getName());
+        if (null == thinkTime) {
+            return 0;
+        }
+        return thinkTime.nextNanos(thinkRandom);
+    }
+
+    /**
+     * Random tests need some extra setup: if shared, set up just once.
+     */
+    protected void setupRandom() {
+        if (config.isRandomTest()
+                && (0 == threadIndex || !config.isShared())) {
+            System.err.println("setting up for random test on "
+                    + threadIndex);
+            random = new Random();
+            long randomSeed = config.getRandomSeed();
+            if (randomSeed != Configuration.RANDOMSEED_DEFAULT) {
+                // adjust for thread identity: the exact technique
+                // shouldn't matter much
+                randomSeed = randomSeed + threadIndex;
+                random.setSeed(randomSeed);
+            }
+        }
+    }
+
+    /**
+     * Open loop: run each test when the pacer hands it over, until the pacer
+     * reaches the end of the run.
+     */
+    private void runPaced() {
+        ArrivalPacer.Arrival arrival;
+        while (null != (arrival = pacer.take())) {
+            record(sample(arrival.getTest()), arrival
+                    .getIntendedStartNanos());
+        }
     }
 
     void printResults() {
         System.out.println(results.size());
-        for (int i = 0; i < results.size(); i++) {
-            results.get(i).print();
+        Iterator<Result> iter = results.iterator();
+        while (iter.hasNext()) {
+            iter.next().print();
         }
     }
 
@@ -242,41 +780,21 @@ public abstract class Sampler extends Thread {
      * @return
      */
     public long getMinDurationNanos() {
-        long min = Long.MAX_VALUE;
-        long d;
-        for (int i = 0; i < results.size(); i++) {
-            d = results.get(i).getDurationNanos();
-            if (d < min) {
-                min = d;
-            }
-        }
-        return min;
+        return statistics.getMinNanos();
     }
 
     /**
      * @return
      */
     public long getMaxDurationNanos() {
-        long max = Long.MIN_VALUE;
-        long d;
-        for (int i = 0; i < results.size(); i++) {
-            d = results.get(i).getDurationNanos();
-            if (d > max) {
-                max = d;
-            }
-        }
-        return max;
+        return statistics.getMaxNanos();
     }
 
     /**
      * @return
      */
     public long getTotalNanos() {
-        long tm = 0;
-        for (int i = 0; i < results.size(); i++) {
-            tm += results.get(i).getDurationNanos();
-        }
-        return tm;
+        return statistics.getTotalNanos();
     }
 
     /**
@@ -290,22 +808,14 @@ public abstract class Sampler extends Thread {
      * @return
      */
     public long getBytesSent() {
-        long bs = 0;
-        for (int i = 0; i < results.size(); i++) {
-            bs += results.get(i).getBytesSent();
-        }
-        return bs;
+        return statistics.getBytesSent();
     }
 
     /**
      * @return
      */
     public long getBytesReceived() {
-        long br = 0;
-        for (int i = 0; i < results.size(); i++) {
-            br += results.get(i).getBytesReceived();
-        }
-        return br;
+        return statistics.getBytesReceived();
     }
 
     /**
@@ -327,20 +837,7 @@ public abstract class Sampler extends Thread {
      * @return
      */
     public int getErrorCount() {
-        if (errorCount > -1) {
-            return errorCount;
-        }
-
-        Result r = null;
-        Iterator<Result> i = results.iterator();
-        errorCount = 0;
-        while (i.hasNext()) {
-            r = i.next();
-            if (r.isError()) {
-                errorCount++;
-            }
-        }
-        return errorCount;
+        return (int) statistics.getNumberOfErrors();
     }
 
     protected HttpURLConnection setupConnection(URL url,
@@ -349,18 +846,26 @@ public abstract class Sampler extends Thread {
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
         // using keep-alive
         conn.setRequestProperty("Connection", "keep-alive");
+        conn.setRequestProperty("Authorization", getAuthorization(test));
+        return conn;
+    }
+
+    /**
+     * @param test
+     * @return the value of an HTTP Authorization header for this test
+     */
+    protected String getAuthorization(TestInterface test) {
         // TODO implement digest authentication
         // use the test-specific user and password if available,
         // otherwise fall back on the config user and password.
         String testUser = test.getUser();
         String testPassword = test.getPassword();
-        conn.setRequestProperty("Authorization", "Basic "
+        return "Basic "
                 + Base64Encoder.encode(((null == testUser) ? user
                         : testUser)
                         + ":"
                         + ((null == testPassword) ? password
-                                : testPassword)));
-        return conn;
+                                : testPassword));
     }
 
     protected byte[] readResponse(HttpURLConnection conn)
@@ -372,6 +877,7 @@ public abstract class Sampler extends Thread {
             throws IOException {
         ByteArrayOutputStream w = null;
         BufferedInputStream bin = null;
+        byte[] readBuffer = getReadBuffer();
         try {
             bin = new BufferedInputStream(in);
             w = new ByteArrayOutputStream();
@@ -392,4 +898,64 @@ public abstract class Sampler extends Thread {
         }
     }
 
+    /**
+     * @return this sampler's read buffer, allocated on first use
+     */
+    private byte[] getReadBuffer() {
+        if (null == readBuffer || readBuffer.length != readsize) {
+            readBuffer = new byte[readsize];
+        }
+        return readBuffer;
+    }
+
+    /**
+     * @param cache
+     *            checks already made, by expected result
+     * @param expected
+     * @return a reset check for the expected result, or null if the text
+     *         should be compared with the kept response
+     */
+    protected ExpectedResult getExpectedResult(
+            Map<String, ExpectedResult> cache, String expected) {
+        ExpectedResult check = cache.get(expected);
+        if (null == check && !cache.containsKey(expected)) {
+            check = ExpectedResult.parse(expected);
+            if (null == check && !keepBody && null != expected) {
+                check = ExpectedResult.forText(expected);
+            }
+            cache.put(expected, check);
+        }
+        if (null != check) {
+            check.reset();
+        }
+        return check;
+    }
+
+    /**
+     * Read a response to the end without keeping it.
+     *
+     * @param in
+     * @param expected
+     *            if not null, checks the response as it is read
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    protected long discardResponse(InputStream in, ExpectedResult expected)
+            throws IOException {
+        byte[] readBuffer = getReadBuffer();
+        long total = 0;
+        try {
+            int actual = 0;
+            while ((actual = in.read(readBuffer)) > -1) {
+                total += actual;
+                if (null != expected) {
+                    expected.update(readBuffer, 0, actual);
+                }
+            }
+            return total;
+        } finally {
+            in.close();
+        }
+    }
+
 }
\ No newline at end of file
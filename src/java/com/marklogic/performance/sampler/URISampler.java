@@ -18,9 +18,6 @@
  */
 package com.marklogic.performance.sampler;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
-
 import com.marklogic.performance.Configuration;
 import com.marklogic.performance.Result;
 import com.marklogic.performance.TestInterface;
@@ -30,7 +27,7 @@ import com.marklogic.performance.TestIterator;
  * this class expects the query to contain a simple URI, which it attempts to
  * GET from the server
  */
-public class URISampler extends Sampler {
+public class URISampler extends HTTPSampler {
 
     public URISampler(TestIterator ti, Configuration cfg) {
         super(ti, cfg);
@@ -44,12 +41,9 @@ public class URISampler extends Sampler {
         if (null == uri) {
             throw new NullPointerException("uri is null");
         }
-        HttpURLConnection conn = setupConnection(new URL(protocol, host,
-                port, uri), test);
-        conn.setRequestMethod("GET");
-        conn.setDoOutput(true);
-        result.incrementBytesSent(uri.length());
-        return new String(readResponse(conn));
+        return request(result, HttpConnection.formatRequest("GET", uri,
+                host + ":" + port, getAuthorization(test), pooled, null,
+                null));
     }
 
 }
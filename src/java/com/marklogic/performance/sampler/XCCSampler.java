@@ -23,12 +23,17 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import com.marklogic.performance.Configuration;
+import com.marklogic.performance.HostSelector;
 import com.marklogic.performance.Result;
 import com.marklogic.performance.TestInterface;
 import com.marklogic.performance.TestIterator;
@@ -48,10 +53,67 @@ import com.marklogic.xcc.types.XdmVariable;
  */
 public class XCCSampler extends Sampler {
 
+    /**
+     * a cheap query, to open a connection before the run starts
+     */
+    private static final String PREWARM_QUERY = "()";
+
+    /**
+     * Identifies a content source, without building a string that holds
+     * the password.
+     */
+    private static class SourceKey {
+
+        private String host;
+
+        private int port;
+
+        private String user;
+
+        private String password;
+
+        SourceKey(String _host, int _port, String _user, String _password) {
+            host = _host;
+            port = _port;
+            user = _user;
+            password = _password;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SourceKey)) {
+                return false;
+            }
+            SourceKey other = (SourceKey) obj;
+            return port == other.port && equals(host, other.host)
+                    && equals(user, other.user)
+                    && equals(password, other.password);
+        }
+
+        private static boolean equals(String a, String b) {
+            return null == a ? null == b : a.equals(b);
+        }
+
+        public int hashCode() {
+            int hash = port;
+            hash = 31 * hash + (null == host ? 0 : host.hashCode());
+            hash = 31 * hash + (null == user ? 0 : user.hashCode());
+            return 31 * hash + (null == password ? 0 : password.hashCode());
+        }
+
+    }
+
+    // shared by every sampler, so that XCC can reuse its connections
+    private static final Map<SourceKey, ContentSource> contentSources = new ConcurrentHashMap<SourceKey, ContentSource>();
+
     protected SecurityOptions securityOptions;
 
     protected boolean isSecure = false;
 
+    protected boolean pooled;
+
+    // kept between requests, by host and credentials
+    private Map<SourceKey, Session> sessions = new HashMap<SourceKey, Session>();
+
     /**
      * @param ti
      * @param cfg
@@ -65,23 +127,21 @@ public class XCCSampler extends Sampler {
         if (isSecure) {
             securityOptions = newTrustAnyoneOptions();
         }
+        pooled = cfg.isPooledConnections();
     }
 
     public String sample(Result result, String query, TestInterface test)
             throws Exception {
         // time to make sure we have a connection:
         // do this per sample, in case Java's thread management isn't fair
-        // new connection every time, to distribute load more evenly
+        // pooled sessions are kept by host, to distribute load evenly
         String testUser = test.getUser();
         String testPassword = test.getPassword();
         testUser = (null == testUser) ? user : testUser;
         testPassword = (null == testPassword) ? password : testPassword;
-        StringBuffer resultsBuffer = new StringBuffer();
-        ContentSource cs = isSecure ? ContentSourceFactory
-                .newContentSource(host, port, user, password, null,
-                        securityOptions) : ContentSourceFactory
-                .newContentSource(host, port, testUser, testPassword);
-        Session sess = cs.newSession();
+        StringBuffer resultsBuffer = keepBody ? new StringBuffer() : null;
+        Session sess = getSession(testUser, testPassword);
+        boolean failed = true;
 
         try {
             // do not cache results, in case recordResults=false
@@ -96,14 +156,138 @@ public class XCCSampler extends Sampler {
 
             // handle results
             InputStream buf = null;
+            byte[] bytes;
             while (rs.hasNext()) {
                 buf = rs.next().asInputStream();
-                resultsBuffer.append(new String(readResponse(buf)));
+                if (keepBody) {
+                    bytes = readResponse(buf);
+                    result.incrementBytesReceived(bytes.length);
+                    if (null != expectedResult) {
+                        expectedResult.update(bytes, 0, bytes.length);
+                    }
+                    resultsBuffer.append(new String(bytes));
+                } else {
+                    result.incrementBytesReceived(discardResponse(buf,
+                            expectedResult));
+                }
             }
+            failed = false;
         } finally {
+            if (!pooled || failed) {
+                // a failed session might not be reusable
+                releaseSession(testUser, testPassword, sess);
+            }
+        }
+        return keepBody ? resultsBuffer.toString() : null;
+    }
+
+    /**
+     * @param _user
+     * @param _password
+     * @return a kept session, or a new one
+     */
+    private Session getSession(String _user, String _password) {
+        SourceKey key = getKey(host, _user, _password);
+        Session sess = pooled ? sessions.get(key) : null;
+        if (null != sess && !sess.isClosed()) {
+            return sess;
+        }
+        // XCC connects lazily, within the first request on the session,
+        // so there is no connect time to record here
+        sess = getContentSource(key, _user, _password).newSession();
+        if (pooled) {
+            sessions.put(key, sess);
+        }
+        return sess;
+    }
+
+    private void releaseSession(String _user, String _password,
+            Session sess) {
+        sess.close();
+        if (pooled) {
+            sessions.remove(getKey(host, _user, _password));
+        }
+    }
+
+    /**
+     * @param key
+     * @param _user
+     * @param _password
+     * @return a shared content source, or a new one per request
+     */
+    private ContentSource getContentSource(SourceKey key, String _user,
+            String _password) {
+        ContentSource cs = pooled ? contentSources.get(key) : null;
+        if (null != cs) {
+            return cs;
+        }
+        cs = isSecure ? ContentSourceFactory.newContentSource(host, port,
+                _user, _password, null, securityOptions)
+                : ContentSourceFactory.newContentSource(host, port, _user,
+                        _password);
+        if (pooled) {
+            // another sampler may have beaten us to it: harmless
+            contentSources.put(key, cs);
+        }
+        return cs;
+    }
+
+    private SourceKey getKey(String _host, String _user, String _password) {
+        return new SourceKey(_host, port, _user, _password);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.marklogic.performance.sampler.Sampler#prewarm()
+     */
+    public void prewarm() throws Exception {
+        if (!pooled) {
+            return;
+        }
+        configure();
+        // the sampler may move between hosts, so warm up each one
+        HostSelector.Host[] hosts = hostSelector.getHosts();
+        String currentHost = host;
+        int currentPort = port;
+        try {
+            for (int i = 0; i < hosts.length; i++) {
+                host = hosts[i].getName();
+                port = hosts[i].getPort();
+                prewarmSession();
+            }
+        } finally {
+            host = currentHost;
+            port = currentPort;
+        }
+    }
+
+    private void prewarmSession() throws Exception {
+        // XCC connects lazily, so a query is needed to open the socket
+        SourceKey key = getKey(host, user, password);
+        Session sess = getContentSource(key, user, password).newSession();
+        try {
+            sess.submitRequest(
+                    sess.newAdhocQuery(PREWARM_QUERY, sess
+                            .getDefaultRequestOptions())).close();
+        } catch (Exception e) {
             sess.close();
+            throw e;
+        }
+        sessions.put(key, sess);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.marklogic.performance.sampler.Sampler#closeConnections()
+     */
+    protected void closeConnections() {
+        Iterator<Session> iter = sessions.values().iterator();
+        while (iter.hasNext()) {
+            iter.next().close();
         }
-        return resultsBuffer.toString();
+        sessions.clear();
     }
 
     /**
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ArrivalPacerTest extends TestCase {
+
+    static class NamedTest extends AbstractTest {
+        NamedTest(String _name) {
+            name = _name;
+        }
+    }
+
+    static class NamedTestList extends TestList {
+        NamedTestList(String[] names) {
+            for (int i = 0; i < names.length; i++) {
+                tests.add(new NamedTest(names[i]));
+            }
+        }
+    }
+
+    public void testUntimedSchedule() {
+        Properties props = new Properties();
+        // 1000 tests/sec overall, and 100 tests/sec for the slow test
+        props.setProperty("targetRate", "1000");
+        props.setProperty("targetRate.slow", "100");
+        Configuration config = new Configuration(props);
+        assertTrue(config.isTargetRate());
+        assertTrue(config.isCorrectedLatency());
+        ArrivalPacer pacer = new ArrivalPacer(config, new NamedTestList(
+                new String[] { "fast", "slow", "fast", "slow", "fast" }));
+        assertEquals(1100.0, pacer.getRequestedRate());
+
+        long start = System.nanoTime();
+        pacer.startPacing(start);
+        long lastFast = -1;
+        long lastSlow = -1;
+        int count = 0;
+        ArrivalPacer.Arrival arrival;
+        while (null != (arrival = pacer.take())) {
+            count++;
+            long intended = arrival.getIntendedStartNanos() - start;
+            if (arrival.getTest().getName().equals("fast")) {
+                assertEquals(lastFast + 1, intended
+                        / Configuration.NANOS_PER_MILLI);
+                lastFast++;
+            } else {
+                assertEquals(10 * (lastSlow + 1), intended
+                        / Configuration.NANOS_PER_MILLI);
+                lastSlow++;
+            }
+            // never handed over early
+            assertTrue(System.nanoTime() >= arrival.getIntendedStartNanos());
+        }
+        // each test exactly once, and the end marker stays visible
+        assertEquals(5, count);
+        assertNull(pacer.take());
+        assertEquals(5, pacer.getIssuedCount());
+        assertEquals(0, pacer.getUnstartedCount());
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ClientOverheadTest extends TestCase {
+
+    public void testMerge() {
+        ClientOverhead a = new ClientOverhead();
+        a.add(ClientOverhead.QUERY, 10);
+        a.add(ClientOverhead.RECORD, 30);
+        a.setRun(1000, 200);
+        ClientOverhead b = new ClientOverhead();
+        b.add(ClientOverhead.QUERY, 20);
+        b.add(ClientOverhead.YIELD, 40);
+        // no CPU time, as for some virtual threads
+        b.setRun(1000, -1);
+
+        ClientOverhead total = new ClientOverhead();
+        total.add(a);
+        total.add(b);
+        assertEquals(30, total.getNanos(ClientOverhead.QUERY));
+        assertEquals(0, total.getNanos(ClientOverhead.ITERATOR));
+        assertEquals(100, total.getTotalNanos());
+        assertEquals(2000, total.getRunNanos());
+        assertEquals(200, total.getCpuNanos());
+        assertEquals(1, total.getCpuUnavailableCount());
+        assertEquals(0.05, total.getShare(), 1e-9);
+        assertEquals(0.0, new ClientOverhead().getShare());
+    }
+
+    public void testMeasurements() {
+        long cpu = ClientOverhead.getCurrentThreadCpuNanos();
+        assertTrue(cpu == -1 || cpu > 0);
+        assertTrue(ClientOverhead.getCollectionNanos() >= 0);
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ColumnarResultStoreTest extends TestCase {
+
+    public void testAcrossChunks() {
+        ColumnarResultStore store = new ColumnarResultStore();
+        int size = 2 * ColumnarResultStore.CHUNK_SIZE + 3;
+        for (int i = 0; i < size; i++) {
+            Result r = new Result("test" + (i % 4), null);
+            r.setStart(i);
+            r.setEnd(3 * i);
+            r.setError(0 == i % 11);
+            if (i == size - 1) {
+                r.setQueryResult("last");
+            }
+            store.add(r);
+        }
+        assertEquals(size, store.size());
+        assertEquals(2 * (size - 1), store.getDurationNanos(size - 1));
+
+        Iterator<Result> iter = store.iterator();
+        int i = 0;
+        Result r = null;
+        while (iter.hasNext()) {
+            r = iter.next();
+            assertEquals("test" + (i % 4), r.getTestName());
+            assertEquals(i, r.getStartNanos());
+            assertEquals(3 * i, r.getEndNanos());
+            assertEquals(0 == i % 11, r.isError());
+            i++;
+        }
+        assertEquals(size, i);
+        assertEquals("last", r.getQueryResult());
+        assertNull(store.get(0).getQueryResult());
+    }
+
+}
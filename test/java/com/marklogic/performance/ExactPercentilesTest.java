@@ -0,0 +1,67 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ExactPercentilesTest extends TestCase {
+
+    public void testMergeMatchesGlobalSort() {
+        Random random = new Random(42);
+        DurationArray[] runs = new DurationArray[7];
+        long[] all = new long[7 * 1000];
+        int n = 0;
+        long value;
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = new DurationArray();
+            // uneven lengths, including one empty run
+            for (int j = 0; j < i * 250; j++) {
+                value = random.nextInt(1000000);
+                runs[i].add(value);
+                all[n++] = value;
+            }
+        }
+        Arrays.sort(all, 0, n);
+        ExactPercentiles exact = new ExactPercentiles(runs);
+        assertEquals(n, exact.getTotalCount());
+        double[] percentiles = new double[] { 99, 1, 50, 95, 100 };
+        long[] values = exact.getValuesAtPercentiles(percentiles);
+        for (int i = 0; i < percentiles.length; i++) {
+            int index = Math.min(n - 1, (int) (percentiles[i] * n * .01));
+            assertEquals(all[index], values[i]);
+        }
+        for (int i = 0; i < runs.length; i++) {
+            assertTrue(runs[i].isSorted());
+        }
+    }
+
+    public void testEmpty() {
+        ExactPercentiles exact = new ExactPercentiles(new DurationArray[] {
+                new DurationArray(), new DurationArray() });
+        assertEquals(0, exact.getValueAtPercentile(50));
+    }
+
+}
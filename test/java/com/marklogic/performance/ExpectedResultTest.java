@@ -0,0 +1,69 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ExpectedResultTest extends TestCase {
+
+    static final String OK_SHA1 = "7a85f4764bbd6daf1c3545efbbf0f279a6dc0beb";
+
+    public void testPlainText() {
+        assertNull(ExpectedResult.parse(null));
+        assertNull(ExpectedResult.parse("ok"));
+        assertNull(ExpectedResult.parse("http://example.com/"));
+        assertNull(ExpectedResult.parse("length:"));
+        assertNull(ExpectedResult.parse("length:two"));
+        assertNull(ExpectedResult.parse("length:2 length:2"));
+        assertNull(ExpectedResult.parse("no-such-digest:00"));
+    }
+
+    public void testLengthAndDigest() {
+        ExpectedResult check = ExpectedResult.parse("length:2 sha-1:"
+                + OK_SHA1);
+        byte[] ok = "ok".getBytes();
+        check.update(ok, 0, 1);
+        check.update(ByteBuffer.wrap(ok, 1, 1));
+        assertTrue(check.matches());
+
+        check.reset();
+        check.update("no".getBytes(), 0, 2);
+        assertFalse(check.matches());
+
+        check = ExpectedResult.parse("length:3");
+        check.update(ByteBuffer.allocateDirect(2));
+        assertFalse(check.matches());
+    }
+
+    public void testForText() {
+        ExpectedResult check = ExpectedResult.forText("ok");
+        ExpectedResult copy = check.copy();
+        check.update("ok".getBytes(), 0, 2);
+        copy.update("oko".getBytes(), 0, 3);
+        assertTrue(check.matches());
+        assertFalse(copy.matches());
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class HashedWheelTimerTest extends TestCase {
+
+    public void testPark() {
+        HashedWheelTimer timer = HashedWheelTimer.getInstance();
+        long delay = 30 * Configuration.NANOS_PER_MILLI;
+        long start = System.nanoTime();
+        timer.park(delay);
+        long elapsed = System.nanoTime() - start;
+        assertTrue("woke early: " + elapsed, elapsed >= delay);
+        assertTrue("woke late: " + elapsed, elapsed < 10 * delay);
+    }
+
+    public void testOrderAcrossTurns() throws Exception {
+        // a small wheel, so that some delays need several turns
+        HashedWheelTimer timer = new HashedWheelTimer(
+                Configuration.NANOS_PER_MILLI, 8);
+        timer.start();
+        final List<Integer> order = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        int[] delays = { 45, 5, 30, 17, 9 };
+        for (int i = 0; i < delays.length; i++) {
+            final Integer delay = Integer.valueOf(delays[i]);
+            timer.schedule(new Runnable() {
+                public void run() {
+                    order.add(delay);
+                }
+            }, delays[i] * Configuration.NANOS_PER_MILLI);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (order.size() < delays.length
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("[5, 9, 17, 30, 45]", order.toString());
+    }
+
+    public void testParkInterrupted() {
+        HashedWheelTimer timer = HashedWheelTimer.getInstance();
+        long delay = 1000 * Configuration.NANOS_PER_MILLI;
+        long start = System.nanoTime();
+        Thread.currentThread().interrupt();
+        timer.park(delay);
+        long elapsed = System.nanoTime() - start;
+        // returns at once, and leaves the interrupt for the caller
+        assertTrue(Thread.interrupted());
+        assertTrue("did not return: " + elapsed, elapsed < delay);
+    }
+
+    public void testIdle() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer(
+                Configuration.NANOS_PER_MILLI, 8);
+        timer.start();
+        // with nothing scheduled, the timer does not tick
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Thread.State.WAITING != timer.getState()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, timer.getState());
+
+        // until there is something to schedule
+        final List<Integer> done = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 2; i++) {
+            final Integer n = Integer.valueOf(i);
+            timer.schedule(new Runnable() {
+                public void run() {
+                    done.add(n);
+                }
+            }, 5 * Configuration.NANOS_PER_MILLI);
+            while (done.size() <= i
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(i + 1, done.size());
+        }
+    }
+
+}
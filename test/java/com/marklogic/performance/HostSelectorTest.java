@@ -0,0 +1,88 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class HostSelectorTest extends TestCase {
+
+    static final String[] HOSTS = { "a", "b:8001", "c" };
+
+    public void testPorts() {
+        HostSelector.Host[] hosts = new HostSelector(HOSTS, 8000,
+                Configuration.HOST_STRATEGY_ROUND_ROBIN).getHosts();
+        assertEquals("a:8000", hosts[0].toString());
+        assertEquals("b", hosts[1].getName());
+        assertEquals(8001, hosts[1].getPort());
+    }
+
+    public void testRoundRobin() {
+        HostSelector selector = new HostSelector(HOSTS, 8000,
+                Configuration.HOST_STRATEGY_ROUND_ROBIN);
+        for (int i = 0; i < 2 * HOSTS.length; i++) {
+            assertEquals(selector.getHosts()[i % HOSTS.length],
+                    selector.select());
+        }
+    }
+
+    public void testLeastOutstanding() {
+        HostSelector selector = new HostSelector(HOSTS, 8000,
+                Configuration.HOST_STRATEGY_LEAST_OUTSTANDING);
+        HostSelector.Host[] hosts = selector.getHosts();
+        selector.begin(hosts[0]);
+        selector.begin(hosts[2]);
+        for (int i = 0; i < 10; i++) {
+            assertSame(hosts[1], selector.select());
+        }
+        selector.begin(hosts[1]);
+        selector.begin(hosts[1]);
+        selector.end(hosts[2], 1, false);
+        assertSame(hosts[2], selector.select());
+    }
+
+    public void testLatencyWeighted() {
+        HostSelector selector = new HostSelector(HOSTS, 8000,
+                Configuration.HOST_STRATEGY_LATENCY_WEIGHTED);
+        HostSelector.Host[] hosts = selector.getHosts();
+        selector.begin(hosts[0]);
+        selector.end(hosts[0], 1000, false);
+        selector.begin(hosts[1]);
+        selector.end(hosts[1], 100000, false);
+        selector.begin(hosts[2]);
+        selector.end(hosts[2], 1, true);
+        // the failure counts as slow, not fast
+        assertEquals(HostSelector.ERROR_PENALTY * 100000, hosts[2]
+                .getLatencyNanos());
+        int[] counts = new int[HOSTS.length];
+        for (int i = 0; i < 10000; i++) {
+            HostSelector.Host host = selector.select();
+            for (int j = 0; j < hosts.length; j++) {
+                if (host == hosts[j]) {
+                    counts[j]++;
+                }
+            }
+        }
+        assertTrue(counts[0] > 50 * counts[1]);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class IntervalRecorderTest extends TestCase {
+
+    private static Result newResult(String name, long nanos) {
+        Result r = new Result(name, null);
+        r.setStart(0);
+        r.setEnd(nanos);
+        return r;
+    }
+
+    public void testInterval() {
+        IntervalRecorder recorder = new IntervalRecorder(3, true);
+        recorder.record(newResult("a", 10));
+        recorder.record(newResult("b", 20));
+        recorder.record(newResult("a", 30));
+        IntervalRecorder.Interval interval = recorder.getInterval();
+        assertEquals(3, interval.getTotals().getNumberOfTests());
+        Map<String, TestStatistics> byName = interval.getByName();
+        assertEquals(2, byName.get("a").getNumberOfTests());
+        assertEquals(1, byName.get("b").getNumberOfTests());
+
+        // the next interval starts empty
+        recorder.record(newResult("b", 40));
+        interval = recorder.getInterval();
+        assertEquals(1, interval.getTotals().getNumberOfTests());
+        assertEquals(1, interval.getByName().get("b").getNumberOfTests());
+
+        // a reused buffer keeps its names, with nothing in them
+        recorder.record(newResult("b", 50));
+        interval = recorder.getInterval();
+        assertEquals(1, interval.getTotals().getNumberOfTests());
+        assertEquals(0, interval.getByName().get("a").getNumberOfTests());
+        assertEquals(1, interval.getByName().get("b").getNumberOfTests());
+        assertEquals(0, recorder.getIntervalStatistics().getNumberOfTests());
+    }
+
+    public void testConcurrentSwap() throws Exception {
+        final IntervalRecorder recorder = new IntervalRecorder(3);
+        final int writers = 4;
+        final int perWriter = 50000;
+        Thread[] threads = new Thread[writers];
+        for (int i = 0; i < writers; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < perWriter; j++) {
+                        recorder.record(newResult("test", 1 + j % 1000));
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < writers; i++) {
+            threads[i].start();
+        }
+
+        // swap as fast as possible while the writers record
+        long total = 0;
+        int swaps = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (int i = 0; i < writers; i++) {
+                running = running || threads[i].isAlive();
+            }
+            total += recorder.getIntervalStatistics().getNumberOfTests();
+            swaps++;
+        }
+        for (int i = 0; i < writers; i++) {
+            threads[i].join();
+        }
+        total += recorder.getIntervalStatistics().getNumberOfTests();
+
+        // every sample in exactly one interval
+        assertTrue(swaps > 1);
+        assertEquals(writers * perWriter, total);
+        assertEquals(0, recorder.getIntervalStatistics().getNumberOfTests());
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import com.marklogic.performance.sampler.Sampler;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class IntervalReporterTest extends TestCase {
+
+    public void testReport() throws Exception {
+        Properties props = new Properties();
+        // long enough that only halt() reports
+        props.setProperty(Configuration.REPORT_INTERVAL_SECONDS_KEY, "60");
+        Configuration config = new Configuration(props);
+        List<Sampler> samplers = new ArrayList<Sampler>();
+        MockSampler[] mocks = new MockSampler[2];
+        for (int i = 0; i < mocks.length; i++) {
+            mocks[i] = new MockSampler(null, config);
+            samplers.add(mocks[i]);
+        }
+        File output = File.createTempFile("intervals", ".csv");
+        output.deleteOnExit();
+
+        // the CSV must not depend on the default locale
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        PrintStream err = System.err;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(console, true));
+        try {
+            IntervalReporter reporter = new IntervalReporter(config,
+                    samplers, output.getPath());
+            reporter.startReporting(System.nanoTime());
+            for (int i = 0; i < 3; i++) {
+                Result r = new Result("test", null);
+                r.setStart(0);
+                r.setEnd(1500000);
+                r.incrementBytesSent(10);
+                r.setError(0 == i);
+                mocks[i % mocks.length].add(r);
+            }
+            reporter.halt();
+        } finally {
+            System.setErr(err);
+            Locale.setDefault(locale);
+        }
+        String line = console.toString();
+        assertTrue(line, line.indexOf("3 tests (1 errors)") > -1);
+        assertTrue(line, line.indexOf("p50/p95/p99/max 1.5/1.5/1.5/1.5 ms") > -1);
+
+        BufferedReader in = new BufferedReader(new FileReader(output));
+        try {
+            String[] header = in.readLine().split(",");
+            assertEquals(IntervalReporter.FIELDS.length, header.length);
+            assertEquals("number-of-tests", header[2]);
+            String[] fields = in.readLine().split(",");
+            assertEquals(IntervalReporter.FIELDS.length, fields.length);
+            // one interval, with the results from every sampler
+            assertEquals("3", fields[2]);
+            assertEquals("1", fields[3]);
+            assertTrue(fields[6], fields[6].matches("1\\.5\\d\\d"));
+            assertTrue(fields[9], fields[9].matches("1\\.5\\d\\d"));
+            assertNull(in.readLine());
+        } finally {
+            in.close();
+        }
+        // taken by the reporter
+        assertEquals(0, mocks[0].getIntervalRecorder()
+                .getIntervalStatistics().getNumberOfTests());
+    }
+
+}
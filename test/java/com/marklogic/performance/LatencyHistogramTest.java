@@ -0,0 +1,76 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram(2);
+        for (long i = 1; i <= 100; i++) {
+            h.recordValue(i);
+        }
+        assertEquals(100, h.getTotalCount());
+        assertEquals(1, h.getMinValue());
+        assertEquals(100, h.getMaxValue());
+        assertEquals(50.5, h.getMean());
+        // same rank as the old sorted list: index (p * n / 100)
+        assertEquals(51, h.getValueAtPercentile(50));
+        assertEquals(96, h.getValueAtPercentile(95));
+        assertEquals(100, h.getValueAtPercentile(100));
+    }
+
+    public void testLargeValuesWithinPrecision() {
+        LatencyHistogram h = new LatencyHistogram(3);
+        long value = 123456789L;
+        h.recordValue(value);
+        long p50 = h.getValueAtPercentile(50);
+        assertTrue(Math.abs(p50 - value) <= value / 1000);
+        assertEquals(value, h.getMaxValue());
+    }
+
+    public void testMerge() {
+        LatencyHistogram a = new LatencyHistogram(2);
+        LatencyHistogram b = new LatencyHistogram(2);
+        a.recordValue(10);
+        a.recordValue(20);
+        b.recordValue(5);
+        b.recordValue(40);
+        a.add(b);
+        assertEquals(4, a.getTotalCount());
+        assertEquals(5, a.getMinValue());
+        assertEquals(40, a.getMaxValue());
+        assertEquals(75, a.getTotalValue());
+        assertEquals(10, a.getValueAtPercentile(25));
+    }
+
+    public void testOverflowIsClamped() {
+        LatencyHistogram h = new LatencyHistogram(2);
+        long huge = 2 * LatencyHistogram.HIGHEST_TRACKABLE_NANOS;
+        h.recordValue(huge);
+        assertEquals(huge, h.getMaxValue());
+        assertEquals(huge, h.getValueAtPercentile(99));
+    }
+
+}
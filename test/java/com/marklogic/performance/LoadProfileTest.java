@@ -0,0 +1,67 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class LoadProfileTest extends TestCase {
+
+    public void testThreadStaircase() {
+        LoadProfile profile = new LoadProfile("50:300, 100:300,200:300");
+        assertFalse(profile.isRate());
+        assertEquals(3, profile.getStages().length);
+        assertEquals(900 * Configuration.NANOS_PER_SECOND, profile
+                .getTotalNanos());
+        assertEquals(200.0, profile.getMaxLoad(), 0);
+        assertEquals(50.0, profile.getLoadAt(0), 0);
+        assertEquals(100.0, profile
+                .getLoadAt(300 * Configuration.NANOS_PER_SECOND), 0);
+        // after the end, the final load
+        assertEquals(200.0, profile
+                .getLoadAt(901 * Configuration.NANOS_PER_SECOND), 0);
+    }
+
+    public void testRateRamp() {
+        LoadProfile profile = new LoadProfile("100-300/s:10,300/s:10");
+        assertTrue(profile.isRate());
+        assertEquals(200.0, profile
+                .getLoadAt(5 * Configuration.NANOS_PER_SECOND), 0.001);
+        assertEquals(250.0, profile.getMeanLoad(), 0.001);
+        assertEquals("100-300/s:10", profile.getStages()[0]
+                .getDescription());
+    }
+
+    public void testBadProfiles() {
+        String[] bad = { "", "100", "100:x", "100/s:10,100:10", "0/s:10",
+                "10:0" };
+        for (int i = 0; i < bad.length; i++) {
+            try {
+                new LoadProfile(bad[i]);
+                fail("expected an exception for " + bad[i]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
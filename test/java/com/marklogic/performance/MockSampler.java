@@ -28,14 +28,16 @@ public class MockSampler extends Sampler {
     /*
      * (non-Javadoc)
      *
-     * @see com.marklogic.performance.Sampler#sample(com.marklogic.performance.TestInterface)
+     * @see com.marklogic.performance.sampler.Sampler#sample(com.marklogic.performance.Result,
+     *      java.lang.String, com.marklogic.performance.TestInterface)
      */
-    public Result sample(TestInterface test) throws IOException {
+    protected String sample(Result result, String query, TestInterface test)
+            throws IOException {
         throw new IOException("unimplemented");
     }
 
     public void add(Result r) {
-        results.add(r);
+        record(r);
     }
 
 }
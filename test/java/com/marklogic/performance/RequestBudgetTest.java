@@ -0,0 +1,79 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class RequestBudgetTest extends TestCase {
+
+    public void testExactRequestCount() throws Exception {
+        final RequestBudget budget = new RequestBudget(10007, 0, 12);
+        final AtomicLong acquired = new AtomicLong(0);
+        Thread[] threads = new Thread[12];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    // uneven work, so that some stripes run dry first
+                    while (budget.tryAcquire(index)) {
+                        acquired.incrementAndGet();
+                        if (0 == index % 3) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(10007, acquired.get());
+        assertTrue(budget.isSpent());
+    }
+
+    public void testLeftoversAreShared() {
+        RequestBudget budget = new RequestBudget(100, 0, 4);
+        // thread 0 takes a batch, then stops
+        assertTrue(budget.tryAcquire(0));
+        int count = 1;
+        while (budget.tryAcquire(1)) {
+            count++;
+        }
+        assertEquals(100, count);
+    }
+
+    public void testBytes() {
+        RequestBudget budget = new RequestBudget(0, 1000, 4);
+        assertTrue(budget.tryAcquire(0));
+        budget.addBytes(0, 600);
+        assertTrue(budget.tryAcquire(3));
+        budget.addBytes(3, 600);
+        assertFalse(budget.tryAcquire(1));
+        assertTrue(budget.isSpent());
+        assertEquals(1200, budget.getBytes());
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ResultDictionaryTest extends TestCase {
+
+    public void testIds() {
+        ResultDictionary dictionary = new ResultDictionary();
+        int a = dictionary.getId("test", "expected", "host1:8000");
+        assertEquals(a, dictionary.getId("test", "expected", "host1:8000"));
+        // any field that differs gets its own id
+        int b = dictionary.getId("test", "expected", "host2:8000");
+        int c = dictionary.getId("test", null, "host1:8000");
+        int d = dictionary.getId(null, null, null);
+        assertEquals(4, 1 + Math.max(Math.max(a, b), Math.max(c, d)));
+        assertFalse(a == b || a == c || b == c || c == d);
+        assertEquals(d, dictionary.getId(null, null, null));
+
+        assertEquals("test", dictionary.getName(b));
+        assertEquals("host2:8000", dictionary.getHost(b));
+        assertNull(dictionary.getComment(c));
+        assertNull(dictionary.getName(d));
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ResultLogTest extends TestCase {
+
+    public void testRoundTrip() throws IOException {
+        ResultLog log = new ResultLog(new File(System
+                .getProperty("java.io.tmpdir")));
+        for (int i = 0; i < 1000; i++) {
+            Result r = new Result("test" + (i % 3), (0 == i % 2) ? null
+                    : "expected");
+            r.setStart(i);
+            r.setEnd(2 * i);
+            r.incrementBytesSent(i);
+            if (0 == i % 5) {
+                r.setQueryResult("result \u00e9 " + i);
+                // the sampler counts the bytes, not the decoded chars
+                r.incrementBytesReceived(("result \u00e9 " + i)
+                        .getBytes("UTF-8").length);
+            }
+            r.setError(0 == i % 7);
+            if (0 == i % 3) {
+                for (int j = 0; j < Result.PHASE_NAMES.length; j++) {
+                    r.setPhaseNanos(j, i + j);
+                }
+            }
+            log.add(r);
+        }
+        assertEquals(1000, log.size());
+
+        Iterator<Result> iter = log.iterator();
+        int i = 0;
+        Result r;
+        while (iter.hasNext()) {
+            r = iter.next();
+            assertEquals("test" + (i % 3), r.getTestName());
+            assertEquals((0 == i % 2) ? null : "expected", r.getComment());
+            assertEquals(i, r.getStartNanos());
+            assertEquals(2 * i, r.getEndNanos());
+            assertEquals(i, r.getBytesSent());
+            assertEquals(0 == i % 7, r.isError());
+            assertEquals(0 == i % 3, r.hasPhases());
+            if (r.hasPhases()) {
+                assertEquals(i + Result.PHASE_BODY, r
+                        .getPhaseNanos(Result.PHASE_BODY));
+            }
+            if (0 == i % 5) {
+                assertEquals("result \u00e9 " + i, r.getQueryResult());
+                assertEquals(r.getQueryResult().getBytes("UTF-8").length, r
+                        .getBytesReceived());
+            } else {
+                assertNull(r.getQueryResult());
+            }
+            i++;
+        }
+        assertEquals(1000, i);
+        log.close();
+    }
+
+    public void testRemapAndClose() throws IOException {
+        ResultLog log = new ResultLog(new File(System
+                .getProperty("java.io.tmpdir")));
+        // responses big enough to need several regions
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ResultLog.REGION_SIZE / 3; i++) {
+            sb.append('x');
+        }
+        String big = sb.toString();
+        for (int i = 0; i < 8; i++) {
+            Result r = new Result("big", null);
+            r.setQueryResult(big + i);
+            log.add(r);
+        }
+        Iterator<Result> iter = log.iterator();
+        int i = 0;
+        while (iter.hasNext()) {
+            assertEquals(big + i, iter.next().getQueryResult());
+            i++;
+        }
+        assertEquals(8, i);
+
+        synchronized (ResultLog.openFiles) {
+            assertTrue(ResultLog.openFiles.size() >= 2);
+        }
+        log.close();
+        synchronized (ResultLog.openFiles) {
+            assertEquals(0, ResultLog.openFiles.size());
+        }
+    }
+
+}
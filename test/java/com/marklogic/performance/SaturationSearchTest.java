@@ -0,0 +1,115 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class SaturationSearchTest extends TestCase {
+
+    /**
+     * Passes every trial up to its capacity, without running any tests.
+     */
+    static class StubSearch extends SaturationSearch {
+
+        double capacity;
+
+        List<Double> loads = new ArrayList<Double>();
+
+        List<PerformanceMeters> meters = new ArrayList<PerformanceMeters>();
+
+        Configuration config;
+
+        StubSearch(Configuration _config, double _capacity) {
+            super(_config, null);
+            config = _config;
+            capacity = _capacity;
+        }
+
+        void measure(Trial trial) throws Exception {
+            trial.meters = new PerformanceMeters(config);
+            trial.passed = trial.load <= capacity;
+            loads.add(new Double(trial.load));
+            meters.add(trial.meters);
+        }
+
+        double getLoad(PerformanceMeters chosen) {
+            return loads.get(meters.indexOf(chosen)).doubleValue();
+        }
+
+    }
+
+    private Configuration newConfig(String max) {
+        Properties props = new Properties();
+        props.setProperty(Configuration.SEARCH_MODE_KEY, "threads");
+        props.setProperty(Configuration.SLO_LATENCY_MILLIS_KEY, "100");
+        if (null != max) {
+            props.setProperty(Configuration.SEARCH_MAX_KEY, max);
+        }
+        return new Configuration(props);
+    }
+
+    public void testStepUpAndBisect() throws Exception {
+        StubSearch search = new StubSearch(newConfig(null), 20);
+        PerformanceMeters chosen = search.run();
+        // double until a failure, then bisect from 16 to 32
+        double[] expected = new double[] { 1, 2, 4, 8, 16, 32, 24, 20, 22,
+                21 };
+        assertEquals(expected.length, search.loads.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], search.loads.get(i).doubleValue());
+        }
+        assertEquals(20.0, search.getLoad(chosen));
+        // every trial is one stage
+        assertEquals(expected.length, chosen.stageResults.size());
+    }
+
+    public void testMaxPasses() throws Exception {
+        StubSearch search = new StubSearch(newConfig("10"), 100);
+        PerformanceMeters chosen = search.run();
+        assertEquals(5, search.loads.size());
+        assertEquals(10.0, search.getLoad(chosen));
+    }
+
+    public void testNoMaxAlwaysPasses() throws Exception {
+        StubSearch search = new StubSearch(newConfig(null),
+                Double.MAX_VALUE);
+        PerformanceMeters chosen = search.run();
+        // stops, rather than stepping up forever
+        assertEquals(Configuration.SEARCH_MAX_STEPS, search.loads.size());
+        assertEquals(search.loads.get(search.loads.size() - 1)
+                .doubleValue(), search.getLoad(chosen));
+    }
+
+    public void testNonePass() throws Exception {
+        StubSearch search = new StubSearch(newConfig(null), 0);
+        PerformanceMeters chosen = search.run();
+        // the lowest load is reported
+        assertEquals(1, search.loads.size());
+        assertEquals(1.0, search.getLoad(chosen));
+    }
+
+}
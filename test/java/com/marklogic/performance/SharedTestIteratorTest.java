@@ -0,0 +1,143 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class SharedTestIteratorTest extends TestCase {
+
+    private static final String[] NAMES = { "a", "b", "c", "d", "e" };
+
+    public void testOnePass() {
+        TestIterator iter = new SharedTestIterator(
+                new ArrivalPacerTest.NamedTestList(NAMES));
+        for (int i = 0; i < NAMES.length; i++) {
+            assertTrue(iter.hasNext());
+            assertEquals(NAMES[i], iter.next().getName());
+        }
+        assertFalse(iter.hasNext());
+
+        // reset starts one new pass, however many times it is called
+        iter.reset();
+        assertTrue(iter.hasNext());
+        assertEquals(NAMES[0], iter.next().getName());
+        iter.reset();
+        assertEquals(NAMES[1], iter.next().getName());
+
+        // next() wraps around
+        for (int i = 2; i < NAMES.length; i++) {
+            iter.next();
+        }
+        assertFalse(iter.hasNext());
+        assertEquals(NAMES[0], iter.next().getName());
+        assertTrue(iter.hasNext());
+    }
+
+    public void testShuffle() {
+        TestIterator iter = new SharedTestIterator(
+                new ArrivalPacerTest.NamedTestList(NAMES));
+        Random random = new Random(1);
+        iter.shuffle(random);
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        for (int pass = 0; pass < 3; pass++) {
+            while (iter.hasNext()) {
+                count(seen, iter.next().getName());
+            }
+            // late shuffles apply to the next pass
+            iter.shuffle(random);
+            iter.reset();
+        }
+        for (int i = 0; i < NAMES.length; i++) {
+            assertEquals(3, seen.get(NAMES[i]).intValue());
+        }
+    }
+
+    public void testLateShuffle() {
+        TestList tests = new ArrivalPacerTest.NamedTestList(NAMES);
+        TestOrder expected = tests.getOrder().shuffle(new Random(7));
+        TestIterator iter = new SharedTestIterator(tests);
+        iter.next();
+        // too late for this pass, so the next pass uses it
+        iter.shuffle(new Random(7));
+        while (iter.hasNext()) {
+            iter.next();
+        }
+        iter.reset();
+        for (int i = 0; i < NAMES.length; i++) {
+            assertEquals(expected.get(i).getName(), iter.next().getName());
+        }
+        // and only that pass: the one after keeps the same order
+        iter.reset();
+        for (int i = 0; i < NAMES.length; i++) {
+            assertEquals(expected.get(i).getName(), iter.next().getName());
+        }
+    }
+
+    public void testConcurrentPasses() throws Exception {
+        final TestIterator iter = new SharedTestIterator(
+                new ArrivalPacerTest.NamedTestList(NAMES));
+        final int perThread = 1000 * NAMES.length;
+        final Map<String, Integer> seen = new HashMap<String, Integer>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    Map<String, Integer> local = new HashMap<String, Integer>();
+                    for (int j = 0; j < perThread; j++) {
+                        count(local, iter.next().getName());
+                    }
+                    synchronized (seen) {
+                        for (int j = 0; j < NAMES.length; j++) {
+                            add(seen, NAMES[j], local.get(NAMES[j])
+                                    .intValue());
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        // every pass hands out each test exactly once
+        for (int i = 0; i < NAMES.length; i++) {
+            assertEquals(threads.length * 1000, seen.get(NAMES[i])
+                    .intValue());
+        }
+    }
+
+    static void count(Map<String, Integer> map, String name) {
+        add(map, name, 1);
+    }
+
+    static void add(Map<String, Integer> map, String name, int count) {
+        Integer n = map.get(name);
+        map.put(name, Integer.valueOf(null == n ? count : n.intValue()
+                + count));
+    }
+
+}
@@ -4,6 +4,8 @@
 package com.marklogic.performance;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
 
 import junit.framework.TestCase;
 
@@ -63,4 +65,159 @@ public class SummaryResultsTest extends TestCase {
         assertEquals(expected, stdev);
     }
 
+    public void testStandardDeviationAcrossSamplers() throws IOException {
+        // large values, where a histogram would lose precision
+        long[] population = new long[] { 1000000005L, 1000000006L,
+                1000000008L, 1000000009L, 1000000013L };
+        Configuration config = new Configuration(new String[0], false);
+        MockSampler[] samplers = new MockSampler[3];
+        for (int i = 0; i < samplers.length; i++) {
+            samplers[i] = new MockSampler(null, config);
+        }
+        for (int i = 0; i < population.length; i++) {
+            Result r = new Result("test" + i, null);
+            r.setStart(0);
+            r.setEnd(population[i]);
+            samplers[i % samplers.length].add(r);
+        }
+
+        SummaryResults sr = new SummaryResults(config, 1000, 2000,
+                samplers);
+        assertEquals(1000000008.2, sr.getAvgNanos(), 1e-6);
+        assertEquals(Math.sqrt(7.76), sr.getStandardDeviationNanos(), 1e-6);
+    }
+
+    public void testTestStatisticsByName() throws IOException {
+        Configuration config = new Configuration(new String[0], false);
+        MockSampler[] samplers = new MockSampler[2];
+        samplers[0] = new MockSampler(null, config);
+        samplers[1] = new MockSampler(null, config);
+        String[] names = new String[] { "estimate", "search", "search" };
+        long[] durations = new long[] { 2L, 40L, 60L };
+        for (int i = 0; i < names.length; i++) {
+            Result r = new Result(names[i], null);
+            r.setStart(0);
+            r.setEnd(durations[i]);
+            r.setError(i == 2);
+            samplers[i % 2].add(r);
+        }
+
+        SummaryResults sr = new SummaryResults(config, 1000, 2000,
+                samplers);
+        TestStatistics[] stats = sr.getTestStatistics().toArray(
+                new TestStatistics[0]);
+        assertEquals(2, stats.length);
+        assertEquals("estimate", stats[0].getName());
+        assertEquals(1, stats[0].getNumberOfTests());
+        assertEquals(0, stats[0].getNumberOfErrors());
+        assertEquals("search", stats[1].getName());
+        assertEquals(2, stats[1].getNumberOfTests());
+        assertEquals(1, stats[1].getNumberOfErrors());
+        assertEquals(40L, stats[1].getMinNanos());
+        assertEquals(60L, stats[1].getMaxNanos());
+    }
+
+    public void testCorrectedLatency() {
+        Properties props = new Properties();
+        // 10 ns between intended starts
+        props.setProperty("expectedIntervalMillis", "0.00001");
+        Configuration config = new Configuration(props);
+        MockSampler[] samplers = new MockSampler[1];
+        samplers[0] = new MockSampler(null, config);
+        // one stall, then two fast tests that had to wait for it
+        long[][] times = new long[][] { { 0, 100 }, { 100, 105 },
+                { 105, 110 } };
+        for (int i = 0; i < times.length; i++) {
+            Result r = new Result("test", null);
+            r.setStart(times[i][0]);
+            r.setEnd(times[i][1]);
+            samplers[0].add(r);
+        }
+
+        SummaryResults sr = new SummaryResults(config, 0, 110, samplers);
+        assertTrue(sr.hasCorrectedHistogram());
+        assertEquals(5L, sr.getPercentileDurationNanos(50));
+        assertEquals(95L, sr.getCorrectedHistogram().getValueAtPercentile(
+                50));
+        assertEquals(90L, sr.getCorrectedHistogram().getMinValue());
+    }
+
+    public void testMeasurementWindow() {
+        Properties props = new Properties();
+        props.setProperty("testTime", "4");
+        props.setProperty("warmupSeconds", "1");
+        props.setProperty("cooldownSeconds", "1");
+        Configuration config = new Configuration(props);
+        MockSampler[] samplers = new MockSampler[1];
+        samplers[0] = new MockSampler(null, config);
+        long second = Configuration.NANOS_PER_SECOND;
+        long start = 10 * second;
+        samplers[0].setRunStartNanos(start);
+        // warm-up, measured, measured, straddles the cool-down
+        long[][] times = new long[][] { { 0, 2 * second },
+                { 1 * second, 2 * second }, { 2 * second, 3 * second },
+                { 2 * second, 4 * second } };
+        for (int i = 0; i < times.length; i++) {
+            Result r = new Result("test", null);
+            r.setStart(start + times[i][0]);
+            r.setEnd(start + times[i][1]);
+            samplers[0].add(r);
+        }
+
+        SummaryResults sr = new SummaryResults(config, start, start + 4
+                * second, samplers);
+        assertTrue(sr.hasMeasurementWindow());
+        assertEquals(2, sr.getNumberOfTests());
+        assertEquals(1, sr.getWarmupExcludedCount());
+        assertEquals(1, sr.getCooldownExcludedCount());
+        assertEquals(2 * second, sr.getDurationNanos());
+    }
+
+    public void testConnections() throws Exception {
+        Configuration config = new Configuration(new Properties());
+        MockSampler[] samplers = new MockSampler[2];
+        for (int i = 0; i < samplers.length; i++) {
+            samplers[i] = new MockSampler(null, config);
+        }
+        SummaryResults sr = new SummaryResults(config, 0, 1000, samplers);
+        // no connection fields, unless connections were opened
+        assertEquals(0, sr.getConnectionsOpened());
+        assertFalse(Arrays.asList(sr.getFieldNames()).contains(
+                "connections-opened"));
+
+        samplers[0].getConnectionStatistics().recordConnect(2000000);
+        samplers[1].getConnectionStatistics().recordConnect(4000000);
+        sr = new SummaryResults(config, 0, 1000, samplers);
+        assertEquals(2, sr.getConnectionsOpened());
+        assertEquals("2", sr.getFieldValue("connections-opened"));
+        assertEquals(3.0, Double.parseDouble(sr
+                .getFieldValue("connect-average-ms")), 0.01);
+    }
+
+    public void testPacedStage() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("targetRate", "100");
+        Configuration config = new Configuration(props);
+        MockSampler[] samplers = new MockSampler[1];
+        samplers[0] = new MockSampler(null, config);
+        ArrivalPacer pacer = new ArrivalPacer(config,
+                new ArrivalPacerTest.NamedTestList(new String[] { "test" }));
+        SummaryResults sr = new SummaryResults(config, 0, 1000, samplers,
+                pacer);
+        // a saturation search labels each paced trial
+        sr.setStageName("rate=100.0/s");
+        sr.setSloPassed(true);
+        String[] fields = sr.getFieldNames();
+        int requested = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].equals("requested-tests-per-second")) {
+                requested++;
+            }
+        }
+        assertEquals(1, requested);
+        assertEquals("rate=100.0/s", sr.getFieldValue("stage"));
+        assertEquals(100.0, Double.parseDouble(sr
+                .getFieldValue("requested-tests-per-second")), 0.01);
+    }
+
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class TestOrderTest extends TestCase {
+
+    static class WeightedTestList extends TestList {
+        WeightedTestList(String[] names, int[] weights) {
+            for (int i = 0; i < names.length; i++) {
+                add(new ArrivalPacerTest.NamedTest(names[i]), weights[i]);
+            }
+        }
+    }
+
+    private static final String[] NAMES = { "a", "b", "c" };
+
+    private static final int[] WEIGHTS = { 1, 1000, 9000 };
+
+    public void testSequential() {
+        TestList list = new WeightedTestList(NAMES, WEIGHTS);
+        assertEquals(3, list.getDistinctCount());
+        assertEquals(10001, list.size());
+        assertEquals("a", list.get(0).getName());
+        assertEquals("b", list.get(1).getName());
+        assertEquals("b", list.get(1000).getName());
+        assertEquals("c", list.get(1001).getName());
+        assertEquals("c", list.get(10000).getName());
+        try {
+            list.get(10001);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testShuffledWeights() {
+        TestList list = new WeightedTestList(NAMES, WEIGHTS);
+        Random random = new Random(1);
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        int passes = 10;
+        for (int pass = 0; pass < passes; pass++) {
+            list.shuffle(random);
+            for (int i = 0; i < list.size(); i++) {
+                count(seen, list.get(i).getName());
+            }
+        }
+        // in proportion to the weights, within a few percent
+        assertEquals(1000 * passes, seen.get("b").intValue(), 30 * passes);
+        assertEquals(9000 * passes, seen.get("c").intValue(), 30 * passes);
+        assertTrue(seen.get("a").intValue() < 10 * passes);
+    }
+
+    public void testUnweightedShuffle() {
+        String[] names = { "a", "b", "c", "d", "e", "f" };
+        TestList list = new ArrivalPacerTest.NamedTestList(names);
+        list.shuffle(new Random(1));
+        // still a permutation
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        for (int i = 0; i < list.size(); i++) {
+            count(seen, list.get(i).getName());
+        }
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(1, seen.get(names[i]).intValue());
+        }
+    }
+
+    public void testAliasTable() {
+        AliasTable table = new AliasTable(new long[] { 1, 2, 3, 4 });
+        Random random = new Random(1);
+        int[] counts = new int[table.size()];
+        int picks = 100000;
+        for (int i = 0; i < picks; i++) {
+            counts[table.pick(random.nextLong())]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals(picks * (i + 1) / 10.0, counts[i], picks / 100.0);
+        }
+    }
+
+    public void testSharedIterator() {
+        TestIterator iter = new SharedTestIterator(new WeightedTestList(
+                NAMES, WEIGHTS));
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        assertEquals(10001, count);
+    }
+
+    private static void count(Map<String, Integer> seen, String name) {
+        Integer count = seen.get(name);
+        seen.put(name, null == count ? 1 : count.intValue() + 1);
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class ThinkTimeTest extends TestCase {
+
+    public void testMeans() {
+        String[] specs = { "100", "fixed:100", "exponential:100",
+                "uniform:50:150", "normal:100:10", "pareto:100:3" };
+        Random random = new Random(42);
+        int n = 200 * 1000;
+        for (int i = 0; i < specs.length; i++) {
+            ThinkTime thinkTime = new ThinkTime(specs[i]);
+            assertEquals(100.0, thinkTime.getMeanMillis(), 0);
+            double sum = 0;
+            long nanos;
+            for (int j = 0; j < n; j++) {
+                nanos = thinkTime.nextNanos(random);
+                assertTrue(specs[i], nanos >= 0);
+                sum += nanos;
+            }
+            assertEquals(specs[i], 100.0, sum / n
+                    / Configuration.NANOS_PER_MILLI, 2.0);
+        }
+    }
+
+    public void testBadSpecs() {
+        String[] bad = { "x", "exponential", "uniform:10", "uniform:9:1",
+                "pareto:100:1", "gamma:1:2", "fixed:10:20", "-5" };
+        for (int i = 0; i < bad.length; i++) {
+            try {
+                new ThinkTime(bad[i]);
+                fail("expected an exception for " + bad[i]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
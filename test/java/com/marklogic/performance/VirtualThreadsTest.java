@@ -0,0 +1,117 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import com.marklogic.performance.sampler.Sampler;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class VirtualThreadsTest extends TestCase {
+
+    /**
+     * Checks that Sampler.current() finds it, on whatever thread it runs.
+     */
+    public static class CurrentSampler extends Sampler {
+
+        volatile boolean found = true;
+
+        volatile int samples = 0;
+
+        volatile boolean ownThread = true;
+
+        public CurrentSampler(TestIterator ti, Configuration cfg) {
+            super(ti, cfg);
+        }
+
+        protected String sample(Result result, String query,
+                TestInterface test) throws Exception {
+            samples++;
+            found = found && this == Sampler.current();
+            ownThread = ownThread && this == Thread.currentThread();
+            return "";
+        }
+
+    }
+
+    private PerformanceMeters run(String threadMode) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(Configuration.THREAD_MODE_KEY, threadMode);
+        props.setProperty("numThreads", "2");
+        props.setProperty(Configuration.SAMPLERCLASS_KEY, CurrentSampler.class
+                .getName());
+        PerformanceMeters pm = new PerformanceMeters(new Configuration(
+                props));
+        pm.tests = new ArrivalPacerTest.NamedTestList(new String[] { "a",
+                "b", "c", "d" });
+        pm.run();
+        return pm;
+    }
+
+    private void check(PerformanceMeters pm, boolean virtual) {
+        assertEquals(2, pm.samplers.size());
+        for (int i = 0; i < pm.samplers.size(); i++) {
+            CurrentSampler sampler = (CurrentSampler) pm.samplers.get(i);
+            // each thread runs every test, from its own offset
+            assertEquals(4, sampler.samples);
+            assertTrue(sampler.found);
+            assertEquals(!virtual, sampler.ownThread);
+        }
+        // outside any sampler
+        assertNull(Sampler.current());
+    }
+
+    public void testPlatform() throws Exception {
+        check(run(Configuration.THREAD_MODE_PLATFORM), false);
+    }
+
+    public void testVirtual() throws Exception {
+        // falls back to platform threads before Java 21
+        check(run(Configuration.THREAD_MODE_VIRTUAL), VirtualThreads
+                .isAvailable());
+    }
+
+    public void testStart() throws Exception {
+        final Thread[] ran = new Thread[1];
+        Runnable task = new Runnable() {
+            public void run() {
+                ran[0] = Thread.currentThread();
+            }
+        };
+        if (!VirtualThreads.isAvailable()) {
+            try {
+                VirtualThreads.start("test", task);
+                fail("started a virtual thread without virtual threads");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+            return;
+        }
+        Thread thread = VirtualThreads.start("test", task);
+        thread.join();
+        assertSame(thread, ran[0]);
+        assertEquals("test", thread.getName());
+    }
+
+}
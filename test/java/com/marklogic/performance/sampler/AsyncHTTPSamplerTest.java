@@ -0,0 +1,179 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.marklogic.performance.AbstractTest;
+import com.marklogic.performance.Configuration;
+import com.marklogic.performance.Result;
+import com.marklogic.performance.TestInterface;
+import com.marklogic.performance.TestIterator;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class AsyncHTTPSamplerTest extends TestCase {
+
+    /**
+     * Answers one request with a keep-alive response, then closes the
+     * connection anyway, as a server with a short idle timeout would.
+     */
+    static class ClosingServer extends Thread {
+
+        ServerSocket server;
+
+        ClosingServer() throws IOException {
+            server = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    Socket socket = server.accept();
+                    serve(socket);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        void serve(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            int c, state = 0;
+            boolean body = false;
+            int length = 0;
+            while ((c = in.read()) > -1) {
+                if (body) {
+                    // the form body is as long as the query, here
+                    if (--length < 1) {
+                        break;
+                    }
+                    continue;
+                }
+                // look for the blank line at the end of the headers
+                state = ('\r' == c || '\n' == c) ? state + 1 : 0;
+                if (4 == state) {
+                    body = true;
+                    length = "query=ok".length();
+                }
+            }
+            out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"
+                    .getBytes("UTF-8"));
+            out.flush();
+            socket.close();
+        }
+
+    }
+
+    static class QueryTest extends AbstractTest {
+        QueryTest(String _name) {
+            name = _name;
+            query = "ok";
+        }
+    }
+
+    static class ArrayTestIterator implements TestIterator {
+
+        TestInterface[] tests;
+
+        int cursor = 0;
+
+        ArrayTestIterator(TestInterface[] _tests) {
+            tests = _tests;
+        }
+
+        public boolean hasNext() {
+            return cursor < tests.length;
+        }
+
+        public TestInterface next() {
+            return tests[cursor++];
+        }
+
+        public void shuffle(Random random) {
+            // fixed order
+        }
+
+        public void reset() {
+            cursor = 0;
+        }
+
+    }
+
+    public void testIdleClose() throws Exception {
+        ClosingServer server = new ClosingServer();
+        server.start();
+        try {
+            Properties props = new Properties();
+            props.setProperty("host", "127.0.0.1");
+            props.setProperty("port", "" + server.server.getLocalPort());
+            props.setProperty(Configuration.ASYNC_REQUESTS_KEY, "1");
+            // the server closes the connection while the slot thinks
+            props.setProperty(Configuration.THINK_MILLIS_KEY, "100");
+            Configuration config = new Configuration(props);
+            AsyncHTTPSampler sampler = new AsyncHTTPSampler(
+                    new ArrayTestIterator(new TestInterface[] {
+                            new QueryTest("first"), new QueryTest("second") }),
+                    config);
+            sampler.run();
+            assertEquals(2, sampler.getStatistics().getNumberOfTests());
+            assertEquals(0, sampler.getErrorCount());
+            // the second test retried on a new connection
+            assertEquals(2, sampler.getConnectionStatistics()
+                    .getOpenedCount());
+        } finally {
+            server.server.close();
+        }
+    }
+
+    public void testOneRequest() throws Exception {
+        ClosingServer server = new ClosingServer();
+        server.start();
+        try {
+            Properties props = new Properties();
+            props.setProperty("host", "127.0.0.1");
+            props.setProperty("port", "" + server.server.getLocalPort());
+            props.setProperty("recordResults", "true");
+            AsyncHTTPSampler sampler = new AsyncHTTPSampler(
+                    new ArrayTestIterator(new TestInterface[0]),
+                    new Configuration(props));
+            sampler.configure();
+            // outside the event loop, on a connection of its own
+            Result result = sampler.sample(new QueryTest("one"));
+            assertFalse(result.isError());
+            assertEquals("ok", result.getQueryResult());
+            assertTrue(result.getBytesSent() > "query=ok".length());
+        } finally {
+            server.server.close();
+        }
+    }
+
+}
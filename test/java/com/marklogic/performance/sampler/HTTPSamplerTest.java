@@ -0,0 +1,111 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.security.MessageDigest;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import com.marklogic.performance.AbstractTest;
+import com.marklogic.performance.Configuration;
+import com.marklogic.performance.Result;
+import com.marklogic.performance.TestInterface;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class HTTPSamplerTest extends TestCase {
+
+    static class CheckedTest extends AbstractTest {
+        CheckedTest(String _expected) {
+            name = "checked";
+            query = "q";
+            commentExpectedResult = _expected;
+        }
+    }
+
+    // more bytes than chars, in UTF-8
+    private static final String BODY = "caf\u00e9 \u2603";
+
+    private HttpConnectionPoolTest.KeepAliveServer server;
+
+    private byte[] body;
+
+    protected void setUp() throws Exception {
+        body = BODY.getBytes("UTF-8");
+        server = new HttpConnectionPoolTest.KeepAliveServer(body);
+        server.start();
+    }
+
+    protected void tearDown() throws Exception {
+        server.server.close();
+    }
+
+    private Result sample(boolean keepBody, String expected) {
+        Properties props = new Properties();
+        props.setProperty("host", "127.0.0.1");
+        props.setProperty("port", "" + server.server.getLocalPort());
+        props.setProperty("checkResults", "true");
+        props.setProperty("reportTime", "true");
+        props.setProperty("recordResults", "" + keepBody);
+        HTTPSampler sampler = new HTTPSampler(null, new Configuration(props));
+        sampler.configure();
+        assertEquals(keepBody, sampler.keepBody);
+        return sampler.sample(new CheckedTest(expected));
+    }
+
+    private String getDigest() throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-1").digest(body);
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < hash.length; i++) {
+            hex.append(Integer.toHexString(0x100 | (hash[i] & 0xff))
+                    .substring(1));
+        }
+        return "length:" + body.length + " sha-1:" + hex;
+    }
+
+    public void testBytesReceived() throws Exception {
+        // bytes, not chars, whether or not the body is kept
+        String expected = getDigest();
+        Result kept = sample(true, expected);
+        // decoded as the samplers always have, with the platform charset
+        assertEquals(new String(body), kept.getQueryResult());
+        assertEquals(body.length, kept.getBytesReceived());
+        Result discarded = sample(false, expected);
+        assertNull(discarded.getQueryResult());
+        assertEquals(body.length, discarded.getBytesReceived());
+        assertFalse(kept.isError());
+        assertFalse(discarded.isError());
+        // the whole request, either way
+        assertEquals(kept.getBytesSent(), discarded.getBytesSent());
+    }
+
+    public void testDigest() throws Exception {
+        // the wire bytes are checked, whether or not the body is kept
+        String expected = getDigest();
+        assertFalse(sample(true, expected).isError());
+        assertFalse(sample(false, expected).isError());
+        assertTrue(sample(true, "length:" + body.length + " sha-1:00")
+                .isError());
+        assertTrue(sample(false, "length:" + (1 + body.length)).isError());
+    }
+
+}
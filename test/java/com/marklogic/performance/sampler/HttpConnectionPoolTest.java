@@ -0,0 +1,188 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import com.marklogic.performance.Configuration;
+import com.marklogic.performance.ConnectionStatistics;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class HttpConnectionPoolTest extends TestCase {
+
+    /**
+     * Answers every request with "ok", or another body, keeping
+     * connections open.
+     */
+    static class KeepAliveServer extends Thread {
+
+        ServerSocket server;
+
+        byte[] body;
+
+        KeepAliveServer() throws IOException {
+            this("ok".getBytes("UTF-8"));
+        }
+
+        KeepAliveServer(byte[] _body) throws IOException {
+            server = new ServerSocket(0);
+            body = _body;
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    final Socket socket = server.accept();
+                    Thread handler = new Thread() {
+                        public void run() {
+                            serve(socket);
+                        }
+                    };
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        void serve(Socket socket) {
+            try {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                int c, state = 0;
+                while ((c = in.read()) > -1) {
+                    // look for the blank line at the end of the headers
+                    state = ('\r' == c || '\n' == c) ? state + 1 : 0;
+                    if (4 == state) {
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Length: "
+                                + body.length + "\r\n\r\n").getBytes("UTF-8"));
+                        out.write(body);
+                        out.flush();
+                        state = 0;
+                    }
+                }
+                socket.close();
+            } catch (IOException e) {
+                // client went away
+            }
+        }
+
+    }
+
+    private KeepAliveServer server;
+
+    protected void setUp() throws Exception {
+        server = new KeepAliveServer();
+        server.start();
+    }
+
+    protected void tearDown() throws Exception {
+        server.server.close();
+    }
+
+    private HttpConnectionPool newPool(String idleMillis) {
+        Properties props = new Properties();
+        props.setProperty(Configuration.HTTP_POOL_SIZE_KEY, "1");
+        props.setProperty(Configuration.HTTP_POOL_IDLE_MILLIS_KEY,
+                idleMillis);
+        // each server has its own port, and so its own pool
+        return HttpConnectionPool.getInstance("http", "127.0.0.1", server
+                .server.getLocalPort(), new Configuration(props));
+    }
+
+    private String get(HttpConnectionPool pool, ConnectionStatistics stats)
+            throws Exception {
+        return get(pool, stats, true);
+    }
+
+    private String get(HttpConnectionPool pool, ConnectionStatistics stats,
+            boolean keepBody) throws Exception {
+        pool.acquire(stats);
+        HttpConnection conn = pool.take(stats);
+        try {
+            String body = conn.exchange(HttpConnection.formatRequest("GET",
+                    "/", "localhost", "Basic", true, null, null), null,
+                    keepBody, null);
+            assertEquals(2, conn.getBodyBytes());
+            return body;
+        } finally {
+            pool.giveBack(conn);
+            pool.release();
+        }
+    }
+
+    public void testReuse() throws Exception {
+        HttpConnectionPool pool = newPool("60000");
+        ConnectionStatistics stats = new ConnectionStatistics(3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("ok", get(pool, stats));
+        }
+        assertEquals(1, stats.getOpenedCount());
+        assertEquals(3, stats.getWaitHistogram().getTotalCount());
+    }
+
+    public void testIdleEviction() throws Exception {
+        HttpConnectionPool pool = newPool("0");
+        ConnectionStatistics stats = new ConnectionStatistics(3);
+        assertEquals("ok", get(pool, stats));
+        Thread.sleep(2);
+        assertEquals("ok", get(pool, stats));
+        assertEquals(2, stats.getOpenedCount());
+    }
+
+    public void testDiscardBody() throws Exception {
+        HttpConnectionPool pool = newPool("60000");
+        ConnectionStatistics stats = new ConnectionStatistics(3);
+        assertNull(get(pool, stats, false));
+        // the connection is still good for the next response
+        assertEquals("ok", get(pool, stats, true));
+        assertEquals(1, stats.getOpenedCount());
+    }
+
+    public void testPrewarmedIsPooled() throws Exception {
+        HttpConnectionPool pool = newPool("60000");
+        ConnectionStatistics stats = new ConnectionStatistics(3);
+        HttpConnection fresh = pool.take(stats);
+        // a new connection cannot be stale, so it is not retried
+        assertFalse(fresh.isPooled());
+        fresh.close();
+        pool.prewarm(stats, 1);
+        HttpConnection conn = pool.take(stats);
+        try {
+            // the server may close it before its first request
+            assertTrue(conn.isPooled());
+            assertEquals(0, conn.getBytesRead());
+        } finally {
+            conn.close();
+        }
+    }
+
+}
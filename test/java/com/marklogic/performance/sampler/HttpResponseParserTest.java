@@ -0,0 +1,93 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class HttpResponseParserTest extends TestCase {
+
+    /**
+     * Feed the response a few bytes at a time, as the network might.
+     */
+    private boolean feed(HttpResponseParser parser, String response,
+            int step) throws IOException {
+        byte[] bytes = response.getBytes("ISO-8859-1");
+        boolean done = false;
+        for (int i = 0; i < bytes.length; i += step) {
+            assertFalse(done);
+            done = parser.parse(ByteBuffer.wrap(bytes, i, Math.min(step,
+                    bytes.length - i)));
+        }
+        return done;
+    }
+
+    public void testContentLength() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser();
+        parser.reset(true);
+        assertTrue(feed(parser, "HTTP/1.1 200 OK\r\n"
+                + "Content-Length: 5\r\n\r\nhello", 3));
+        assertEquals(200, parser.getStatusCode());
+        assertEquals(5, parser.getBodyBytes());
+        assertEquals("hello", parser.getBody());
+        assertTrue(parser.isKeepAlive());
+    }
+
+    public void testChunked() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser();
+        parser.reset(true);
+        assertTrue(feed(parser, "HTTP/1.1 200 OK\r\n"
+                + "Transfer-Encoding: chunked\r\n\r\n"
+                + "6\r\nhello \r\na;ext=1\r\nchunked!!!\r\n0\r\n\r\n", 1));
+        assertEquals("hello chunked!!!", parser.getBody());
+        assertEquals(16, parser.getBodyBytes());
+    }
+
+    public void testUntilClose() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser();
+        parser.reset(false);
+        assertFalse(feed(parser, "HTTP/1.0 500 Internal Server Error\r\n"
+                + "\r\nboom", 7));
+        assertTrue(parser.endOfStream());
+        assertEquals(500, parser.getStatusCode());
+        assertEquals(4, parser.getBodyBytes());
+        assertNull(parser.getBody());
+        assertFalse(parser.isKeepAlive());
+    }
+
+    public void testTruncated() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser();
+        parser.reset(false);
+        assertFalse(feed(parser, "HTTP/1.1 200 OK\r\n"
+                + "Content-Length: 10\r\n\r\nhello", 64));
+        try {
+            parser.endOfStream();
+            fail("truncated response was accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}
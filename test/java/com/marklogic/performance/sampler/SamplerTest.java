@@ -0,0 +1,120 @@
+/*
+ * Copyright (c)2010 Mark Logic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * The use of the Apache License does not indicate that this project is
+ * affiliated with the Apache Software Foundation.
+ */
+package com.marklogic.performance.sampler;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import com.marklogic.performance.AbstractTest;
+import com.marklogic.performance.Configuration;
+import com.marklogic.performance.Result;
+import com.marklogic.performance.TestInterface;
+
+/**
+ * @author Michael Blakeley, michael.blakeley@marklogic.com
+ *
+ */
+public class SamplerTest extends TestCase {
+
+    /**
+     * Reads its response from a stream, as XCCSampler does.
+     */
+    static class StreamSampler extends Sampler {
+
+        byte[] response;
+
+        StreamSampler(Configuration cfg, byte[] _response) {
+            super(null, cfg);
+            response = _response;
+        }
+
+        protected String sample(Result result, String query,
+                TestInterface test) throws Exception {
+            InputStream in = new ByteArrayInputStream(response);
+            if (!keepBody) {
+                result.incrementBytesReceived(discardResponse(in,
+                        expectedResult));
+                return null;
+            }
+            byte[] bytes = readResponse(in);
+            result.incrementBytesReceived(bytes.length);
+            if (null != expectedResult) {
+                expectedResult.update(bytes, 0, bytes.length);
+            }
+            return new String(bytes);
+        }
+
+    }
+
+    static class CheckedTest extends AbstractTest {
+        CheckedTest(String _expected) {
+            name = "checked";
+            query = "q";
+            commentExpectedResult = _expected;
+        }
+    }
+
+    private Result sample(boolean keepBody, String response,
+            String expected) {
+        Properties props = new Properties();
+        props.setProperty("checkResults", "true");
+        props.setProperty("reportTime", "true");
+        props.setProperty("recordResults", "" + keepBody);
+        // several reads per response, through the same buffer
+        props.setProperty("readSize", "3");
+        StreamSampler sampler = new StreamSampler(new Configuration(props),
+                response.getBytes());
+        sampler.configure();
+        assertEquals(keepBody, sampler.keepBody);
+        Result first = sampler.sample(new CheckedTest(expected));
+        // a second sample must not see anything left from the first
+        Result second = sampler.sample(new CheckedTest(expected));
+        assertEquals(first.getBytesReceived(), second.getBytesReceived());
+        assertEquals(first.isError(), second.isError());
+        return second;
+    }
+
+    public void testDiscard() {
+        String response = "a response longer than the buffer";
+        Result r = sample(false, response, response);
+        assertNull(r.getQueryResult());
+        assertEquals(response.length(), r.getBytesReceived());
+        assertFalse(r.isError());
+
+        // plain text is checked by length and hash
+        assertTrue(sample(false, response, response + "!").isError());
+        assertTrue(sample(false, response, "length:"
+                + (1 + response.length())).isError());
+        assertFalse(sample(false, response, "length:" + response.length())
+                .isError());
+    }
+
+    public void testKeep() {
+        String response = "a response longer than the buffer";
+        Result r = sample(true, response, response);
+        assertEquals(response, r.getQueryResult());
+        assertEquals(response.length(), r.getBytesReceived());
+        assertFalse(r.isError());
+        assertTrue(sample(true, response, response + "!").isError());
+    }
+
+}